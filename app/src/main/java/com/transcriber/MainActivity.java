@@ -6,6 +6,8 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.View;
@@ -23,26 +25,32 @@ import androidx.core.content.ContextCompat;
 import androidx.core.content.FileProvider;
 
 import com.google.android.material.button.MaterialButton;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.transcriber.audio.AudioRecorder;
 import com.transcriber.audit.AuditLogger;
 import com.transcriber.cloud.GCloudTranscriber;
+import com.transcriber.cloud.StreamingTranscriber;
 import com.transcriber.config.Config;
 import com.transcriber.file.FileManager;
+import com.transcriber.job.TranscriptionJob;
+import com.transcriber.job.TranscriptionJobQueue;
 import com.transcriber.security.BiometricAuthHelper;
-import com.transcriber.security.EncryptionManager;
 import com.transcriber.security.FileMetadataManager;
+import com.transcriber.security.KeySession;
 import com.transcriber.template.TemplateManager;
 import com.transcriber.text.TranscriptionCleaner;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -51,7 +59,7 @@ public class MainActivity extends AppCompatActivity {
 
     private EditText patientNameEditText, dobEditText, transcriptionEditText;
     private Spinner templateSpinner, fileSpinner;
-    private Button recordButton, stopButton, sendToGoogleButton, cleanButton, saveButton, deleteTranscriptionButton, deleteRecordingButton;
+    private Button recordButton, stopButton, sendToGoogleButton, cancelTranscriptionButton, cleanButton, saveButton, deleteTranscriptionButton, deleteRecordingButton;
     private MaterialButton exportLogButton;
     private TextView statusTextView;
 
@@ -63,7 +71,51 @@ public class MainActivity extends AppCompatActivity {
     private File currentRecordingFile;
     private String currentTranscriptionUUID;
 
+    private boolean appInitialized = false;
+    private StreamingTranscriber liveTranscriber;
+    private volatile String liveTranscript;
+    private volatile File liveTranscriptFile;
+    private String activeJobId;
+
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler sessionHandler = new Handler(Looper.getMainLooper());
+    private final Runnable sessionTimeout = this::onSessionTimeout;
+    private final AtomicInteger savesInProgress = new AtomicInteger();
+
+    private final TranscriptionJobQueue.Listener jobListener = new TranscriptionJobQueue.Listener() {
+        @Override
+        public void onJobStatus(TranscriptionJob job, String status) {
+            updateStatus(status);
+        }
+
+        @Override
+        public void onJobFinished(TranscriptionJob job) {
+            TranscriptionJob.State state = job.getState();
+            String uuid = job.getTranscriptionUuid();
+            File recordingFile = job.getAudioFile();
+            String error = job.getError();
+            String jobId = job.getId();
+            runOnUiThread(() -> {
+                if (jobId.equals(activeJobId)) {
+                    activeJobId = null;
+                }
+                if (state == TranscriptionJob.State.DONE) {
+                    showCompletedTranscription(uuid);
+                    return;
+                }
+                // The recording is kept, so it can be sent again
+                if (currentRecordingFile == null && recordingFile.exists()) {
+                    currentRecordingFile = recordingFile;
+                }
+                if (state == TranscriptionJob.State.CANCELLED) {
+                    statusTextView.setText("Transcription cancelled.");
+                } else {
+                    statusTextView.setText("Transcription failed.");
+                    Toast.makeText(MainActivity.this, "Transcription failed: " + error, Toast.LENGTH_LONG).show();
+                }
+            });
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -85,9 +137,32 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onRestart() {
+        super.onRestart();
+        // The key session ends when the app is backgrounded, so re-authenticate on return
+        if (!KeySession.isActive()) {
+            showBiometricPrompt();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (!isChangingConfigurations()) {
+            sessionHandler.removeCallbacks(sessionTimeout);
+            // Pending metadata is written with the session keys, so it goes out before they are dropped
+            if (!FileMetadataManager.flush(Config.METADATA_FLUSH_TIMEOUT_MS)) {
+                Log.w(TAG, "Metadata not fully flushed before ending key session");
+            }
+            KeySession.end("app backgrounded");
+        }
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        TranscriptionJobQueue.setListener(null);
         executor.shutdown();
         try {
             if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
@@ -97,6 +172,26 @@ public class MainActivity extends AppCompatActivity {
             executor.shutdownNow();
             Thread.currentThread().interrupt();
         }
+        if (!FileMetadataManager.flush(Config.METADATA_FLUSH_TIMEOUT_MS)) {
+            Log.w(TAG, "Metadata not fully flushed on shutdown");
+        }
+        if (!AuditLogger.flush(Config.AUDIT_FLUSH_TIMEOUT_MS)) {
+            Log.w(TAG, "Audit log not fully flushed on shutdown: " + AuditLogger.getWriterStats());
+        }
+    }
+
+    /**
+     * End the key session and ask to unlock again, unless a dictation or save is running.
+     */
+    private void onSessionTimeout() {
+        // A cancelled prompt closes the activity, which would take the recording or save with it
+        if ((audioRecorder != null && audioRecorder.isRecording()) || savesInProgress.get() > 0) {
+            Log.i(TAG, "Session expired during recording or save; re-authentication deferred");
+            sessionHandler.postDelayed(sessionTimeout, Config.SESSION_REAUTH_RETRY_MS);
+            return;
+        }
+        KeySession.end("timeout");
+        showBiometricPrompt();
     }
 
     private void showBiometricPrompt() {
@@ -107,13 +202,10 @@ public class MainActivity extends AppCompatActivity {
                 new BiometricAuthHelper.AuthCallback() {
                     @Override
                     public void onAuthSuccess() {
-                        try {
-                            EncryptionManager.getOrCreateKey();
+                        sessionHandler.removeCallbacks(sessionTimeout);
+                        sessionHandler.postDelayed(sessionTimeout, KeySession.remainingMillis());
+                        if (!appInitialized) {
                             initializeApp();
-                        } catch (Exception e) {
-                            Log.e(TAG, "Failed to initialize encryption key", e);
-                            Toast.makeText(MainActivity.this, "Encryption setup failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                            finish();
                         }
                     }
 
@@ -135,6 +227,7 @@ public class MainActivity extends AppCompatActivity {
         recordButton = findViewById(R.id.recordButton);
         stopButton = findViewById(R.id.stopButton);
         sendToGoogleButton = findViewById(R.id.sendToGoogleButton);
+        cancelTranscriptionButton = findViewById(R.id.cancelTranscriptionButton);
         cleanButton = findViewById(R.id.cleanButton);
         saveButton = findViewById(R.id.saveButton);
         deleteTranscriptionButton = findViewById(R.id.deleteTranscriptionButton);
@@ -162,6 +255,12 @@ public class MainActivity extends AppCompatActivity {
                 Log.e(TAG, "Could not create audit_logs directory");
             }
         }
+        Config.JOBS_DIR = new File(getFilesDir(), "jobs");
+        if (!Config.JOBS_DIR.exists()) {
+            if (!Config.JOBS_DIR.mkdirs()) {
+                Log.e(TAG, "Could not create jobs directory");
+            }
+        }
     }
 
     private boolean checkPermissions() {
@@ -178,7 +277,7 @@ public class MainActivity extends AppCompatActivity {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
         if (requestCode == REQUEST_PERMISSIONS) {
             if (grantResults.length > 0 && checkPermissions()) {
-                initializeApp();
+                showBiometricPrompt();
             } else {
                 Toast.makeText(this, "Permissions are required to use the app.", Toast.LENGTH_LONG).show();
                 finish();
@@ -187,16 +286,41 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void initializeApp() {
-        try {
-            GCloudTranscriber.initialize(this);
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to initialize Google Cloud Transcriber", e);
-            Toast.makeText(this, "Failed to initialize Google Cloud Transcriber. Check credentials.", Toast.LENGTH_LONG).show();
-            sendToGoogleButton.setEnabled(false);
-        }
+        TranscriptionJobQueue.setListener(jobListener);
+        warmUpGoogleCloud();
         loadTemplates();
-        loadTranscriptionFiles();
+        loadMetadata();
+        recoverRecordings();
         setupListeners();
+        appInitialized = true;
+    }
+
+    /**
+     * Build the cloud clients off the UI thread; sending is enabled once they are ready.
+     */
+    private void warmUpGoogleCloud() {
+        sendToGoogleButton.setEnabled(false);
+        statusTextView.setText("Connecting to Google Cloud...");
+        Futures.addCallback(GCloudTranscriber.warmUp(this), new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                // Resumed jobs need the clients, so the queue starts only now
+                TranscriptionJobQueue.initialize();
+                runOnUiThread(() -> {
+                    sendToGoogleButton.setEnabled(true);
+                    statusTextView.setText("Ready");
+                });
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(TAG, "Failed to initialize Google Cloud Transcriber", t);
+                runOnUiThread(() -> {
+                    statusTextView.setText("Google Cloud unavailable.");
+                    Toast.makeText(MainActivity.this, "Failed to initialize Google Cloud Transcriber. Check credentials.", Toast.LENGTH_LONG).show();
+                });
+            }
+        }, MoreExecutors.directExecutor());
     }
 
     private void loadTemplates() {
@@ -207,6 +331,33 @@ public class MainActivity extends AppCompatActivity {
         templateSpinner.setAdapter(adapter);
     }
 
+    /**
+     * Decrypt the metadata store once off the UI thread; the file list reads it from memory afterwards.
+     */
+    private void loadMetadata() {
+        executor.execute(() -> {
+            try {
+                FileMetadataManager.load();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to load transcription metadata", e);
+            }
+            runOnUiThread(this::loadTranscriptionFiles);
+        });
+    }
+
+    /**
+     * Rebuild recordings left unfinished by a crash; queued on the executor before anything can record.
+     */
+    private void recoverRecordings() {
+        executor.execute(() -> {
+            int recovered = AudioRecorder.recoverInterrupted(Config.RECORDINGS_DIR);
+            if (recovered > 0) {
+                runOnUiThread(() -> Toast.makeText(MainActivity.this,
+                        "Recovered " + recovered + " interrupted recording(s)", Toast.LENGTH_LONG).show());
+            }
+        });
+    }
+
     private void loadTranscriptionFiles() {
         try {
             transcriptionFiles = FileManager.listEncryptedTranscriptions();
@@ -242,6 +393,7 @@ public class MainActivity extends AppCompatActivity {
         recordButton.setOnClickListener(v -> startRecording());
         stopButton.setOnClickListener(v -> stopRecording());
         sendToGoogleButton.setOnClickListener(v -> transcribeRecording());
+        cancelTranscriptionButton.setOnClickListener(v -> cancelTranscription());
         cleanButton.setOnClickListener(v -> cleanTranscription());
         saveButton.setOnClickListener(v -> saveTranscription());
         deleteTranscriptionButton.setOnClickListener(v -> deleteTranscription());
@@ -261,6 +413,7 @@ public class MainActivity extends AppCompatActivity {
 
     private void startRecording() {
         executor.execute(() -> {
+            startLiveTranscription();
             try {
                 currentRecordingFile = audioRecorder.start();
                 runOnUiThread(() -> {
@@ -269,6 +422,7 @@ public class MainActivity extends AppCompatActivity {
                     stopButton.setEnabled(true);
                 });
             } catch (IOException e) {
+                stopLiveTranscription(null);
                 runOnUiThread(() -> Toast.makeText(MainActivity.this, "Failed to start recording: " + e.getMessage(), Toast.LENGTH_SHORT).show());
             }
         });
@@ -276,151 +430,109 @@ public class MainActivity extends AppCompatActivity {
 
     private void stopRecording() {
         executor.execute(() -> {
+            // The recorder encrypts while recording, so the file is ready as soon as it stops
             File recordingFile = audioRecorder.stop();
-
-            // Encrypt the audio file immediately after recording
             if (recordingFile != null && recordingFile.exists()) {
-                try {
-                    File encryptedAudio = new File(recordingFile.getAbsolutePath() + ".enc");
-                    EncryptionManager.encryptBinaryFile(recordingFile, encryptedAudio);
-                    recordingFile.delete();
-                    currentRecordingFile = encryptedAudio;
-                    Log.i(TAG, "Audio recording encrypted: " + encryptedAudio.getName());
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to encrypt audio recording", e);
-                    currentRecordingFile = recordingFile;
-                }
+                currentRecordingFile = recordingFile;
+                Log.i(TAG, "Encrypted recording ready: " + recordingFile.getName());
+            } else {
+                // Not sealed; recoverInterrupted rebuilds what it can on the next start
+                currentRecordingFile = null;
+                recordingFile = null;
             }
+            stopLiveTranscription(recordingFile);
+            boolean saved = recordingFile != null;
+            boolean liveReady = liveTranscript != null && saved && recordingFile.equals(liveTranscriptFile);
 
             runOnUiThread(() -> {
-                statusTextView.setText("Recording stopped.");
+                statusTextView.setText(!saved ? "Recording failed to save."
+                        : liveReady ? "Recording stopped. Transcript ready." : "Recording stopped.");
                 recordButton.setEnabled(true);
                 stopButton.setEnabled(false);
             });
         });
     }
 
+    /**
+     * Stream audio to Speech while recording when the cloud client is available.
+     */
+    private void startLiveTranscription() {
+        if (!GCloudTranscriber.isInitialized()) {
+            return;
+        }
+        try {
+            StreamingTranscriber transcriber = GCloudTranscriber.newStreamingTranscriber();
+            transcriber.start();
+            liveTranscriber = transcriber;
+            audioRecorder.setLiveListener(transcriber::feed);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Live transcription unavailable, will upload after recording", e);
+            liveTranscriber = null;
+        }
+    }
+
+    /**
+     * Collect the final live transcript for the recording, or drop the session if there is none.
+     */
+    private void stopLiveTranscription(File recordingFile) {
+        audioRecorder.setLiveListener(null);
+        StreamingTranscriber transcriber = liveTranscriber;
+        liveTranscriber = null;
+        if (transcriber == null) {
+            return;
+        }
+        if (recordingFile == null) {
+            transcriber.cancel();
+            return;
+        }
+        updateStatus("Finalizing live transcript...");
+        try {
+            liveTranscript = transcriber.finish(Config.STREAMING_FINISH_TIMEOUT_MS);
+            liveTranscriptFile = recordingFile;
+            AuditLogger.log("streaming_transcribe", recordingFile, patientNameEditText.getText().toString(),
+                    "Live transcript finalized");
+        } catch (IOException e) {
+            Log.w(TAG, "Live transcription failed, will upload instead", e);
+            liveTranscript = null;
+            liveTranscriptFile = null;
+        }
+    }
+
     private void transcribeRecording() {
         if (currentRecordingFile == null) {
             Toast.makeText(this, "No recording to transcribe.", Toast.LENGTH_SHORT).show();
             return;
         }
 
+        File recordingFile = currentRecordingFile;
+        String patient = patientNameEditText.getText().toString();
+        String dob = dobEditText.getText().toString();
+        String templateName = (String) templateSpinner.getSelectedItem();
+        String templateContent = templateName != null ? templates.get(templateName) : null;
+
         statusTextView.setText("Transcribing...");
         executor.execute(() -> {
-            File tempWavFile = null;
             try {
-                String patient = patientNameEditText.getText().toString();
-                String dob = dobEditText.getText().toString();
-
-                File audioFileForUpload = currentRecordingFile;
-
-                // If audio is encrypted, decrypt to temporary file for GCS upload
-                if (currentRecordingFile.getName().endsWith(".enc")) {
-                    Log.i(TAG, "Encrypted audio file: " + currentRecordingFile.getAbsolutePath() + " (" + currentRecordingFile.length() + " bytes)");
-                    tempWavFile = new File(Config.RECORDINGS_DIR, ".temp_upload_" + System.currentTimeMillis() + ".wav");
-                    EncryptionManager.decryptBinaryFile(currentRecordingFile, tempWavFile);
-                    audioFileForUpload = tempWavFile;
-                    Log.i(TAG, "Decrypted audio for GCS upload: " + tempWavFile.getName());
-                    Log.i(TAG, "Decrypted audio size: " + tempWavFile.length() + " bytes");
-
-                    // Verify WAV header
-                    if (tempWavFile.length() < 44) {
-                        throw new IOException("Decrypted audio file too small (< 44 bytes) - may be corrupted");
-                    }
+                // Streamed while recording, so the job only has to save it
+                String transcript = null;
+                if (liveTranscript != null && !liveTranscript.isEmpty() && recordingFile.equals(liveTranscriptFile)) {
+                    transcript = liveTranscript;
+                    Log.i(TAG, "Using live transcript for " + recordingFile.getName());
                 }
+                liveTranscript = null;
+                liveTranscriptFile = null;
 
-                File finalTempWav = tempWavFile;
-
-                // Log audio file details before upload
-                Log.i(TAG, "Audio file for upload: " + audioFileForUpload.getAbsolutePath());
-                Log.i(TAG, "Audio file size: " + audioFileForUpload.length() + " bytes");
-                Log.i(TAG, "Audio file exists: " + audioFileForUpload.exists());
-
-                String transcript = GCloudTranscriber.uploadAndTranscribe(audioFileForUpload, patient, this::updateStatus);
-
-                // Log transcription result
-                Log.i(TAG, "Transcription result length: " + (transcript != null ? transcript.length() : 0));
-                Log.i(TAG, "Transcription content: " + (transcript != null ? transcript.substring(0, Math.min(100, transcript.length())) : "NULL"));
-
-                if (transcript == null || transcript.trim().isEmpty()) {
-                    Log.w(TAG, "Transcription is empty or null - possible audio quality issue");
-                    runOnUiThread(() -> {
-                        Toast.makeText(MainActivity.this, "Transcription returned empty. Check audio quality or microphone.", Toast.LENGTH_LONG).show();
-                        statusTextView.setText("Transcription empty - check audio");
-                    });
-                    // Clean up temp file
-                    if (finalTempWav != null && finalTempWav.exists()) {
-                        finalTempWav.delete();
-                    }
-                    return;
-                }
-
-                String finalTranscript = transcript;
+                // The job survives process death and retries on its own, so the recording is handed over
+                TranscriptionJob job = TranscriptionJobQueue.enqueue(recordingFile, patient, dob, templateContent, transcript);
                 runOnUiThread(() -> {
-                    try {
-                        String templateName = (String) templateSpinner.getSelectedItem();
-                        String processedText;
-                        if (templateName != null) {
-                            String templateContent = templates.get(templateName);
-                            Map<String, String> context = new HashMap<>();
-                            context.put("PATIENT", patient);
-                            context.put("DOB", dob);
-                            processedText = TemplateManager.applyTemplate(templateContent, finalTranscript, context);
-                        } else {
-                            processedText = finalTranscript;
-                        }
-
-                        Log.i(TAG, "Processed text length: " + processedText.length());
-
-                        // STAGE 1: Auto-save encrypted transcription immediately
-                        currentTranscriptionUUID = java.util.UUID.randomUUID().toString();
-                        FileManager.saveEncryptedTranscription(currentTranscriptionUUID, patient, dob, processedText);
-
-                        // TODO: GCS cleanup - delete audio + transcription from cloud
-                        // TranscriptionApiClient.cleanup(audioFilename);
-
-                        // Display for editing
-                        transcriptionEditText.setText(processedText);
-                        statusTextView.setText("Transcription saved (editable)");
-                        Toast.makeText(MainActivity.this, "Transcription auto-saved. Press Save to update.", Toast.LENGTH_SHORT).show();
-
-                        // Delete encrypted recording file
-                        if (currentRecordingFile.delete()) {
-                            Log.i(TAG, "Encrypted recording deleted: " + currentRecordingFile.getName());
-                        }
-
-                        // Delete temporary decrypted WAV if it exists
-                        if (finalTempWav != null && finalTempWav.exists()) {
-                            finalTempWav.delete();
-                            Log.i(TAG, "Temporary WAV deleted: " + finalTempWav.getName());
-                        }
-
+                    activeJobId = job.getId();
+                    if (recordingFile.equals(currentRecordingFile)) {
                         currentRecordingFile = null;
-
-                        loadTranscriptionFiles();
-
-                        // Select the newly created transcription in the spinner
-                        String newUuid = currentTranscriptionUUID;
-                        if (newUuid != null && transcriptionUUIDs != null) {
-                            int position = transcriptionUUIDs.indexOf(newUuid);
-                            if (position >= 0) {
-                                fileSpinner.setSelection(position);
-                            }
-                        }
-
-                    } catch (Exception e) {
-                        Log.e(TAG, "Failed to save transcription", e);
-                        Toast.makeText(MainActivity.this, "Auto-save failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
                     }
+                    statusTextView.setText("Transcription queued");
                 });
-
             } catch (Exception e) {
-                // Clean up temp file on error
-                if (tempWavFile != null && tempWavFile.exists()) {
-                    tempWavFile.delete();
-                }
-                Log.e(TAG, "Transcription failed", e);
+                Log.e(TAG, "Failed to queue transcription", e);
                 runOnUiThread(() -> {
                     statusTextView.setText("Transcription failed.");
                     Toast.makeText(MainActivity.this, "Transcription failed: " + e.toString(), Toast.LENGTH_LONG).show();
@@ -429,6 +541,29 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    private void cancelTranscription() {
+        if (activeJobId == null || !TranscriptionJobQueue.cancel(activeJobId)) {
+            Toast.makeText(this, "No transcription in progress.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        statusTextView.setText("Cancelling transcription...");
+    }
+
+    private void showCompletedTranscription(String uuid) {
+        currentTranscriptionUUID = uuid;
+        loadTranscriptionFiles();
+
+        // Select the newly created transcription in the spinner, which loads it for editing
+        if (transcriptionUUIDs != null) {
+            int position = transcriptionUUIDs.indexOf(uuid);
+            if (position >= 0) {
+                fileSpinner.setSelection(position);
+            }
+        }
+        statusTextView.setText("Transcription saved (editable)");
+        Toast.makeText(MainActivity.this, "Transcription auto-saved. Press Save to update.", Toast.LENGTH_SHORT).show();
+    }
+
     private void cleanTranscription() {
         String currentText = transcriptionEditText.getText().toString();
         String cleanedText = TranscriptionCleaner.removeFillerWords(currentText);
@@ -446,6 +581,7 @@ public class MainActivity extends AppCompatActivity {
         }
 
         String content = transcriptionEditText.getText().toString();
+        savesInProgress.incrementAndGet();
         executor.execute(() -> {
             try {
                 // STAGE 2: Update existing encrypted file (or create new if no auto-save happened)
@@ -473,6 +609,8 @@ public class MainActivity extends AppCompatActivity {
             } catch (Exception e) {
                 Log.e(TAG, "Failed to save transcription", e);
                 runOnUiThread(() -> Toast.makeText(MainActivity.this, "Save failed: " + e.getMessage(), Toast.LENGTH_LONG).show());
+            } finally {
+                savesInProgress.decrementAndGet();
             }
         });
     }
@@ -504,7 +642,7 @@ public class MainActivity extends AppCompatActivity {
     private void deleteAllRecordings() {
         new AlertDialog.Builder(this)
                 .setTitle("Delete All Recordings")
-                .setMessage("Are you sure you want to permanently delete all .wav recording files?")
+                .setMessage("Are you sure you want to permanently delete all recording files?")
                 .setPositiveButton(android.R.string.yes, (dialog, which) -> {
                     executor.execute(() -> {
                         int deletedCount = FileManager.deleteAllRecordings();
@@ -527,16 +665,12 @@ public class MainActivity extends AppCompatActivity {
         executor.execute(() -> {
             try {
                 Log.i(TAG, "Export audit log started");
-                File encryptedLog = new File(Config.AUDIT_LOG_DIR, "audit_log.csv.enc");
-                if (!encryptedLog.exists()) {
+                File tempPlaintextLog = new File(getCacheDir(), "audit_log_export.csv");
+                if (!AuditLogger.exportTo(tempPlaintextLog)) {
                     Log.w(TAG, "Audit log file does not exist");
                     runOnUiThread(() -> Toast.makeText(this, "Audit log is empty.", Toast.LENGTH_SHORT).show());
                     return;
                 }
-
-                Log.i(TAG, "Decrypting audit log: " + encryptedLog.getAbsolutePath());
-                File tempPlaintextLog = new File(getCacheDir(), "audit_log_export.csv");
-                EncryptionManager.decryptFile(encryptedLog, tempPlaintextLog);
                 Log.i(TAG, "Audit log decrypted to: " + tempPlaintextLog.getAbsolutePath() + " (" + tempPlaintextLog.length() + " bytes)");
 
                 runOnUiThread(() -> {
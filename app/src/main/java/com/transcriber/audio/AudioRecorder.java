@@ -12,30 +12,64 @@ import androidx.core.app.ActivityCompat;
 
 import com.transcriber.audit.AuditLogger;
 import com.transcriber.config.Config;
+import com.transcriber.security.EncryptionManager;
+import com.transcriber.security.SegmentedAeadOutputStream;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Locale;
 
+/**
+ * Records 16 kHz mono PCM straight into an encrypted file; no plaintext audio reaches disk.
+ * The audio is stored as lossless FLAC (.flac.enc) when {@link Config#RECORD_AS_FLAC} is set, otherwise as WAV (.wav.enc).
+ * With {@link Config#VAD_ENABLED} long pauses are trimmed before anything is written, and a speech segment
+ * index (.vad.enc) records where the kept audio sat in the original recording.
+ *
+ * The first encryption segment, which holds the container header, is only sealed in place when recording
+ * stops. Until then a sealed backup of it (.head.enc) lets {@link #recoverInterrupted(File)} rebuild a
+ * recording whose writer was killed, losing only the audio that had not yet filled a segment.
+ */
 public class AudioRecorder {
 
     private static final String TAG = "AudioRecorder";
     private static final int RECORDER_SAMPLE_RATE = 16000;
     private static final int RECORDER_CHANNELS = AudioFormat.CHANNEL_IN_MONO;
     private static final int RECORDER_AUDIO_ENCODING = AudioFormat.ENCODING_PCM_16BIT;
+    private static final int RECORDER_CHANNEL_COUNT = 1;
+    private static final int WAV_HEADER_SIZE = 44;
+    private static final int WAV_RIFF_SIZE_OFFSET = 4;
+    private static final int WAV_DATA_SIZE_OFFSET = 40;
+    private static final String ENCRYPTED_SUFFIX = ".enc";
+    private static final String HEAD_BACKUP_SUFFIX = ".head.enc";
+    private static final String REBUILT_SUFFIX = ".rebuilt";
 
     private AudioRecord audioRecord;
-    private Thread recordingThread;
-    private boolean isRecording = false;
+    private PcmRingBuffer ringBuffer;
+    private Thread captureThread;
+    private Thread writerThread;
+    private volatile boolean isRecording = false;
+    private volatile boolean writerFailed = false;
     private File currentFile;
     private Context context;
+    private volatile PcmListener liveListener;
+
+    /**
+     * Receives recorded PCM on the writer thread, e.g. for live transcription.
+     * It gets all captured audio, including pauses trimmed from the file. The buffer is only valid during the call.
+     */
+    public interface PcmListener {
+        void onPcm(byte[] buffer, int offset, int length);
+    }
 
     public AudioRecorder(Context context) {
         this.context = context;
@@ -49,6 +83,13 @@ public class AudioRecorder {
         return currentFile;
     }
 
+    /**
+     * Set or clear the listener that gets a copy of the PCM stream while recording.
+     */
+    public void setLiveListener(PcmListener listener) {
+        this.liveListener = listener;
+    }
+
     public File start() throws IOException {
         if (ActivityCompat.checkSelfPermission(context, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
             throw new IOException("RECORD_AUDIO permission not granted");
@@ -63,38 +104,300 @@ public class AudioRecorder {
         }
 
         String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-        currentFile = new File(Config.RECORDINGS_DIR, "recording_" + timestamp + ".wav");
+        String extension = Config.RECORD_AS_FLAC ? ".flac.enc" : ".wav.enc";
+        currentFile = new File(Config.RECORDINGS_DIR, "recording_" + timestamp + extension);
 
         audioRecord.startRecording();
         isRecording = true;
+        writerFailed = false;
 
-        recordingThread = new Thread(() -> writeAudioDataToFile(currentFile, bufferSize), "AudioRecorder Thread");
-        recordingThread.start();
+        // Capture and persistence run on separate threads so a flash stall never delays AudioRecord.read
+        PcmRingBuffer ring = new PcmRingBuffer(Config.RECORDER_RING_BUFFER_BYTES);
+        ringBuffer = ring;
+        File file = currentFile;
+        writerThread = new Thread(() -> writeAudioDataToFile(file, ring), "AudioRecorder Writer");
+        captureThread = new Thread(() -> captureAudio(ring, bufferSize), "AudioRecorder Thread");
+        writerThread.start();
+        captureThread.start();
         AuditLogger.log("record_start", currentFile, "", "Recording started");
         return currentFile;
     }
 
-    private void writeAudioDataToFile(File file, int bufferSize) {
-        byte[] data = new byte[bufferSize];
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-            writeWavHeader(fos, 0, 0);
-
-            int totalBytesRead = 0;
+    private void captureAudio(PcmRingBuffer ring, int bufferSize) {
+        byte[] ringArray = ring.array();
+        // Reads land here only when the ring is full, to keep AudioRecord drained
+        byte[] overflow = new byte[bufferSize];
+        try {
             while (isRecording) {
-                int read = audioRecord.read(data, 0, bufferSize);
+                int writable = ring.writableBytes();
+                if (writable == 0) {
+                    int read = audioRecord.read(overflow, 0, bufferSize);
+                    if (read > 0) {
+                        ring.recordOverrun(read);
+                    }
+                    continue;
+                }
+                int read = audioRecord.read(ringArray, ring.writeOffset(), Math.min(bufferSize, writable));
                 if (read > 0) {
-                    fos.write(data, 0, read);
-                    totalBytesRead += read;
+                    ring.commitWrite(read);
+                }
+            }
+        } finally {
+            Arrays.fill(overflow, (byte) 0);
+            ring.close();
+        }
+    }
+
+    private void writeAudioDataToFile(File file, PcmRingBuffer ring) {
+        byte[] ringArray = ring.array();
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            SegmentedAeadOutputStream out = EncryptionManager.newPatchableEncryptingStream(fos,
+                    headBackupFor(file));
+            try {
+                // FLAC writes its own stream header; its totals are patched in like the WAV sizes
+                FlacEncoder flac = Config.RECORD_AS_FLAC
+                        ? new FlacEncoder(out, RECORDER_SAMPLE_RATE, RECORDER_CHANNEL_COUNT, Config.FLAC_BLOCK_SIZE)
+                        : null;
+                if (flac == null) {
+                    writeWavHeader(out, 0, 0);
+                }
+                RecordingSink sink = new RecordingSink(out, flac);
+                VoiceActivityDetector vad = Config.VAD_ENABLED
+                        ? new VoiceActivityDetector(RECORDER_SAMPLE_RATE, RECORDER_CHANNEL_COUNT, sink)
+                        : null;
+
+                long lastSync = System.currentTimeMillis();
+                while (ring.awaitData(Config.RECORDER_WRITE_BATCH_BYTES, Config.RECORDER_WRITER_WAIT_MS)) {
+                    if (System.currentTimeMillis() - lastSync >= Config.RECORDER_SYNC_INTERVAL_MS) {
+                        // Sealed segments only survive a power loss once synced
+                        fos.getFD().sync();
+                        lastSync = System.currentTimeMillis();
+                    }
+                    int readable;
+                    while ((readable = ring.readableBytes()) > 0) {
+                        // Streaming recognition needs the pauses too, or the stream times out waiting for audio
+                        PcmListener listener = liveListener;
+                        if (listener != null) {
+                            listener.onPcm(ringArray, ring.readOffset(), readable);
+                        }
+                        if (vad != null) {
+                            vad.process(ringArray, ring.readOffset(), readable);
+                        } else {
+                            sink.write(ringArray, ring.readOffset(), readable);
+                        }
+                        ring.commitRead(readable);
+                    }
+                }
+                if (vad != null) {
+                    vad.finish();
+                }
+                if (flac != null) {
+                    flac.finish();
+                    out.patchFirstSegment(FlacEncoder.STREAMINFO_OFFSET, flac.streamInfo());
+                } else {
+                    updateWavHeader(out, sink.bytesWritten);
+                }
+                out.finish();
+                fos.getFD().sync();
+                if (vad != null) {
+                    writeSpeechIndex(file, vad);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (Exception e) {
+            writerFailed = true;
+            Log.e(TAG, "Error writing encrypted audio data to file", e);
+        }
+    }
+
+    /**
+     * Rebuild the recordings in a directory whose writer was interrupted, from their first-segment backups,
+     * and return how many were rebuilt. Must not run while a recording is in progress.
+     */
+    public static int recoverInterrupted(File directory) {
+        File[] backups = directory != null
+                ? directory.listFiles((dir, name) -> name.endsWith(HEAD_BACKUP_SUFFIX))
+                : null;
+        int recovered = 0;
+        if (backups == null) {
+            return 0;
+        }
+        for (File backup : backups) {
+            String name = backup.getName();
+            File recording = new File(directory,
+                    name.substring(0, name.length() - HEAD_BACKUP_SUFFIX.length()) + ENCRYPTED_SUFFIX);
+            try {
+                if (recover(recording, backup)) {
+                    recovered++;
+                    AuditLogger.log("record_recover", recording, "", "Recovered interrupted recording");
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to recover interrupted recording " + recording.getName(), e);
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * Each step leaves a state the next run can continue from: the rebuilt copy is complete before the
+     * interrupted file is shredded, and the backup goes last.
+     */
+    private static boolean recover(File recording, File backup) throws Exception {
+        File rebuilt = new File(recording.getPath() + REBUILT_SUFFIX);
+        boolean recovered = false;
+        if (recording.exists()) {
+            if (isComplete(recording)) {
+                // Stopped normally; only the backup's deletion was interrupted
+                EncryptionManager.shredFile(rebuilt);
+                EncryptionManager.shredFile(backup);
+                return false;
+            }
+            rebuild(recording, backup, rebuilt);
+            EncryptionManager.shredFile(recording);
+        }
+        if (rebuilt.exists()) {
+            if (!rebuilt.renameTo(recording)) {
+                throw new IOException("Failed to replace interrupted recording");
+            }
+            recovered = true;
+        }
+        EncryptionManager.shredFile(backup);
+        return recovered;
+    }
+
+    private static boolean isComplete(File recording) {
+        try (FileInputStream fis = new FileInputStream(recording);
+             InputStream in = EncryptionManager.newDecryptingStream(fis)) {
+            byte[] buffer = new byte[Config.ENCRYPTION_SEGMENT_SIZE];
+            while (in.read(buffer) >= 0) {
+                // authenticate every segment, down to the last-flagged one
+            }
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Re-encode what survived into a fresh encrypted file with exact container sizes: WAV data is copied,
+     * FLAC is decoded up to the frame torn by the interruption and encoded again.
+     */
+    private static void rebuild(File recording, File backup, File rebuilt) throws Exception {
+        try (InputStream in = new BufferedInputStream(EncryptionManager.openInterrupted(recording, backup));
+             FileOutputStream fos = new FileOutputStream(rebuilt)) {
+            SegmentedAeadOutputStream out = EncryptionManager.newPatchableEncryptingStream(fos);
+            try {
+                if (recording.getName().endsWith(".flac.enc")) {
+                    rebuildFlac(in, out);
+                } else {
+                    rebuildWav(in, out);
                 }
+                out.finish();
+                fos.getFD().sync();
+            } finally {
+                out.close();
             }
-            updateWavHeader(file, totalBytesRead);
+        }
+    }
 
+    private static void rebuildFlac(InputStream in, SegmentedAeadOutputStream out) throws IOException {
+        FlacDecoder decoder = new FlacDecoder(in);
+        FlacEncoder flac = new FlacEncoder(out, decoder.getSampleRate(), decoder.getChannels(),
+                decoder.getFixedBlockSize() > 0 ? decoder.getFixedBlockSize() : Config.FLAC_BLOCK_SIZE);
+        byte[] pcm = new byte[decoder.getMaxFrameBytes()];
+        try {
+            int length;
+            while ((length = decoder.decodeFrame(pcm)) >= 0) {
+                flac.write(pcm, 0, length);
+            }
         } catch (IOException e) {
-            Log.e(TAG, "Error writing audio data to file", e);
+            // The frame cut off by the interruption
+            Log.i(TAG, "Interrupted recording ends in a partial FLAC frame");
+        } finally {
+            Arrays.fill(pcm, (byte) 0);
+        }
+        flac.finish();
+        out.patchFirstSegment(FlacEncoder.STREAMINFO_OFFSET, flac.streamInfo());
+    }
+
+    private static void rebuildWav(InputStream in, SegmentedAeadOutputStream out) throws IOException {
+        byte[] buffer = new byte[Config.RECORDER_WRITE_BATCH_BYTES];
+        if (readFully(in, buffer, WAV_HEADER_SIZE) < WAV_HEADER_SIZE) {
+            throw new IOException("Interrupted recording has no WAV header");
+        }
+        writeWavHeader(out, 0, 0);
+        int totalAudioLen = 0;
+        try {
+            int read;
+            // Whole 16-bit samples only
+            while ((read = readFully(in, buffer, buffer.length)) > 0) {
+                read -= read % 2;
+                out.write(buffer, 0, read);
+                totalAudioLen += read;
+            }
+        } finally {
+            Arrays.fill(buffer, (byte) 0);
+        }
+        updateWavHeader(out, totalAudioLen);
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int total = 0;
+        int read;
+        while (total < length && (read = in.read(buffer, total, length - total)) >= 0) {
+            total += read;
+        }
+        return total;
+    }
+
+    private static File headBackupFor(File recording) {
+        String name = recording.getName();
+        String base = name.endsWith(ENCRYPTED_SUFFIX) ? name.substring(0, name.length() - ENCRYPTED_SUFFIX.length()) : name;
+        return new File(recording.getParentFile(), base + HEAD_BACKUP_SUFFIX);
+    }
+
+    private static void writeSpeechIndex(File recording, VoiceActivityDetector vad) {
+        SpeechSegmentIndex index = vad.getIndex();
+        Log.i(TAG, "Trimmed " + vad.getDroppedMillis() + "ms of silence from " + index.getOriginalMillis()
+                + "ms in " + index.getSegmentCount() + " segments");
+        try {
+            index.write(SpeechSegmentIndex.sidecarFor(recording));
+        } catch (Exception e) {
+            // The recording is complete without it; only the mapping to original time is lost
+            Log.w(TAG, "Failed to write speech segment index", e);
         }
     }
 
+    /**
+     * Takes the PCM that is kept into the encrypted file, as WAV data or through the FLAC encoder.
+     */
+    private static final class RecordingSink implements VoiceActivityDetector.Sink {
+        private final OutputStream out;
+        private final FlacEncoder flac;
+        int bytesWritten = 0;
+
+        RecordingSink(OutputStream out, FlacEncoder flac) {
+            this.out = out;
+            this.flac = flac;
+        }
+
+        @Override
+        public void write(byte[] pcm, int offset, int length) throws IOException {
+            if (flac != null) {
+                flac.write(pcm, offset, length);
+            } else {
+                out.write(pcm, offset, length);
+            }
+            bytesWritten += length;
+        }
+    }
+
+    /**
+     * Stop recording and return the finished file, or null if its writer failed or did not finish in time.
+     */
     public File stop() {
+        boolean complete = true;
         if (audioRecord != null) {
             isRecording = false;
             if (audioRecord.getState() == AudioRecord.STATE_INITIALIZED) {
@@ -104,29 +407,55 @@ public class AudioRecorder {
                     Log.e(TAG, "AudioRecord.stop() failed", e);
                 }
             }
+            // The writer drains the ring and seals the audio header; wait so the file is complete
+            joinQuietly(captureThread);
+            joinQuietly(writerThread);
+            if (writerThread != null && writerThread.isAlive()) {
+                // Its first segment is still unsealed; the backup lets recoverInterrupted rebuild it later
+                Log.w(TAG, "Recording writer did not finish within timeout");
+                complete = false;
+            } else {
+                if (ringBuffer != null) {
+                    Log.i(TAG, "Recording finished: " + ringBuffer);
+                    ringBuffer.clear();
+                }
+                complete = !writerFailed;
+            }
             audioRecord.release();
             audioRecord = null;
-            recordingThread = null;
-            AuditLogger.log("record_stop", currentFile, "", "Recording stopped");
+            captureThread = null;
+            writerThread = null;
+            ringBuffer = null;
+            AuditLogger.log("record_stop", currentFile, "",
+                    complete ? "Recording stopped" : "Recording stopped, file incomplete");
         }
-        return currentFile;
+        return complete ? currentFile : null;
     }
 
-    private void updateWavHeader(File file, int totalAudioLen) throws IOException {
-        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
-            int totalDataLen = totalAudioLen + 36;
-            raf.seek(4);
-            raf.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(totalDataLen).array());
-            raf.seek(40);
-            raf.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(totalAudioLen).array());
+    private static void joinQuietly(Thread thread) {
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join(Config.RECORDER_STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    private void writeWavHeader(OutputStream out, int totalAudioLen, int totalDataLen) throws IOException {
+    private static void updateWavHeader(SegmentedAeadOutputStream out, int totalAudioLen) throws IOException {
+        int totalDataLen = totalAudioLen + 36;
+        out.patchFirstSegment(WAV_RIFF_SIZE_OFFSET,
+                ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(totalDataLen).array());
+        out.patchFirstSegment(WAV_DATA_SIZE_OFFSET,
+                ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(totalAudioLen).array());
+    }
+
+    private static void writeWavHeader(OutputStream out, int totalAudioLen, int totalDataLen) throws IOException {
         long sampleRate = RECORDER_SAMPLE_RATE;
-        int channels = 1;
+        int channels = RECORDER_CHANNEL_COUNT;
         long byteRate = RECORDER_SAMPLE_RATE * channels * (16 / 8);
-        byte[] header = new byte[44];
+        byte[] header = new byte[WAV_HEADER_SIZE];
 
         header[0] = 'R';
         header[1] = 'I';
@@ -173,6 +502,6 @@ public class AudioRecorder {
         header[42] = (byte) ((totalAudioLen >> 16) & 0xff);
         header[43] = (byte) ((totalAudioLen >> 24) & 0xff);
 
-        out.write(header, 0, 44);
+        out.write(header, 0, WAV_HEADER_SIZE);
     }
 }
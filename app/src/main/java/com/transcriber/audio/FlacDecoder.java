@@ -0,0 +1,490 @@
+package com.transcriber.audio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming FLAC decoder producing 16-bit little-endian PCM, one frame at a time.
+ *
+ * Covers the fixed-blocksize streams {@link FlacEncoder} writes (and the common subset of other encoders):
+ * constant, verbatim, fixed and LPC subframes, wasted bits, stereo decorrelation and both Rice codings.
+ * Frame header and frame CRCs are verified. A decoder can also be started at a frame boundary in the
+ * middle of a stream, given the format of that stream.
+ */
+public class FlacDecoder {
+
+    private static final int METADATA_STREAMINFO = 0;
+    private static final int LAST_METADATA_FLAG = 0x80;
+    private static final int FRAME_SYNC_MASK = 0xFFFE;
+    private static final int FRAME_SYNC = 0xFFF8;
+    private static final int CHANNEL_LEFT_SIDE = 8;
+    private static final int CHANNEL_SIDE_RIGHT = 9;
+    private static final int CHANNEL_MID_SIDE = 10;
+    private static final int MAX_LPC_ORDER = 32;
+
+    private final BitReader in;
+    private final int sampleRate;
+    private final int channels;
+    private final int bitsPerSample;
+    private final int minBlockSize;
+    private final int maxBlockSize;
+    private final long totalSamples;
+    private int[][] samples;
+    private int[] residual;
+    private final int[] coefficients = new int[MAX_LPC_ORDER];
+
+    /**
+     * Read the stream header and metadata; the next call to {@link #decodeFrame} returns the first frame.
+     */
+    public FlacDecoder(InputStream input) throws IOException {
+        this.in = new BitReader(input);
+        byte[] magic = new byte[FlacEncoder.MAGIC.length];
+        for (int i = 0; i < magic.length; i++) {
+            magic[i] = (byte) in.readBits(8);
+        }
+        if (!isFlac(magic)) {
+            throw new IOException("Not a FLAC stream");
+        }
+
+        byte[] streamInfo = null;
+        boolean last = false;
+        while (!last) {
+            int blockHeader = in.readBits(8);
+            last = (blockHeader & LAST_METADATA_FLAG) != 0;
+            int length = in.readBits(24);
+            byte[] block = new byte[length];
+            for (int i = 0; i < length; i++) {
+                block[i] = (byte) in.readBits(8);
+            }
+            if ((blockHeader & ~LAST_METADATA_FLAG) == METADATA_STREAMINFO) {
+                streamInfo = block;
+            }
+        }
+        if (streamInfo == null || streamInfo.length < FlacEncoder.STREAMINFO_LENGTH) {
+            throw new IOException("FLAC stream has no STREAMINFO");
+        }
+        minBlockSize = readInt(streamInfo, 0, 2);
+        maxBlockSize = readInt(streamInfo, 2, 2);
+        int packed = readInt(streamInfo, 10, 4);
+        sampleRate = packed >>> 12;
+        channels = ((packed >>> 9) & 0x7) + 1;
+        bitsPerSample = ((packed >>> 4) & 0x1F) + 1;
+        totalSamples = ((long) (packed & 0xF) << 32) | (readInt(streamInfo, 14, 4) & 0xFFFFFFFFL);
+        allocate();
+    }
+
+    /**
+     * Decode from a frame boundary in the middle of a stream whose header was read by {@code format}.
+     */
+    public FlacDecoder(InputStream input, FlacDecoder format) {
+        this.in = new BitReader(input);
+        this.sampleRate = format.sampleRate;
+        this.channels = format.channels;
+        this.bitsPerSample = format.bitsPerSample;
+        this.minBlockSize = format.minBlockSize;
+        this.maxBlockSize = format.maxBlockSize;
+        this.totalSamples = format.totalSamples;
+        allocate();
+    }
+
+    /**
+     * Whether a stream starting with these bytes is FLAC.
+     */
+    public static boolean isFlac(byte[] header) {
+        if (header.length < FlacEncoder.MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < FlacEncoder.MAGIC.length; i++) {
+            if (header[i] != FlacEncoder.MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Duration from a stream's first {@link FlacEncoder#HEADER_LENGTH} bytes, or -1 if it was never recorded.
+     */
+    public static double durationSeconds(byte[] header) {
+        if (!isFlac(header) || header.length < FlacEncoder.HEADER_LENGTH) {
+            return -1;
+        }
+        int packed = readInt(header, FlacEncoder.STREAMINFO_OFFSET + 10, 4);
+        int rate = packed >>> 12;
+        long samples = ((long) (packed & 0xF) << 32)
+                | (readInt(header, FlacEncoder.STREAMINFO_OFFSET + 14, 4) & 0xFFFFFFFFL);
+        return rate > 0 && samples > 0 ? (double) samples / rate : -1;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Total samples per channel, or 0 if the encoder never recorded it.
+     */
+    public long getTotalSamples() {
+        return totalSamples;
+    }
+
+    /**
+     * The block size of a fixed-blocksize stream, or 0 if block sizes vary.
+     */
+    public int getFixedBlockSize() {
+        return minBlockSize == maxBlockSize ? maxBlockSize : 0;
+    }
+
+    /**
+     * Bytes of PCM in the largest frame.
+     */
+    public int getMaxFrameBytes() {
+        return maxBlockSize * channels * FlacEncoder.BYTES_PER_SAMPLE;
+    }
+
+    /**
+     * Bytes consumed from the input so far.
+     */
+    public long getBytesRead() {
+        return in.bytesRead;
+    }
+
+    /**
+     * Decode the next frame into pcm as interleaved 16-bit little-endian samples.
+     * Returns the number of bytes written, or -1 at the end of the stream.
+     */
+    public int decodeFrame(byte[] pcm) throws IOException {
+        int first = in.readByteOrEof();
+        if (first < 0) {
+            return -1;
+        }
+        in.startFrame(first);
+        int sync = (first << 8) | in.readBits(8);
+        if ((sync & FRAME_SYNC_MASK) != FRAME_SYNC) {
+            throw new IOException("Lost FLAC frame sync");
+        }
+        boolean variableBlocking = (sync & 1) != 0;
+        int blockSizeCode = in.readBits(4);
+        int sampleRateCode = in.readBits(4);
+        int channelAssignment = in.readBits(4);
+        int sampleSizeCode = in.readBits(3);
+        in.readBits(1);
+        readUtf8(variableBlocking);
+
+        int blockSize = blockSizeFromCode(blockSizeCode);
+        if (sampleRateCode == 12) {
+            in.readBits(8);
+        } else if (sampleRateCode == 13 || sampleRateCode == 14) {
+            in.readBits(16);
+        }
+        int expectedCrc8 = in.crc8;
+        if (in.readBits(8) != expectedCrc8) {
+            throw new IOException("FLAC frame header CRC mismatch");
+        }
+        if (sampleSizeCode != 0 && sampleSizeCode != FlacEncoder.SAMPLE_SIZE_CODE_16) {
+            throw new IOException("Unsupported FLAC sample size code " + sampleSizeCode);
+        }
+        if (bitsPerSample != FlacEncoder.BITS_PER_SAMPLE) {
+            throw new IOException("Unsupported FLAC bits per sample " + bitsPerSample);
+        }
+        if (blockSize > samples[0].length) {
+            throw new IOException("FLAC block of " + blockSize + " samples exceeds the stream maximum");
+        }
+
+        int frameChannels = channelAssignment < CHANNEL_LEFT_SIDE ? channelAssignment + 1 : 2;
+        if (frameChannels != channels) {
+            throw new IOException("FLAC frame has " + frameChannels + " channels, stream has " + channels);
+        }
+        for (int channel = 0; channel < channels; channel++) {
+            boolean side = (channelAssignment == CHANNEL_LEFT_SIDE && channel == 1)
+                    || (channelAssignment == CHANNEL_SIDE_RIGHT && channel == 0)
+                    || (channelAssignment == CHANNEL_MID_SIDE && channel == 1);
+            decodeSubframe(samples[channel], blockSize, bitsPerSample + (side ? 1 : 0));
+        }
+        decorrelate(channelAssignment, blockSize);
+
+        in.alignToByte();
+        int expectedCrc16 = in.crc16;
+        if (in.readBits(16) != expectedCrc16) {
+            throw new IOException("FLAC frame CRC mismatch");
+        }
+
+        int position = 0;
+        for (int i = 0; i < blockSize; i++) {
+            for (int channel = 0; channel < channels; channel++) {
+                int sample = samples[channel][i];
+                pcm[position++] = (byte) sample;
+                pcm[position++] = (byte) (sample >> 8);
+            }
+        }
+        return position;
+    }
+
+    private void allocate() {
+        samples = new int[channels][Math.max(maxBlockSize, 1)];
+        residual = new int[Math.max(maxBlockSize, 1)];
+    }
+
+    private int blockSizeFromCode(int code) throws IOException {
+        if (code == 1) {
+            return 192;
+        } else if (code >= 2 && code <= 5) {
+            return 576 << (code - 2);
+        } else if (code == 6) {
+            return in.readBits(8) + 1;
+        } else if (code == 7) {
+            return in.readBits(16) + 1;
+        } else if (code >= 8) {
+            return 256 << (code - 8);
+        }
+        throw new IOException("Reserved FLAC block size code");
+    }
+
+    private long readUtf8(boolean variableBlocking) throws IOException {
+        int first = in.readBits(8);
+        int leadingOnes = 0;
+        while (leadingOnes < 8 && (first & (0x80 >>> leadingOnes)) != 0) {
+            leadingOnes++;
+        }
+        if (leadingOnes == 1 || leadingOnes > (variableBlocking ? 7 : 6)) {
+            throw new IOException("Invalid FLAC frame number");
+        }
+        int continuationBytes = Math.max(0, leadingOnes - 1);
+        long value = first & (0x7F >>> leadingOnes);
+        for (int i = 0; i < continuationBytes; i++) {
+            value = (value << 6) | (in.readBits(8) & 0x3F);
+        }
+        return value;
+    }
+
+    private void decodeSubframe(int[] x, int count, int bps) throws IOException {
+        int header = in.readBits(8);
+        int type = (header >>> 1) & 0x3F;
+        int wasted = 0;
+        if ((header & 1) != 0) {
+            wasted = 1 + (int) in.readUnary();
+            bps -= wasted;
+        }
+
+        if (type == 0) {
+            int value = in.readSigned(bps);
+            for (int i = 0; i < count; i++) {
+                x[i] = value;
+            }
+        } else if (type == 1) {
+            for (int i = 0; i < count; i++) {
+                x[i] = in.readSigned(bps);
+            }
+        } else if (type >= 8 && type <= 12) {
+            int order = type & 0x7;
+            for (int i = 0; i < order; i++) {
+                x[i] = in.readSigned(bps);
+            }
+            decodeResidual(count, order);
+            restoreFixed(x, count, order);
+        } else if (type >= 32) {
+            int order = (type & 0x1F) + 1;
+            for (int i = 0; i < order; i++) {
+                x[i] = in.readSigned(bps);
+            }
+            int precision = in.readBits(4) + 1;
+            int shift = in.readSigned(5);
+            if (precision > 15 || shift < 0) {
+                throw new IOException("Invalid FLAC LPC parameters");
+            }
+            for (int j = 0; j < order; j++) {
+                coefficients[j] = in.readSigned(precision);
+            }
+            decodeResidual(count, order);
+            for (int i = order; i < count; i++) {
+                long sum = 0;
+                for (int j = 0; j < order; j++) {
+                    sum += (long) coefficients[j] * x[i - 1 - j];
+                }
+                x[i] = residual[i] + (int) (sum >> shift);
+            }
+        } else {
+            throw new IOException("Reserved FLAC subframe type " + type);
+        }
+
+        if (wasted > 0) {
+            for (int i = 0; i < count; i++) {
+                x[i] <<= wasted;
+            }
+        }
+    }
+
+    private void decodeResidual(int count, int predictorOrder) throws IOException {
+        int method = in.readBits(2);
+        if (method > 1) {
+            throw new IOException("Reserved FLAC residual coding method");
+        }
+        int paramBits = method == 0 ? 4 : 5;
+        int escape = (1 << paramBits) - 1;
+        int partitionOrder = in.readBits(4);
+        int partitionSize = count >> partitionOrder;
+        if (partitionSize << partitionOrder != count || partitionSize < predictorOrder) {
+            throw new IOException("Invalid FLAC partition order");
+        }
+        int index = predictorOrder;
+        for (int p = 0; p < (1 << partitionOrder); p++) {
+            int param = in.readBits(paramBits);
+            int end = (p + 1) * partitionSize;
+            if (param == escape) {
+                int rawBits = in.readBits(5);
+                for (; index < end; index++) {
+                    residual[index] = rawBits == 0 ? 0 : in.readSigned(rawBits);
+                }
+                continue;
+            }
+            for (; index < end; index++) {
+                long value = (in.readUnary() << param) | (param > 0 ? in.readBits(param) & 0xFFFFFFFFL : 0);
+                residual[index] = (int) ((value >>> 1) ^ -(value & 1));
+            }
+        }
+    }
+
+    private void restoreFixed(int[] x, int count, int order) {
+        switch (order) {
+            case 0:
+                System.arraycopy(residual, 0, x, 0, count);
+                break;
+            case 1:
+                for (int i = 1; i < count; i++) {
+                    x[i] = residual[i] + x[i - 1];
+                }
+                break;
+            case 2:
+                for (int i = 2; i < count; i++) {
+                    x[i] = residual[i] + 2 * x[i - 1] - x[i - 2];
+                }
+                break;
+            case 3:
+                for (int i = 3; i < count; i++) {
+                    x[i] = residual[i] + 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+                }
+                break;
+            default:
+                for (int i = 4; i < count; i++) {
+                    x[i] = residual[i] + 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+                }
+                break;
+        }
+    }
+
+    private void decorrelate(int channelAssignment, int count) {
+        if (channelAssignment < CHANNEL_LEFT_SIDE) {
+            return;
+        }
+        int[] a = samples[0];
+        int[] b = samples[1];
+        for (int i = 0; i < count; i++) {
+            if (channelAssignment == CHANNEL_LEFT_SIDE) {
+                b[i] = a[i] - b[i];
+            } else if (channelAssignment == CHANNEL_SIDE_RIGHT) {
+                a[i] = a[i] + b[i];
+            } else {
+                int side = b[i];
+                int mid = (a[i] << 1) | (side & 1);
+                a[i] = (mid + side) >> 1;
+                b[i] = (mid - side) >> 1;
+            }
+        }
+    }
+
+    private static int readInt(byte[] data, int offset, int length) {
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * MSB-first bit reader that keeps the running CRCs of the current frame.
+     */
+    private static final class BitReader {
+        private final InputStream in;
+        private long accumulator = 0;
+        private int availableBits = 0;
+        long bytesRead = 0;
+        int crc8 = 0;
+        int crc16 = 0;
+
+        BitReader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Read the first byte of a frame, or -1 at a clean end of stream.
+         */
+        int readByteOrEof() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                bytesRead++;
+            }
+            return b;
+        }
+
+        /**
+         * Reset the CRCs so they cover the frame starting with this already-read byte.
+         */
+        void startFrame(int firstByte) {
+            crc8 = FlacEncoder.Crc.update8(0, firstByte);
+            crc16 = FlacEncoder.Crc.update16(0, firstByte);
+        }
+
+        private void fill() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated FLAC stream");
+            }
+            bytesRead++;
+            crc8 = FlacEncoder.Crc.update8(crc8, b);
+            crc16 = FlacEncoder.Crc.update16(crc16, b);
+            accumulator = (accumulator << 8) | b;
+            availableBits += 8;
+        }
+
+        /**
+         * Read count bits (at most 32) as an unsigned value.
+         */
+        int readBits(int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            while (availableBits < count) {
+                fill();
+            }
+            availableBits -= count;
+            return (int) ((accumulator >>> availableBits) & (0xFFFFFFFFL >>> (32 - count)));
+        }
+
+        int readSigned(int count) throws IOException {
+            int value = readBits(count);
+            return count == 32 ? value : (value << (32 - count)) >> (32 - count);
+        }
+
+        long readUnary() throws IOException {
+            long zeros = 0;
+            while (true) {
+                if (availableBits == 0) {
+                    fill();
+                }
+                availableBits--;
+                if (((accumulator >>> availableBits) & 1) != 0) {
+                    return zeros;
+                }
+                zeros++;
+            }
+        }
+
+        void alignToByte() {
+            availableBits -= availableBits % 8;
+        }
+    }
+}
@@ -0,0 +1,747 @@
+package com.transcriber.audio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Streaming lossless FLAC encoder for 16-bit little-endian PCM.
+ *
+ * Each block is encoded as a constant, verbatim, fixed-predictor (orders 0-4) or LPC subframe, whichever
+ * is smallest, with a partitioned Rice-coded residual. Blocks have a fixed size, so frame n always starts
+ * at sample n * blockSize. The STREAMINFO block is written up front with unknown totals; once
+ * {@link #finish()} has run, {@link #streamInfo()} returns the final block so a caller that can rewrite
+ * the start of the stream may patch it in at {@link #STREAMINFO_OFFSET}.
+ * All working buffers are allocated once, so encoding a block does not allocate.
+ */
+public class FlacEncoder {
+
+    public static final int STREAMINFO_OFFSET = 8;
+    public static final int STREAMINFO_LENGTH = 34;
+    public static final int HEADER_LENGTH = STREAMINFO_OFFSET + STREAMINFO_LENGTH;
+
+    static final byte[] MAGIC = {'f', 'L', 'a', 'C'};
+    static final int BITS_PER_SAMPLE = 16;
+    static final int BYTES_PER_SAMPLE = 2;
+
+    private static final int LAST_STREAMINFO_BLOCK = 0x80;
+    private static final int FRAME_SYNC = 0xFFF8;
+    static final int SAMPLE_SIZE_CODE_16 = 4;
+    private static final int BLOCK_SIZE_CODE_8BIT = 6;
+    private static final int BLOCK_SIZE_CODE_16BIT = 7;
+    private static final int MAX_UNCOMMON_BLOCK_SIZE_8BIT = 256;
+    private static final int SUBFRAME_CONSTANT = 0x00;
+    private static final int SUBFRAME_VERBATIM = 0x01;
+    private static final int SUBFRAME_FIXED = 0x08;
+    private static final int SUBFRAME_LPC = 0x20;
+    private static final int SUBFRAME_HEADER_BITS = 8;
+    private static final int MAX_FIXED_ORDER = 4;
+    private static final int MAX_LPC_ORDER = 8;
+    private static final int QLP_PRECISION = 12;
+    private static final int QLP_PRECISION_BITS = 4;
+    private static final int QLP_SHIFT_BITS = 5;
+    private static final int MAX_QLP_SHIFT = 15;
+    private static final int RESIDUAL_HEADER_BITS = 6;
+    private static final int MAX_PARTITION_ORDER = 8;
+    private static final int RICE_PARAM_BITS = 4;
+    private static final int RICE2_PARAM_BITS = 5;
+    private static final int MAX_RICE_PARAM = 14;
+    private static final int MAX_RICE2_PARAM = 30;
+    private static final int MD5_LENGTH = 16;
+
+    private final OutputStream out;
+    private final int sampleRate;
+    private final int channels;
+    private final int blockSize;
+    private final int sampleRateCode;
+    private final int blockSizeCode;
+    private final int sampleFrameBytes;
+    private final MessageDigest md5;
+
+    // Per-block working state, allocated once
+    private final int[][] samples;
+    private final int[] residual;
+    private final int[] bestResidual;
+    private final double[] windowed;
+    private final double[] window;
+    private int windowLength = 0;
+    private final double[] autocorrelation = new double[MAX_LPC_ORDER + 1];
+    private final double[][] lpc = new double[MAX_LPC_ORDER][MAX_LPC_ORDER];
+    private final double[] levinson = new double[MAX_LPC_ORDER];
+    private final int[] qlp = new int[MAX_LPC_ORDER];
+    private final int[] bestQlp = new int[MAX_LPC_ORDER];
+    // Partition sums for every order at once: order o occupies [1 << o, 2 << o)
+    private final long[] partitionSums = new long[2 << MAX_PARTITION_ORDER];
+    private final RicePlan plan = new RicePlan();
+    private final RicePlan bestPlan = new RicePlan();
+    private final BitWriter bits;
+
+    private final byte[] carry;
+    private int carryLength = 0;
+    private int filled = 0;
+    private long frameNumber = 0;
+    private long totalSamples = 0;
+    private int minFrameSize = Integer.MAX_VALUE;
+    private int maxFrameSize = 0;
+    private long bytesWritten = 0;
+    private byte[] md5Digest;
+    private boolean finished = false;
+
+    /**
+     * Partition order, Rice parameters and coding method chosen for one residual.
+     */
+    private static final class RicePlan {
+        final int[] params = new int[1 << MAX_PARTITION_ORDER];
+        int partitionOrder;
+        boolean rice2;
+
+        void copyFrom(RicePlan other) {
+            partitionOrder = other.partitionOrder;
+            rice2 = other.rice2;
+            System.arraycopy(other.params, 0, params, 0, 1 << other.partitionOrder);
+        }
+    }
+
+    /**
+     * Create an encoder and write the stream header; the caller keeps ownership of the output stream.
+     */
+    public FlacEncoder(OutputStream out, int sampleRate, int channels, int blockSize) throws IOException {
+        this.out = out;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.blockSize = blockSize;
+        this.sampleRateCode = sampleRateCode(sampleRate);
+        this.blockSizeCode = blockSizeCode(blockSize);
+        this.sampleFrameBytes = channels * BYTES_PER_SAMPLE;
+        this.samples = new int[channels][blockSize];
+        this.residual = new int[blockSize];
+        this.bestResidual = new int[blockSize];
+        this.windowed = new double[blockSize];
+        this.window = new double[blockSize];
+        this.carry = new byte[sampleFrameBytes];
+        this.bits = new BitWriter(blockSize * sampleFrameBytes + blockSize);
+        try {
+            this.md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("MD5 unavailable", e);
+        }
+
+        byte[] header = new byte[HEADER_LENGTH];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        header[4] = (byte) LAST_STREAMINFO_BLOCK;
+        header[7] = STREAMINFO_LENGTH;
+        System.arraycopy(streamInfo(), 0, header, STREAMINFO_OFFSET, STREAMINFO_LENGTH);
+        out.write(header);
+        bytesWritten = HEADER_LENGTH;
+    }
+
+    /**
+     * Encode a whole PCM buffer into a complete FLAC stream with final STREAMINFO.
+     */
+    public static byte[] encode(byte[] pcm, int offset, int length, int sampleRate, int channels, int blockSize)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_LENGTH + length / 2);
+        FlacEncoder encoder = new FlacEncoder(out, sampleRate, channels, blockSize);
+        encoder.write(pcm, offset, length);
+        encoder.finish();
+        byte[] flac = out.toByteArray();
+        System.arraycopy(encoder.streamInfo(), 0, flac, STREAMINFO_OFFSET, STREAMINFO_LENGTH);
+        return flac;
+    }
+
+    /**
+     * Encode interleaved 16-bit little-endian PCM; samples may be split across calls.
+     */
+    public void write(byte[] pcm, int offset, int length) throws IOException {
+        if (finished) {
+            throw new IOException("Encoder finished");
+        }
+        md5.update(pcm, offset, length);
+        int end = offset + length;
+        int position = offset;
+        while (position < end) {
+            if (carryLength > 0 || end - position < sampleFrameBytes) {
+                carry[carryLength++] = pcm[position++];
+                if (carryLength == sampleFrameBytes) {
+                    addSampleFrame(carry, 0);
+                    carryLength = 0;
+                }
+                continue;
+            }
+            addSampleFrame(pcm, position);
+            position += sampleFrameBytes;
+        }
+    }
+
+    /**
+     * Encode the final partial block. The output stream is not closed.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (filled > 0) {
+            encodeBlock(filled);
+        }
+        // A trailing partial sample is dropped, so the digest would not match the decoded audio
+        md5Digest = carryLength == 0 ? md5.digest() : new byte[MD5_LENGTH];
+        out.flush();
+    }
+
+    /**
+     * The STREAMINFO block: final once {@link #finish()} has run, otherwise with unknown totals.
+     */
+    public byte[] streamInfo() {
+        BitWriter info = new BitWriter(STREAMINFO_LENGTH);
+        info.writeBits(blockSize, 16);
+        info.writeBits(blockSize, 16);
+        info.writeBits(finished && maxFrameSize > 0 ? minFrameSize : 0, 24);
+        info.writeBits(finished ? maxFrameSize : 0, 24);
+        info.writeBits(sampleRate, 20);
+        info.writeBits(channels - 1, 3);
+        info.writeBits(BITS_PER_SAMPLE - 1, 5);
+        long samplesKnown = finished ? totalSamples : 0;
+        info.writeBits((int) (samplesKnown >>> 32), 4);
+        info.writeBits((int) samplesKnown, 32);
+        byte[] digest = finished ? md5Digest : new byte[MD5_LENGTH];
+        for (byte b : digest) {
+            info.writeBits(b, 8);
+        }
+        return Arrays.copyOf(info.buffer(), STREAMINFO_LENGTH);
+    }
+
+    public long getTotalSamples() {
+        return totalSamples;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void addSampleFrame(byte[] source, int position) throws IOException {
+        for (int channel = 0; channel < channels; channel++) {
+            samples[channel][filled] = (short) ((source[position] & 0xFF) | (source[position + 1] << 8));
+            position += BYTES_PER_SAMPLE;
+        }
+        if (++filled == blockSize) {
+            encodeBlock(blockSize);
+        }
+    }
+
+    private void encodeBlock(int count) throws IOException {
+        bits.reset();
+        writeFrameHeader(count);
+        for (int channel = 0; channel < channels; channel++) {
+            encodeSubframe(samples[channel], count);
+        }
+        bits.alignToByte();
+        bits.writeBits(Crc.crc16(bits.buffer(), 0, bits.length()), 16);
+
+        int frameSize = bits.length();
+        out.write(bits.buffer(), 0, frameSize);
+        bytesWritten += frameSize;
+        minFrameSize = Math.min(minFrameSize, frameSize);
+        maxFrameSize = Math.max(maxFrameSize, frameSize);
+        totalSamples += count;
+        frameNumber++;
+        filled = 0;
+    }
+
+    private void writeFrameHeader(int count) {
+        int code = count == blockSize && blockSizeCode > 0
+                ? blockSizeCode
+                : (count <= MAX_UNCOMMON_BLOCK_SIZE_8BIT ? BLOCK_SIZE_CODE_8BIT : BLOCK_SIZE_CODE_16BIT);
+        bits.writeBits(FRAME_SYNC, 16);
+        bits.writeBits(code, 4);
+        bits.writeBits(sampleRateCode, 4);
+        bits.writeBits(channels - 1, 4);
+        bits.writeBits(SAMPLE_SIZE_CODE_16, 3);
+        bits.writeBits(0, 1);
+        writeUtf8(frameNumber);
+        if (code == BLOCK_SIZE_CODE_8BIT) {
+            bits.writeBits(count - 1, 8);
+        } else if (code == BLOCK_SIZE_CODE_16BIT) {
+            bits.writeBits(count - 1, 16);
+        }
+        bits.writeBits(Crc.crc8(bits.buffer(), 0, bits.length()), 8);
+    }
+
+    /**
+     * Frame numbers use the variable-length "UTF-8" coding of the FLAC frame header.
+     */
+    private void writeUtf8(long value) {
+        if (value < 0x80) {
+            bits.writeBits((int) value, 8);
+            return;
+        }
+        int continuationBytes = value < 0x800 ? 1
+                : value < 0x10000 ? 2
+                : value < 0x200000 ? 3
+                : value < 0x4000000 ? 4
+                : 5;
+        int leadingOnes = continuationBytes + 1;
+        int prefix = (0xFF << (8 - leadingOnes)) & 0xFF;
+        bits.writeBits(prefix | (int) (value >>> (6 * continuationBytes)), 8);
+        for (int i = continuationBytes - 1; i >= 0; i--) {
+            bits.writeBits(0x80 | (int) ((value >>> (6 * i)) & 0x3F), 8);
+        }
+    }
+
+    private void encodeSubframe(int[] x, int count) {
+        boolean constant = true;
+        for (int i = 1; i < count && constant; i++) {
+            constant = x[i] == x[0];
+        }
+        if (constant) {
+            writeSubframeHeader(SUBFRAME_CONSTANT);
+            bits.writeBits(x[0], BITS_PER_SAMPLE);
+            return;
+        }
+
+        long bestBits = SUBFRAME_HEADER_BITS + (long) count * BITS_PER_SAMPLE;
+        int bestType = SUBFRAME_VERBATIM;
+        int bestOrder = 0;
+        int bestShift = 0;
+
+        for (int order = 0; order <= MAX_FIXED_ORDER && order < count; order++) {
+            fixedResidual(x, count, order);
+            long cost = SUBFRAME_HEADER_BITS + (long) order * BITS_PER_SAMPLE + planRice(count, order, plan);
+            if (cost < bestBits) {
+                bestBits = cost;
+                bestType = SUBFRAME_FIXED;
+                bestOrder = order;
+                keepResidual(count);
+            }
+        }
+
+        int maxLpcOrder = computeLpc(x, count);
+        for (int order = 1; order <= maxLpcOrder; order++) {
+            int shift = quantize(lpc[order - 1], order);
+            if (shift < 0) {
+                continue;
+            }
+            lpcResidual(x, count, order, shift);
+            long cost = SUBFRAME_HEADER_BITS + (long) order * BITS_PER_SAMPLE + QLP_PRECISION_BITS + QLP_SHIFT_BITS
+                    + (long) order * QLP_PRECISION + planRice(count, order, plan);
+            if (cost < bestBits) {
+                bestBits = cost;
+                bestType = SUBFRAME_LPC;
+                bestOrder = order;
+                bestShift = shift;
+                System.arraycopy(qlp, 0, bestQlp, 0, order);
+                keepResidual(count);
+            }
+        }
+
+        switch (bestType) {
+            case SUBFRAME_FIXED:
+                writeSubframeHeader(SUBFRAME_FIXED | bestOrder);
+                writeWarmup(x, bestOrder);
+                writeResidual(count, bestOrder);
+                break;
+            case SUBFRAME_LPC:
+                writeSubframeHeader(SUBFRAME_LPC | (bestOrder - 1));
+                writeWarmup(x, bestOrder);
+                bits.writeBits(QLP_PRECISION - 1, QLP_PRECISION_BITS);
+                bits.writeBits(bestShift, QLP_SHIFT_BITS);
+                for (int j = 0; j < bestOrder; j++) {
+                    bits.writeBits(bestQlp[j], QLP_PRECISION);
+                }
+                writeResidual(count, bestOrder);
+                break;
+            default:
+                writeSubframeHeader(SUBFRAME_VERBATIM);
+                writeWarmup(x, count);
+                break;
+        }
+    }
+
+    private void writeSubframeHeader(int type) {
+        // Zero padding bit, six type bits, no wasted bits
+        bits.writeBits(type << 1, SUBFRAME_HEADER_BITS);
+    }
+
+    private void writeWarmup(int[] x, int count) {
+        for (int i = 0; i < count; i++) {
+            bits.writeBits(x[i], BITS_PER_SAMPLE);
+        }
+    }
+
+    private void keepResidual(int count) {
+        System.arraycopy(residual, 0, bestResidual, 0, count);
+        bestPlan.copyFrom(plan);
+    }
+
+    private void fixedResidual(int[] x, int count, int order) {
+        switch (order) {
+            case 0:
+                System.arraycopy(x, 0, residual, 0, count);
+                break;
+            case 1:
+                for (int i = 1; i < count; i++) {
+                    residual[i] = x[i] - x[i - 1];
+                }
+                break;
+            case 2:
+                for (int i = 2; i < count; i++) {
+                    residual[i] = x[i] - 2 * x[i - 1] + x[i - 2];
+                }
+                break;
+            case 3:
+                for (int i = 3; i < count; i++) {
+                    residual[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+                }
+                break;
+            default:
+                for (int i = 4; i < count; i++) {
+                    residual[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+                }
+                break;
+        }
+    }
+
+    /**
+     * Windowed autocorrelation and Levinson-Durbin recursion; returns the highest usable order.
+     */
+    private int computeLpc(int[] x, int count) {
+        int maxOrder = Math.min(MAX_LPC_ORDER, count - 1);
+        if (maxOrder < 1) {
+            return 0;
+        }
+        // Welch window, recomputed only when the block length changes (the final block)
+        if (windowLength != count) {
+            double half = (count - 1) / 2.0;
+            for (int i = 0; i < count; i++) {
+                double t = (i - half) / (half + 1);
+                window[i] = 1 - t * t;
+            }
+            windowLength = count;
+        }
+        for (int i = 0; i < count; i++) {
+            windowed[i] = x[i] * window[i];
+        }
+        for (int lag = 0; lag <= maxOrder; lag++) {
+            double sum = 0;
+            for (int i = lag; i < count; i++) {
+                sum += windowed[i] * windowed[i - lag];
+            }
+            autocorrelation[lag] = sum;
+        }
+        if (autocorrelation[0] == 0) {
+            return 0;
+        }
+
+        double error = autocorrelation[0];
+        for (int i = 0; i < maxOrder; i++) {
+            double r = -autocorrelation[i + 1];
+            for (int j = 0; j < i; j++) {
+                r -= levinson[j] * autocorrelation[i - j];
+            }
+            r /= error;
+            levinson[i] = r;
+            int j = 0;
+            for (; j < (i >> 1); j++) {
+                double tmp = levinson[j];
+                levinson[j] += r * levinson[i - 1 - j];
+                levinson[i - 1 - j] += r * tmp;
+            }
+            if ((i & 1) != 0) {
+                levinson[j] += levinson[j] * r;
+            }
+            error *= 1.0 - r * r;
+            for (int k = 0; k <= i; k++) {
+                lpc[i][k] = -levinson[k];
+            }
+            if (error <= 0) {
+                return i + 1;
+            }
+        }
+        return maxOrder;
+    }
+
+    /**
+     * Quantize LPC coefficients to {@link #QLP_PRECISION} bits; returns the shift, or -1 if unusable.
+     */
+    private int quantize(double[] coefficients, int order) {
+        double max = 0;
+        for (int i = 0; i < order; i++) {
+            max = Math.max(max, Math.abs(coefficients[i]));
+        }
+        if (max <= 0 || Double.isNaN(max) || Double.isInfinite(max)) {
+            return -1;
+        }
+        int precision = QLP_PRECISION - 1;
+        int qmax = (1 << precision) - 1;
+        int qmin = -(1 << precision);
+        int shift = Math.min(MAX_QLP_SHIFT, precision - Math.getExponent(max) - 1);
+        if (shift < 0) {
+            return -1;
+        }
+        // Carry the rounding error forward so it does not accumulate in one direction
+        double error = 0;
+        for (int i = 0; i < order; i++) {
+            error += coefficients[i] * (1 << shift);
+            long q = Math.round(error);
+            q = Math.max(qmin, Math.min(qmax, q));
+            error -= q;
+            qlp[i] = (int) q;
+        }
+        return shift;
+    }
+
+    private void lpcResidual(int[] x, int count, int order, int shift) {
+        for (int i = order; i < count; i++) {
+            long sum = 0;
+            for (int j = 0; j < order; j++) {
+                sum += (long) qlp[j] * x[i - 1 - j];
+            }
+            residual[i] = x[i] - (int) (sum >> shift);
+        }
+    }
+
+    /**
+     * Choose the partition order and Rice parameters for the residual; returns the estimated bit cost.
+     */
+    private long planRice(int count, int predictorOrder, RicePlan target) {
+        int maxOrder = 0;
+        while (maxOrder < MAX_PARTITION_ORDER
+                && (count & ((1 << (maxOrder + 1)) - 1)) == 0
+                && (count >> (maxOrder + 1)) > predictorOrder) {
+            maxOrder++;
+        }
+
+        int partitionSize = count >> maxOrder;
+        int index = predictorOrder;
+        for (int p = 0; p < (1 << maxOrder); p++) {
+            long sum = 0;
+            for (int end = (p + 1) * partitionSize; index < end; index++) {
+                sum += zigzag(residual[index]);
+            }
+            partitionSums[(1 << maxOrder) + p] = sum;
+        }
+        for (int order = maxOrder - 1; order >= 0; order--) {
+            for (int p = 0; p < (1 << order); p++) {
+                partitionSums[(1 << order) + p] =
+                        partitionSums[(2 << order) + 2 * p] + partitionSums[(2 << order) + 2 * p + 1];
+            }
+        }
+
+        long bestCost = Long.MAX_VALUE;
+        int bestOrder = 0;
+        for (int order = maxOrder; order >= 0; order--) {
+            long cost = RESIDUAL_HEADER_BITS;
+            int maxParam = 0;
+            for (int p = 0; p < (1 << order); p++) {
+                int samplesInPartition = (count >> order) - (p == 0 ? predictorOrder : 0);
+                long sum = partitionSums[(1 << order) + p];
+                int param = riceParameter(sum, samplesInPartition);
+                maxParam = Math.max(maxParam, param);
+                cost += (long) samplesInPartition * (param + 1) + (sum >>> param);
+            }
+            cost += (long) (1 << order) * (maxParam > MAX_RICE_PARAM ? RICE2_PARAM_BITS : RICE_PARAM_BITS);
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestOrder = order;
+            }
+        }
+
+        int maxParam = 0;
+        for (int p = 0; p < (1 << bestOrder); p++) {
+            int samplesInPartition = (count >> bestOrder) - (p == 0 ? predictorOrder : 0);
+            target.params[p] = riceParameter(partitionSums[(1 << bestOrder) + p], samplesInPartition);
+            maxParam = Math.max(maxParam, target.params[p]);
+        }
+        target.partitionOrder = bestOrder;
+        target.rice2 = maxParam > MAX_RICE_PARAM;
+        return bestCost;
+    }
+
+    private static int riceParameter(long sum, int count) {
+        if (count <= 0 || sum <= count) {
+            return 0;
+        }
+        // count * (k + 1) + sum / 2^k is smallest where 2^k <= mean < 2^(k + 1)
+        return Math.min(63 - Long.numberOfLeadingZeros(sum / count), MAX_RICE2_PARAM);
+    }
+
+    private void writeResidual(int count, int predictorOrder) {
+        RicePlan chosen = bestPlan;
+        bits.writeBits(chosen.rice2 ? 1 : 0, 2);
+        bits.writeBits(chosen.partitionOrder, 4);
+        int partitions = 1 << chosen.partitionOrder;
+        int partitionSize = count >> chosen.partitionOrder;
+        int paramBits = chosen.rice2 ? RICE2_PARAM_BITS : RICE_PARAM_BITS;
+        int index = predictorOrder;
+        for (int p = 0; p < partitions; p++) {
+            int param = chosen.params[p];
+            bits.writeBits(param, paramBits);
+            for (int end = (p + 1) * partitionSize; index < end; index++) {
+                long value = zigzag(bestResidual[index]);
+                bits.writeUnary(value >>> param);
+                if (param > 0) {
+                    bits.writeBits((int) (value & ((1L << param) - 1)), param);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fold a signed residual onto the non-negative integers: 0, -1, 1, -2, 2, ...
+     */
+    private static long zigzag(int value) {
+        return value >= 0 ? (long) value << 1 : ((long) -value << 1) - 1;
+    }
+
+    private static int sampleRateCode(int sampleRate) {
+        switch (sampleRate) {
+            case 88200: return 1;
+            case 176400: return 2;
+            case 192000: return 3;
+            case 8000: return 4;
+            case 16000: return 5;
+            case 22050: return 6;
+            case 24000: return 7;
+            case 32000: return 8;
+            case 44100: return 9;
+            case 48000: return 10;
+            case 96000: return 11;
+            default: return 0; // taken from STREAMINFO
+        }
+    }
+
+    /**
+     * Frame header code for a common block size, or 0 if it has to be written out explicitly.
+     */
+    private static int blockSizeCode(int blockSize) {
+        if (blockSize == 192) {
+            return 1;
+        }
+        for (int code = 2; code <= 5; code++) {
+            if (blockSize == 576 << (code - 2)) {
+                return code;
+            }
+        }
+        for (int code = 8; code <= 15; code++) {
+            if (blockSize == 256 << (code - 8)) {
+                return code;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * MSB-first bit packer into a growable byte array.
+     */
+    static final class BitWriter {
+        private byte[] buffer;
+        private int length = 0;
+        private long accumulator = 0;
+        private int pendingBits = 0;
+
+        BitWriter(int capacity) {
+            buffer = new byte[Math.max(capacity, 16)];
+        }
+
+        void reset() {
+            length = 0;
+            accumulator = 0;
+            pendingBits = 0;
+        }
+
+        /**
+         * Append the low {@code count} bits of value (count at most 32).
+         */
+        void writeBits(int value, int count) {
+            if (count == 0) {
+                return;
+            }
+            accumulator = (accumulator << count) | (value & (0xFFFFFFFFL >>> (32 - count)));
+            pendingBits += count;
+            while (pendingBits >= 8) {
+                pendingBits -= 8;
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                buffer[length++] = (byte) (accumulator >>> pendingBits);
+            }
+        }
+
+        void writeUnary(long zeros) {
+            while (zeros >= 32) {
+                writeBits(0, 32);
+                zeros -= 32;
+            }
+            writeBits(1, (int) zeros + 1);
+        }
+
+        void alignToByte() {
+            if (pendingBits > 0) {
+                writeBits(0, 8 - pendingBits);
+            }
+        }
+
+        byte[] buffer() {
+            return buffer;
+        }
+
+        /**
+         * Whole bytes written so far.
+         */
+        int length() {
+            return length;
+        }
+    }
+
+    /**
+     * The CRC-8 (frame header) and CRC-16 (whole frame) checksums of the FLAC format.
+     */
+    static final class Crc {
+        private static final int[] CRC8_TABLE = new int[256];
+        private static final int[] CRC16_TABLE = new int[256];
+
+        static {
+            for (int i = 0; i < 256; i++) {
+                int crc8 = i;
+                int crc16 = i << 8;
+                for (int bit = 0; bit < 8; bit++) {
+                    crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                    crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+                }
+                CRC8_TABLE[i] = crc8 & 0xFF;
+                CRC16_TABLE[i] = crc16 & 0xFFFF;
+            }
+        }
+
+        private Crc() {
+            // Utility class - prevent instantiation
+        }
+
+        static int crc8(byte[] data, int offset, int length) {
+            int crc = 0;
+            for (int i = offset; i < offset + length; i++) {
+                crc = CRC8_TABLE[(crc ^ data[i]) & 0xFF];
+            }
+            return crc;
+        }
+
+        static int crc16(byte[] data, int offset, int length) {
+            int crc = 0;
+            for (int i = offset; i < offset + length; i++) {
+                crc = update16(crc, data[i]);
+            }
+            return crc;
+        }
+
+        static int update8(int crc, int b) {
+            return CRC8_TABLE[(crc ^ b) & 0xFF];
+        }
+
+        static int update16(int crc, int b) {
+            return ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ b) & 0xFF]) & 0xFFFF;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.transcriber.audio;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated single-producer/single-consumer byte ring for PCM audio.
+ *
+ * The capture thread reads from AudioRecord directly into the ring and the writer thread drains it in
+ * large contiguous chunks, so neither side allocates or takes a lock. Positions only ever grow; each is
+ * written by one thread and published through a volatile field.
+ */
+public class PcmRingBuffer {
+
+    private final byte[] buffer;
+    private final int mask;
+
+    // Written only by the producer
+    private volatile long writePosition = 0;
+    private volatile long overruns = 0;
+    private volatile long droppedBytes = 0;
+    private volatile boolean closed = false;
+
+    // Written only by the consumer
+    private volatile long readPosition = 0;
+    private volatile long underruns = 0;
+    private volatile Thread consumer;
+
+    /**
+     * Create a ring; the capacity must be a power of two.
+     */
+    public PcmRingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.buffer = new byte[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Backing array shared by both sides; only access it within the regions handed out below.
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    // ---- Producer side ----
+
+    /**
+     * Offset in {@link #array()} where the producer writes next.
+     */
+    public int writeOffset() {
+        return (int) (writePosition & mask);
+    }
+
+    /**
+     * Contiguous bytes the producer may write at {@link #writeOffset()}.
+     */
+    public int writableBytes() {
+        long free = buffer.length - (writePosition - readPosition);
+        return (int) Math.min(free, buffer.length - writeOffset());
+    }
+
+    /**
+     * Publish bytes written at {@link #writeOffset()} and wake the consumer.
+     */
+    public void commitWrite(int length) {
+        writePosition += length;
+        Thread waiting = consumer;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+
+    /**
+     * Record bytes the producer had to discard because the ring was full.
+     */
+    public void recordOverrun(int length) {
+        overruns++;
+        droppedBytes += length;
+    }
+
+    /**
+     * Mark the end of the stream; the consumer drains what is left and then sees end of data.
+     */
+    public void close() {
+        closed = true;
+        Thread waiting = consumer;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+
+    // ---- Consumer side ----
+
+    /**
+     * Offset in {@link #array()} where the consumer reads next.
+     */
+    public int readOffset() {
+        return (int) (readPosition & mask);
+    }
+
+    /**
+     * Contiguous bytes the consumer may read at {@link #readOffset()}.
+     */
+    public int readableBytes() {
+        long available = writePosition - readPosition;
+        return (int) Math.min(available, buffer.length - readOffset());
+    }
+
+    /**
+     * Release bytes read at {@link #readOffset()} back to the producer.
+     */
+    public void commitRead(int length) {
+        readPosition += length;
+    }
+
+    /**
+     * Wait until at least minBytes are buffered, the ring is closed, or the timeout passes.
+     * @return false once the ring is closed and fully drained.
+     */
+    public boolean awaitData(int minBytes, long timeoutMs) {
+        consumer = Thread.currentThread();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (writePosition - readPosition < minBytes && !closed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            consumer = null;
+        }
+        if (writePosition == readPosition) {
+            if (closed) {
+                return false;
+            }
+            underruns++;
+        }
+        return true;
+    }
+
+    /**
+     * Wipe buffered audio once both sides are finished.
+     */
+    public void clear() {
+        Arrays.fill(buffer, (byte) 0);
+    }
+
+    public long getOverruns() {
+        return overruns;
+    }
+
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    @Override
+    public String toString() {
+        return "PcmRingBuffer{capacity=" + buffer.length
+                + ", overruns=" + overruns
+                + ", droppedBytes=" + droppedBytes
+                + ", underruns=" + underruns + "}";
+    }
+}
@@ -0,0 +1,208 @@
+package com.transcriber.audio;
+
+import com.transcriber.security.EncryptionManager;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Random access to the 16-bit PCM of a stored recording, whether WAV or FLAC, plain or encrypted.
+ *
+ * WAV offsets map straight onto the file. FLAC frames have no length field, so their byte offsets are
+ * learned while decoding and kept in a {@link FrameIndex}; sources on the same recording can share one
+ * index, so after a single sequential pass every later read starts decoding at the right frame.
+ */
+public abstract class PcmSource implements Closeable {
+
+    public static final int WAV_HEADER_SIZE = 44;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Open a recording, detecting its format from the first bytes.
+     */
+    public static PcmSource open(File recording, FrameIndex index) throws Exception {
+        SeekableByteChannel channel = EncryptionManager.isSegmentedFile(recording)
+                ? EncryptionManager.openSeekable(recording)
+                : new RandomAccessFile(recording, "r").getChannel();
+        try {
+            byte[] magic = new byte[FlacEncoder.MAGIC.length];
+            ByteBuffer target = ByteBuffer.wrap(magic);
+            while (target.hasRemaining() && channel.read(target) >= 0) {
+                // keep reading until the magic is complete or the file ends
+            }
+            channel.position(0);
+            return FlacDecoder.isFlac(magic) ? new Flac(channel, index) : new Wav(channel);
+        } catch (Exception e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Total PCM bytes, or -1 if the recording does not say.
+     */
+    public abstract long size() throws IOException;
+
+    /**
+     * Read length PCM bytes starting at a PCM byte offset.
+     */
+    public abstract void readFully(long offset, byte[] buffer, int length) throws IOException;
+
+    /**
+     * Byte offsets of the FLAC frames of one recording, filled in as frames are decoded.
+     */
+    public static final class FrameIndex {
+        private long[] offsets = new long[64];
+        private int count = 0;
+
+        synchronized void record(int frame, long offset) {
+            if (frame != count) {
+                return;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = offset;
+        }
+
+        /**
+         * The closest frame at or before this one whose offset is known, or -1 if none is.
+         */
+        synchronized int floor(int frame) {
+            return Math.min(frame, count - 1);
+        }
+
+        synchronized long offsetOf(int frame) {
+            return offsets[frame];
+        }
+    }
+
+    private static final class Wav extends PcmSource {
+        private final SeekableByteChannel channel;
+
+        Wav(SeekableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return Math.max(0, channel.size() - WAV_HEADER_SIZE);
+        }
+
+        @Override
+        public void readFully(long offset, byte[] buffer, int length) throws IOException {
+            channel.position(WAV_HEADER_SIZE + offset);
+            ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+            while (target.hasRemaining()) {
+                if (channel.read(target) < 0) {
+                    throw new IOException("Unexpected end of audio");
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class Flac extends PcmSource {
+        private final SeekableByteChannel channel;
+        private final FrameIndex index;
+        private final FlacDecoder format;
+        private final int blockBytes;
+        private final byte[] frame;
+        private FlacDecoder decoder;
+        private long decoderBase = 0;
+        private int nextFrame = 0;
+        private int currentFrame = -1;
+        private int currentLength = 0;
+
+        Flac(SeekableByteChannel channel, FrameIndex index) throws IOException {
+            this.channel = channel;
+            this.index = index;
+            this.decoder = new FlacDecoder(stream(channel));
+            this.format = decoder;
+            if (decoder.getFixedBlockSize() == 0) {
+                throw new IOException("Variable block size FLAC is not supported");
+            }
+            this.blockBytes = decoder.getFixedBlockSize() * decoder.getChannels() * FlacEncoder.BYTES_PER_SAMPLE;
+            this.frame = new byte[decoder.getMaxFrameBytes()];
+        }
+
+        @Override
+        public long size() {
+            long samples = format.getTotalSamples();
+            return samples > 0 ? samples * format.getChannels() * FlacEncoder.BYTES_PER_SAMPLE : -1;
+        }
+
+        @Override
+        public void readFully(long offset, byte[] buffer, int length) throws IOException {
+            int copied = 0;
+            while (copied < length) {
+                long position = offset + copied;
+                int target = (int) (position / blockBytes);
+                if (target != currentFrame) {
+                    load(target);
+                }
+                int within = (int) (position - (long) target * blockBytes);
+                if (within >= currentLength) {
+                    throw new IOException("Unexpected end of audio");
+                }
+                int count = Math.min(length - copied, currentLength - within);
+                System.arraycopy(frame, within, buffer, copied, count);
+                copied += count;
+            }
+        }
+
+        private void load(int target) throws IOException {
+            // Jump back, or forward over frames another source has already indexed
+            int known = index.floor(target);
+            if (target < nextFrame || known > nextFrame) {
+                seek(Math.max(known, 0));
+            }
+            while (nextFrame <= target) {
+                index.record(nextFrame, decoderBase + decoder.getBytesRead());
+                currentLength = decoder.decodeFrame(frame);
+                if (currentLength < 0) {
+                    currentFrame = -1;
+                    throw new IOException("Unexpected end of audio");
+                }
+                currentFrame = nextFrame++;
+            }
+        }
+
+        private void seek(int frameNumber) throws IOException {
+            if (frameNumber == 0 && index.floor(0) < 0) {
+                // Nothing indexed yet: restart after the stream header
+                channel.position(0);
+                decoder = new FlacDecoder(stream(channel));
+                decoderBase = 0;
+            } else {
+                decoderBase = index.offsetOf(frameNumber);
+                channel.position(decoderBase);
+                decoder = new FlacDecoder(stream(channel), format);
+            }
+            nextFrame = frameNumber;
+            currentFrame = -1;
+        }
+
+        private static InputStream stream(SeekableByteChannel channel) {
+            return new BufferedInputStream(Channels.newInputStream(channel), READ_BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            Arrays.fill(frame, (byte) 0);
+            channel.close();
+        }
+    }
+}
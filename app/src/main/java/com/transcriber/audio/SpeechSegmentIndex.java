@@ -0,0 +1,162 @@
+package com.transcriber.audio;
+
+import com.transcriber.security.EncryptionManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Where the audio kept by {@link VoiceActivityDetector} sits in the original, untrimmed recording.
+ *
+ * The recording holds the kept frames back to back. Each segment is a run of consecutive original frames,
+ * stored as the number of frames dropped before it and its length, both as varints, so the index costs a
+ * few bytes per trimmed pause. It is written encrypted next to the recording as recording_*.vad.enc.
+ */
+public class SpeechSegmentIndex {
+
+    private static final int VERSION = 1;
+    private static final String SIDECAR_SUFFIX = ".vad.enc";
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int frameMs;
+    private long[] starts = new long[INITIAL_CAPACITY];
+    private long[] lengths = new long[INITIAL_CAPACITY];
+    private int count = 0;
+    private long originalFrames = 0;
+
+    public SpeechSegmentIndex(int frameMs) {
+        this.frameMs = frameMs;
+    }
+
+    /**
+     * The index file that belongs to a recording: recording_x.flac.enc -> recording_x.vad.enc.
+     */
+    public static File sidecarFor(File recording) {
+        String name = recording.getName();
+        int dot = name.indexOf('.');
+        return new File(recording.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + SIDECAR_SUFFIX);
+    }
+
+    /**
+     * Record that an original frame was kept; frames must arrive in increasing order.
+     */
+    void addFrame(long originalFrame) {
+        addSegment(originalFrame, 1);
+    }
+
+    private void addSegment(long start, long length) {
+        if (count > 0 && starts[count - 1] + lengths[count - 1] == start) {
+            lengths[count - 1] += length;
+        } else {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            starts[count] = start;
+            lengths[count] = length;
+            count++;
+        }
+        originalFrames = Math.max(originalFrames, start + length);
+    }
+
+    void setOriginalFrames(long frames) {
+        originalFrames = Math.max(originalFrames, frames);
+    }
+
+    public int getSegmentCount() {
+        return count;
+    }
+
+    public long getOriginalMillis() {
+        return originalFrames * frameMs;
+    }
+
+    public long getKeptMillis() {
+        long kept = 0;
+        for (int i = 0; i < count; i++) {
+            kept += lengths[i];
+        }
+        return kept * frameMs;
+    }
+
+    /**
+     * Map a time in the trimmed recording back to the original recording.
+     */
+    public long toOriginalMillis(long keptMillis) {
+        long remaining = keptMillis;
+        for (int i = 0; i < count; i++) {
+            long segmentMillis = lengths[i] * frameMs;
+            if (remaining < segmentMillis || i == count - 1) {
+                return starts[i] * frameMs + Math.min(remaining, segmentMillis);
+            }
+            remaining -= segmentMillis;
+        }
+        return keptMillis;
+    }
+
+    /**
+     * Write the index encrypted to a file.
+     */
+    public void write(File file) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + count * 4);
+        writeVarint(out, VERSION);
+        writeVarint(out, frameMs);
+        writeVarint(out, originalFrames);
+        writeVarint(out, count);
+        long previousEnd = 0;
+        for (int i = 0; i < count; i++) {
+            writeVarint(out, starts[i] - previousEnd);
+            writeVarint(out, lengths[i]);
+            previousEnd = starts[i] + lengths[i];
+        }
+        EncryptionManager.encryptToFile(ByteBuffer.wrap(out.toByteArray()), file);
+    }
+
+    /**
+     * Read an index written by {@link #write(File)}.
+     */
+    public static SpeechSegmentIndex read(File file) throws Exception {
+        ByteBuffer in = ByteBuffer.wrap(EncryptionManager.readRange(file, 0, Integer.MAX_VALUE));
+        if (readVarint(in) != VERSION) {
+            throw new IOException("Unsupported speech segment index version");
+        }
+        SpeechSegmentIndex index = new SpeechSegmentIndex((int) readVarint(in));
+        long originalFrames = readVarint(in);
+        long segments = readVarint(in);
+        long position = 0;
+        for (long i = 0; i < segments; i++) {
+            long start = position + readVarint(in);
+            long length = readVarint(in);
+            index.addSegment(start, length);
+            position = start + length;
+        }
+        index.setOriginalFrames(originalFrames);
+        return index;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new IOException("Truncated speech segment index");
+            }
+            int b = in.get() & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed speech segment index");
+    }
+}
@@ -0,0 +1,185 @@
+package com.transcriber.audio;
+
+import com.transcriber.config.Config;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Energy and zero-crossing voice-activity detector that trims long pauses out of a PCM stream.
+ */
+public class VoiceActivityDetector {
+
+    private static final int MS_PER_SECOND = 1000;
+    // Mean absolute amplitude of a quiet room on a phone microphone, before anything has been measured
+    private static final double INITIAL_NOISE_FLOOR = 60;
+    private static final double MIN_NOISE_FLOOR = 15;
+    private static final double MAX_NOISE_FLOOR = 1500;
+    // The floor follows quiet frames quickly and louder ones over about ten seconds
+    private static final double FLOOR_FALL_RATE = 0.3;
+    private static final double FLOOR_RISE_RATE = 0.002;
+    private static final double SPEECH_RATIO = 3.0;
+    private static final double FRICATIVE_RATIO = 1.6;
+    private static final double FRICATIVE_MIN_ZERO_CROSSING_RATE = 0.25;
+
+    /**
+     * Receives the PCM that is kept. The buffer is only valid during the call.
+     */
+    public interface Sink {
+        void write(byte[] pcm, int offset, int length) throws IOException;
+    }
+
+    private final Sink sink;
+    private final int frameBytes;
+    private final int sampleStride;
+    private final int samplesPerFrame;
+    private final int keepFrames;
+    private final int prerollFrames;
+    private final byte[] frame;
+    private final byte[] preroll;
+    private final SpeechSegmentIndex index = new SpeechSegmentIndex(Config.VAD_FRAME_MS);
+
+    private int frameFill = 0;
+    private int prerollHead = 0;
+    private int prerollCount = 0;
+    private double noiseFloor = INITIAL_NOISE_FLOOR;
+    // Leading silence is trimmed like any long pause
+    private int silenceRun;
+    private long frameNumber = 0;
+    private long droppedFrames = 0;
+
+    public VoiceActivityDetector(int sampleRate, int channels, Sink sink) {
+        this.sink = sink;
+        this.sampleStride = channels * FlacEncoder.BYTES_PER_SAMPLE;
+        this.samplesPerFrame = sampleRate * Config.VAD_FRAME_MS / MS_PER_SECOND;
+        this.frameBytes = samplesPerFrame * sampleStride;
+        this.keepFrames = Config.VAD_KEEP_PAUSE_MS / Config.VAD_FRAME_MS;
+        this.prerollFrames = Config.VAD_PREROLL_MS / Config.VAD_FRAME_MS;
+        this.frame = new byte[frameBytes];
+        this.preroll = new byte[prerollFrames * frameBytes];
+        this.silenceRun = keepFrames;
+    }
+
+    /**
+     * Feed interleaved 16-bit little-endian PCM; frames may be split across calls.
+     */
+    public void process(byte[] pcm, int offset, int length) throws IOException {
+        int end = offset + length;
+        int position = offset;
+        while (position < end) {
+            if (frameFill > 0 || end - position < frameBytes) {
+                int count = Math.min(frameBytes - frameFill, end - position);
+                System.arraycopy(pcm, position, frame, frameFill, count);
+                frameFill += count;
+                position += count;
+                if (frameFill == frameBytes) {
+                    processFrame(frame, 0);
+                    frameFill = 0;
+                }
+                continue;
+            }
+            processFrame(pcm, position);
+            position += frameBytes;
+        }
+    }
+
+    /**
+     * Flush the last partial frame and drop trailing silence.
+     */
+    public void finish() throws IOException {
+        if (frameFill > 0 && silenceRun < keepFrames) {
+            sink.write(frame, 0, frameFill);
+            index.addFrame(frameNumber);
+        }
+        if (frameFill > 0) {
+            frameNumber++;
+        }
+        droppedFrames += prerollCount;
+        prerollCount = 0;
+        frameFill = 0;
+        Arrays.fill(frame, (byte) 0);
+        Arrays.fill(preroll, (byte) 0);
+        index.setOriginalFrames(frameNumber);
+    }
+
+    public SpeechSegmentIndex getIndex() {
+        return index;
+    }
+
+    public long getDroppedMillis() {
+        return droppedFrames * Config.VAD_FRAME_MS;
+    }
+
+    private void processFrame(byte[] data, int offset) throws IOException {
+        if (isSpeech(data, offset)) {
+            flushPreroll();
+            emit(data, offset, frameNumber);
+            silenceRun = 0;
+        } else if (++silenceRun <= keepFrames) {
+            // The start of every pause is kept, so short pauses pass through whole and long ones shrink
+            emit(data, offset, frameNumber);
+        } else {
+            holdInPreroll(data, offset);
+        }
+        frameNumber++;
+    }
+
+    private boolean isSpeech(byte[] data, int offset) {
+        long sum = 0;
+        int crossings = 0;
+        int previous = 0;
+        // Judged on the first channel only
+        for (int i = offset; i < offset + frameBytes; i += sampleStride) {
+            int sample = (short) ((data[i] & 0xFF) | (data[i + 1] << 8));
+            sum += Math.abs(sample);
+            if ((sample ^ previous) < 0) {
+                crossings++;
+            }
+            previous = sample;
+        }
+        double energy = (double) sum / samplesPerFrame;
+        double zeroCrossingRate = (double) crossings / samplesPerFrame;
+
+        // Quiet frames with a high zero-crossing rate still count, so unvoiced consonants are not clipped
+        boolean speech = energy > noiseFloor * SPEECH_RATIO
+                || (energy > noiseFloor * FRICATIVE_RATIO && zeroCrossingRate > FRICATIVE_MIN_ZERO_CROSSING_RATE);
+
+        double rate = energy < noiseFloor ? FLOOR_FALL_RATE : FLOOR_RISE_RATE;
+        noiseFloor = Math.max(MIN_NOISE_FLOOR, Math.min(MAX_NOISE_FLOOR, noiseFloor + (energy - noiseFloor) * rate));
+        return speech;
+    }
+
+    /**
+     * Keep the most recent silent frames so the lead-in to the next word survives; older ones are dropped.
+     */
+    private void holdInPreroll(byte[] data, int offset) {
+        if (prerollFrames == 0) {
+            droppedFrames++;
+            return;
+        }
+        int slot;
+        if (prerollCount == prerollFrames) {
+            slot = prerollHead;
+            prerollHead = (prerollHead + 1) % prerollFrames;
+            droppedFrames++;
+        } else {
+            slot = (prerollHead + prerollCount) % prerollFrames;
+            prerollCount++;
+        }
+        System.arraycopy(data, offset, preroll, slot * frameBytes, frameBytes);
+    }
+
+    private void flushPreroll() throws IOException {
+        for (int i = 0; i < prerollCount; i++) {
+            int slot = (prerollHead + i) % prerollFrames;
+            emit(preroll, slot * frameBytes, frameNumber - prerollCount + i);
+        }
+        prerollHead = 0;
+        prerollCount = 0;
+    }
+
+    private void emit(byte[] data, int offset, long originalFrame) throws IOException {
+        sink.write(data, offset, frameBytes);
+        index.addFrame(originalFrame);
+    }
+}
@@ -2,17 +2,29 @@ package com.transcriber.audit;
 
 import android.util.Log;
 import com.transcriber.config.Config;
+import com.transcriber.security.EncryptedFrameLog;
 import com.transcriber.security.EncryptionManager;
 
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * HIPAA-aligned audit logging for Android.
@@ -20,65 +32,60 @@ import java.util.TimeZone;
 public class AuditLogger {
 
     private static final String TAG = "AuditLogger";
-    private static File LOG_FILE;
+    private static final String CSV_HEADER = "timestamp,action,file,patient,details\n";
+    private static final String LEGACY_LOG_FILENAME = "audit_log.csv.enc";
+    private static final String MIGRATING_SUFFIX = ".migrating";
+    private static final String MIGRATION_PROGRESS_FILENAME = "audit_log.migration";
+    private static final Pattern ROW_DATE_PATTERN = Pattern.compile("\"?(\\d{4})-(\\d{2})-(\\d{2})T");
+    private static AuditSegmentIndex SEGMENTS;
+    private static volatile AuditWriter WRITER;
+    // Appender for the segment last written by the writer thread, keeping that segment's data key
+    private static EncryptedFrameLog.Writer segmentWriter;
     private static final SimpleDateFormat ISO_FORMATTER = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.UK);
+    private static final SimpleDateFormat DAY_FORMATTER = new SimpleDateFormat("yyyyMMdd", Locale.UK);
 
     static {
         ISO_FORMATTER.setTimeZone(TimeZone.getTimeZone("UTC"));
+        DAY_FORMATTER.setTimeZone(TimeZone.getTimeZone("UTC"));
     }
 
     /**
      * Initialize the logger. Must be called once before logging.
      */
-    public static void initialize() {
+    public static synchronized void initialize() {
         if (Config.AUDIT_LOG_DIR != null) {
             Config.AUDIT_LOG_DIR.mkdirs();
-            LOG_FILE = new File(Config.AUDIT_LOG_DIR, "audit_log.csv.enc");
+            SEGMENTS = new AuditSegmentIndex(Config.AUDIT_LOG_DIR);
+            SEGMENTS.load();
+            try {
+                migrateLegacyLog(new File(Config.AUDIT_LOG_DIR, LEGACY_LOG_FILENAME));
+                for (File segment : SEGMENTS.segments()) {
+                    EncryptedFrameLog.recover(segment);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to prepare encrypted audit log", e);
+            }
+            if (WRITER == null) {
+                WRITER = new AuditWriter(AuditLogger::commitBatch, Config.AUDIT_QUEUE_CAPACITY,
+                        Config.AUDIT_MAX_FLUSH_DELAY_MS, Config.AUDIT_MAX_BATCH_SIZE);
+                WRITER.start();
+            }
         }
     }
 
     /**
-     * Append an audit row to the encrypted log file.
+     * Queue an audit row for the background writer. Returns without waiting for disk or crypto.
      */
     public static void log(String action, File file, String patient, String details) {
-        if (LOG_FILE == null) {
+        AuditWriter writer = WRITER;
+        if (writer == null) {
             Log.e(TAG, "AuditLogger not initialized. Call AuditLogger.initialize() first.");
             return;
         }
 
-        try {
-            String timestamp = ISO_FORMATTER.format(new Date());
-            String filePath = (file != null) ? file.getAbsolutePath() : "";
-
-            String csvRow = String.format("%s,%s,%s,%s,%s",
-                escapeCsv(timestamp),
-                escapeCsv(action),
-                escapeCsv(filePath),
-                escapeCsv(patient != null ? patient : ""),
-                escapeCsv(details != null ? details : ""));
-
-            String existingContent = "";
-            if (LOG_FILE.exists()) {
-                existingContent = EncryptionManager.decryptFile(LOG_FILE);
-            } else {
-                existingContent = "timestamp,action,file,patient,details\n";
-            }
-
-            String updatedContent = existingContent + csvRow + "\n";
-
-            File tempPlaintext = new File(Config.AUDIT_LOG_DIR, ".temp_audit.csv");
-            try {
-                try (PrintWriter writer = new PrintWriter(new FileWriter(tempPlaintext))) {
-                    writer.print(updatedContent);
-                }
-                EncryptionManager.encryptFile(tempPlaintext, LOG_FILE);
-            } finally {
-                tempPlaintext.delete();
-            }
-
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to write to encrypted audit log: ", e);
-        }
+        String filePath = (file != null) ? file.getAbsolutePath() : "";
+        writer.enqueue(new AuditWriter.AuditEvent(System.currentTimeMillis(), action, filePath,
+                patient != null ? patient : "", details != null ? details : ""));
     }
 
     /**
@@ -95,6 +102,77 @@ public class AuditLogger {
         log(action, filePath != null ? new File(filePath) : null, patient, details);
     }
 
+    /**
+     * Wait until every event logged so far has been written to the encrypted log.
+     * @return true if all pending events were committed within the timeout.
+     */
+    public static boolean flush(long timeoutMs) {
+        AuditWriter writer = WRITER;
+        return writer == null || writer.flush(timeoutMs);
+    }
+
+    /**
+     * Return throughput and backpressure counters of the background writer, or null before initialization.
+     */
+    public static AuditWriter.Stats getWriterStats() {
+        AuditWriter writer = WRITER;
+        return writer != null ? writer.getStats() : null;
+    }
+
+    /**
+     * Seal a batch of events as one frame per day segment. Runs on the writer thread.
+     */
+    private static synchronized void commitBatch(List<AuditWriter.AuditEvent> batch) throws Exception {
+        Map<String, StringBuilder> rowsByDay = new TreeMap<>();
+        for (AuditWriter.AuditEvent event : batch) {
+            Date date = new Date(event.timestamp);
+            String dayKey = DAY_FORMATTER.format(date);
+            StringBuilder rows = rowsByDay.get(dayKey);
+            if (rows == null) {
+                rows = new StringBuilder();
+                rowsByDay.put(dayKey, rows);
+            }
+            rows.append(escapeCsv(ISO_FORMATTER.format(date))).append(',')
+                    .append(escapeCsv(event.action)).append(',')
+                    .append(escapeCsv(event.filePath)).append(',')
+                    .append(escapeCsv(event.patient)).append(',')
+                    .append(escapeCsv(event.details)).append('\n');
+        }
+        for (Map.Entry<String, StringBuilder> day : rowsByDay.entrySet()) {
+            File segment = SEGMENTS.segmentFor(day.getKey());
+            if (segmentWriter == null || !segmentWriter.getFile().equals(segment)) {
+                if (segmentWriter != null) {
+                    segmentWriter.close();
+                }
+                segmentWriter = new EncryptedFrameLog.Writer(segment);
+            }
+            segmentWriter.append(day.getValue().toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Stream the decrypted audit log as CSV into the destination file, concatenating segments oldest first.
+     * @return false if there is no audit log to export.
+     */
+    public static boolean exportTo(File destination) throws Exception {
+        if (!flush(Config.AUDIT_FLUSH_TIMEOUT_MS)) {
+            Log.w(TAG, "Exporting audit log before all pending events were written");
+        }
+        synchronized (AuditLogger.class) {
+            List<File> segments = SEGMENTS != null ? SEGMENTS.segments() : new ArrayList<File>();
+            if (segments.isEmpty()) {
+                return false;
+            }
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(destination))) {
+                out.write(CSV_HEADER.getBytes(StandardCharsets.UTF_8));
+                for (File segment : segments) {
+                    EncryptedFrameLog.readFrames(segment, out::write);
+                }
+            }
+            return true;
+        }
+    }
+
     /**
      * Escape characters in a string for CSV format.
      */
@@ -109,62 +187,172 @@ public class AuditLogger {
     }
 
     /**
-     * Clean up audit log entries older than specified days.
+     * Clean up audit log entries older than specified days by dropping whole day segments.
+     * Rows from the partially expired cutoff day are kept until that segment expires.
      */
     public static void cleanupOldEntries(int retentionDays) {
-        if (LOG_FILE == null || !LOG_FILE.exists()) {
+        flush(Config.AUDIT_FLUSH_TIMEOUT_MS);
+        synchronized (AuditLogger.class) {
+            if (SEGMENTS == null) {
+                return;
+            }
+            long cutoffTime = System.currentTimeMillis() - (retentionDays * 24L * 60 * 60 * 1000);
+            int removed = SEGMENTS.dropBefore(DAY_FORMATTER.format(new Date(cutoffTime)));
+            if (removed > 0) {
+                Log.i(TAG, "Cleaned up " + removed + " expired audit log segments");
+            }
+        }
+    }
+
+    /**
+     * Move rows from the single-file log used by earlier versions into day segments.
+     * Handles both the whole-file AES-GCM blob and the single append-only frame log. The legacy file is first
+     * renamed to a .migrating marker and every segment append is numbered in a progress file, so a migration
+     * interrupted by a crash resumes after the last append that reached disk instead of importing rows twice.
+     */
+    private static void migrateLegacyLog(File legacyLog) throws Exception {
+        File marker = new File(legacyLog.getPath() + MIGRATING_SUFFIX);
+        File progressFile = new File(legacyLog.getParentFile(), MIGRATION_PROGRESS_FILENAME);
+        if (legacyLog.exists()) {
+            if (marker.exists()) {
+                throw new IOException("Legacy audit log found next to an unfinished migration");
+            }
+            if (!legacyLog.renameTo(marker)) {
+                throw new IOException("Failed to mark audit log for migration");
+            }
+        }
+        if (!marker.exists()) {
+            // Left over if the last migration stopped between removing the marker and its progress
+            if (progressFile.exists() && !progressFile.delete()) {
+                Log.w(TAG, "Failed to remove stale audit migration progress");
+            }
             return;
         }
 
-        try {
-            String content = EncryptionManager.decryptFile(LOG_FILE);
-            String[] lines = content.split("\n");
+        LegacyMigration migration = new LegacyMigration(progressFile);
+        String fallbackDayKey = DAY_FORMATTER.format(new Date(marker.lastModified()));
+        if (EncryptedFrameLog.isFrameLog(marker)) {
+            EncryptedFrameLog.readFrames(marker,
+                    frame -> appendLegacyRows(migration, new String(frame, StandardCharsets.UTF_8), fallbackDayKey));
+        } else if (marker.length() > 0) {
+            String content = EncryptionManager.decryptFile(marker);
+            if (content.startsWith(CSV_HEADER)) {
+                content = content.substring(CSV_HEADER.length());
+            }
+            appendLegacyRows(migration, content, fallbackDayKey);
+        }
 
-            if (lines.length <= 1) {
-                return;
+        // The marker goes first: without it a leftover progress file is ignored, never the other way round
+        if (!EncryptionManager.shredFile(marker)) {
+            throw new IOException("Failed to remove migrated audit log");
+        }
+        if (!progressFile.delete()) {
+            Log.w(TAG, "Failed to remove audit migration progress");
+        }
+        Log.i(TAG, "Migrated audit log into daily segments");
+    }
+
+    /**
+     * Route legacy CSV rows to the segment of the day in their timestamp column.
+     * Continuation lines of quoted multi-line fields stay with the row before them.
+     */
+    private static void appendLegacyRows(LegacyMigration migration, String rows, String fallbackDayKey)
+            throws Exception {
+        Map<String, StringBuilder> rowsByDay = new TreeMap<>();
+        String dayKey = fallbackDayKey;
+        for (String line : rows.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
             }
+            Matcher matcher = ROW_DATE_PATTERN.matcher(line);
+            if (matcher.lookingAt()) {
+                dayKey = matcher.group(1) + matcher.group(2) + matcher.group(3);
+            }
+            StringBuilder dayRows = rowsByDay.get(dayKey);
+            if (dayRows == null) {
+                dayRows = new StringBuilder();
+                rowsByDay.put(dayKey, dayRows);
+            }
+            dayRows.append(line).append('\n');
+        }
+        for (Map.Entry<String, StringBuilder> day : rowsByDay.entrySet()) {
+            migration.append(SEGMENTS.segmentFor(day.getKey()),
+                    day.getValue().toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
 
-            long cutoffTime = System.currentTimeMillis() - (retentionDays * 24L * 60 * 60 * 1000);
-            StringBuilder newContent = new StringBuilder();
-            newContent.append(lines[0]).append("\n");
-
-            int removedCount = 0;
-            for (int i = 1; i < lines.length; i++) {
-                String line = lines[i].trim();
-                if (line.isEmpty()) {
-                    continue;
-                }
+    /**
+     * Numbers the segment appends of a legacy migration and records how far it got.
+     *
+     * The legacy log yields the same appends in the same order on every run. Before each append the progress
+     * file records its number and the segment length; afterwards it records the append as complete. On resume,
+     * completed appends are skipped, and the one in flight counts as done if its segment grew past the recorded
+     * length once any torn tail has been truncated.
+     */
+    private static final class LegacyMigration {
+        private static final long NONE = -1;
+
+        private final File progressFile;
+        private long step = 0;
+        private long completed;
+        private long pendingLength;
 
-                String[] fields = line.split(",", 2);
-                if (fields.length > 0) {
-                    try {
-                        Date entryDate = ISO_FORMATTER.parse(fields[0].replace("\"", ""));
-                        if (entryDate != null && entryDate.getTime() >= cutoffTime) {
-                            newContent.append(line).append("\n");
-                        } else {
-                            removedCount++;
-                        }
-                    } catch (Exception e) {
-                        newContent.append(line).append("\n");
-                    }
+        LegacyMigration(File progressFile) throws IOException {
+            this.progressFile = progressFile;
+            if (progressFile.exists()) {
+                try (DataInputStream in = new DataInputStream(new FileInputStream(progressFile))) {
+                    completed = in.readLong();
+                    pendingLength = in.readLong();
                 }
+            } else {
+                completed = 0;
+                pendingLength = NONE;
             }
+        }
 
-            if (removedCount > 0) {
-                File tempPlaintext = new File(Config.AUDIT_LOG_DIR, ".temp_audit_cleanup.csv");
-                try {
-                    try (PrintWriter writer = new PrintWriter(new FileWriter(tempPlaintext))) {
-                        writer.print(newContent.toString());
-                    }
-                    EncryptionManager.encryptFile(tempPlaintext, LOG_FILE);
-                    Log.i(TAG, "Cleaned up " + removedCount + " old audit log entries");
-                } finally {
-                    tempPlaintext.delete();
+        void append(File segment, byte[] rows) throws Exception {
+            long current = step++;
+            if (current < completed) {
+                return;
+            }
+            if (pendingLength != NONE) {
+                EncryptedFrameLog.recover(segment);
+                boolean landed = segment.length() > pendingLength;
+                pendingLength = NONE;
+                if (landed) {
+                    completed = current + 1;
+                    save();
+                    return;
                 }
             }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to cleanup old audit log entries", e);
+            pendingLength = segment.length();
+            save();
+            try {
+                EncryptedFrameLog.append(segment, rows);
+            } catch (Exception e) {
+                // The append did not land; make sure a later writer growing this segment is not mistaken for it
+                pendingLength = NONE;
+                save();
+                throw e;
+            }
+            completed = current + 1;
+            pendingLength = NONE;
+            save();
+        }
+
+        private void save() throws IOException {
+            File temp = new File(progressFile.getParentFile(), progressFile.getName() + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(fos)) {
+                out.writeLong(completed);
+                out.writeLong(pendingLength);
+                out.flush();
+                fos.getFD().sync();
+            }
+            if (!temp.renameTo(progressFile)) {
+                throw new IOException("Failed to record audit migration progress");
+            }
         }
     }
 }
@@ -0,0 +1,145 @@
+package com.transcriber.audit;
+
+import android.util.Log;
+import com.transcriber.security.EncryptionManager;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Encrypted index of the daily audit log segments, ordered oldest first.
+ */
+public class AuditSegmentIndex {
+
+    private static final String TAG = "AuditSegmentIndex";
+    private static final String INDEX_FILENAME = "audit_segments.idx.enc";
+    private static final String SEGMENT_PREFIX = "audit_";
+    private static final String SEGMENT_SUFFIX = ".csv.enc";
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("audit_(\\d{8})\\.csv\\.enc");
+
+    private final File directory;
+    private final File indexFile;
+    private final TreeSet<String> dayKeys = new TreeSet<>();
+
+    public AuditSegmentIndex(File directory) {
+        this.directory = directory;
+        this.indexFile = new File(directory, INDEX_FILENAME);
+    }
+
+    /**
+     * Load the index and reconcile it with the segment files actually on disk.
+     */
+    public void load() {
+        dayKeys.clear();
+        if (indexFile.exists()) {
+            try {
+                byte[] encrypted = new byte[(int) indexFile.length()];
+                try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+                    in.readFully(encrypted);
+                }
+                String content = new String(EncryptionManager.decryptBytes(encrypted), StandardCharsets.UTF_8);
+                for (String dayKey : content.split("\n")) {
+                    if (!dayKey.isEmpty()) {
+                        dayKeys.add(dayKey);
+                    }
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Segment index unreadable, rebuilding from directory listing", e);
+            }
+        }
+
+        boolean changed = dayKeys.removeIf(dayKey -> !segmentFile(dayKey).exists());
+        File[] files = directory.listFiles((dir, name) -> SEGMENT_PATTERN.matcher(name).matches());
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = SEGMENT_PATTERN.matcher(file.getName());
+                if (matcher.matches() && dayKeys.add(matcher.group(1))) {
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    /**
+     * Return the segment file for a UTC day key (yyyyMMdd), registering it in the index if new.
+     */
+    public File segmentFor(String dayKey) {
+        if (dayKeys.add(dayKey)) {
+            save();
+        }
+        return segmentFile(dayKey);
+    }
+
+    /**
+     * Return all segment files, oldest first.
+     */
+    public List<File> segments() {
+        List<File> files = new ArrayList<>(dayKeys.size());
+        for (String dayKey : dayKeys) {
+            files.add(segmentFile(dayKey));
+        }
+        return files;
+    }
+
+    /**
+     * Shred every segment older than the given day key and return how many were removed.
+     */
+    public int dropBefore(String cutoffDayKey) {
+        List<String> expired = new ArrayList<>(dayKeys.headSet(cutoffDayKey, false));
+        int removed = 0;
+        for (String dayKey : expired) {
+            File segment = segmentFile(dayKey);
+            if (EncryptionManager.shredFile(segment)) {
+                dayKeys.remove(dayKey);
+                removed++;
+            } else {
+                Log.w(TAG, "Failed to delete expired audit segment: " + segment.getName());
+            }
+        }
+        if (removed > 0) {
+            save();
+        }
+        return removed;
+    }
+
+    private File segmentFile(String dayKey) {
+        return new File(directory, SEGMENT_PREFIX + dayKey + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Rewrite the index atomically. It holds only day keys, so it stays a few bytes per segment.
+     */
+    private void save() {
+        StringBuilder content = new StringBuilder();
+        for (String dayKey : dayKeys) {
+            content.append(dayKey).append('\n');
+        }
+
+        File temp = new File(directory, ".audit_segments.idx.tmp");
+        try {
+            byte[] encrypted = EncryptionManager.encryptBytes(content.toString().getBytes(StandardCharsets.UTF_8));
+            try (FileOutputStream fos = new FileOutputStream(temp)) {
+                fos.write(encrypted);
+            }
+            if (!temp.renameTo(indexFile)) {
+                throw new IOException("Failed to replace segment index");
+            }
+        } catch (Exception e) {
+            // The directory listing is authoritative on the next load, so a stale index is recoverable
+            Log.e(TAG, "Failed to save audit segment index", e);
+            temp.delete();
+        }
+    }
+}
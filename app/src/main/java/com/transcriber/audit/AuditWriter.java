@@ -0,0 +1,248 @@
+package com.transcriber.audit;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background writer that batches audit events into group commits with bounded flush latency.
+ */
+public class AuditWriter {
+
+    private static final String TAG = "AuditWriter";
+
+    private final BlockingQueue<Entry> queue;
+    private final BatchSink sink;
+    private final long maxFlushDelayNanos;
+    private final int maxBatchSize;
+    private final Thread thread;
+
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong failedBatchCount = new AtomicLong();
+    private final AtomicLong queueFullCount = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    // Touched only by the writer thread
+    private boolean failedSinceFlush = false;
+
+    /**
+     * Receives each batch of events on the writer thread and persists them in one commit.
+     */
+    public interface BatchSink {
+        void commit(List<AuditEvent> batch) throws Exception;
+    }
+
+    /**
+     * A single audit event captured at call time and formatted on the writer thread.
+     */
+    public static class AuditEvent {
+        public final long timestamp;
+        public final String action;
+        public final String filePath;
+        public final String patient;
+        public final String details;
+
+        public AuditEvent(long timestamp, String action, String filePath, String patient, String details) {
+            this.timestamp = timestamp;
+            this.action = action;
+            this.filePath = filePath;
+            this.patient = patient;
+            this.details = details;
+        }
+    }
+
+    /**
+     * Snapshot of writer throughput and backpressure counters.
+     */
+    public static class Stats {
+        public final long enqueued;
+        public final long written;
+        public final long batches;
+        public final long failedBatches;
+        public final long queueFullWaits;
+        public final long maxQueueDepth;
+        public final int queueDepth;
+
+        Stats(long enqueued, long written, long batches, long failedBatches,
+              long queueFullWaits, long maxQueueDepth, int queueDepth) {
+            this.enqueued = enqueued;
+            this.written = written;
+            this.batches = batches;
+            this.failedBatches = failedBatches;
+            this.queueFullWaits = queueFullWaits;
+            this.maxQueueDepth = maxQueueDepth;
+            this.queueDepth = queueDepth;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("enqueued=%d written=%d batches=%d failed=%d queueFullWaits=%d maxDepth=%d depth=%d",
+                    enqueued, written, batches, failedBatches, queueFullWaits, maxQueueDepth, queueDepth);
+        }
+    }
+
+    /**
+     * Queue entry: either an event or a flush marker that is released once everything ahead of it is committed.
+     */
+    private static class Entry {
+        final AuditEvent event;
+        final CountDownLatch flushed;
+        final long enqueuedAtNanos;
+        volatile boolean succeeded;
+
+        Entry(AuditEvent event, CountDownLatch flushed) {
+            this.event = event;
+            this.flushed = flushed;
+            this.enqueuedAtNanos = System.nanoTime();
+        }
+    }
+
+    public AuditWriter(BatchSink sink, int capacity, long maxFlushDelayMs, int maxBatchSize) {
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxFlushDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxFlushDelayMs);
+        this.maxBatchSize = maxBatchSize;
+        this.thread = new Thread(this::runLoop, "AuditWriter Thread");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Start the background writer thread.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Queue an event for the next group commit. Events are never dropped: when the queue is full
+     * the caller waits for space and the wait is counted in {@link Stats#queueFullWaits}.
+     */
+    public void enqueue(AuditEvent event) {
+        Entry entry = new Entry(event, null);
+        if (!queue.offer(entry)) {
+            queueFullCount.incrementAndGet();
+            try {
+                queue.put(entry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Log.e(TAG, "Interrupted while waiting for audit queue space; event not queued: " + event.action);
+                return;
+            }
+        }
+        enqueuedCount.incrementAndGet();
+        recordDepth();
+    }
+
+    /**
+     * Block until every event queued before this call has been committed.
+     * @return true if all of those events were written successfully within the timeout.
+     */
+    public boolean flush(long timeoutMs) {
+        Entry marker = new Entry(null, new CountDownLatch(1));
+        try {
+            if (!queue.offer(marker, timeoutMs, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+            return marker.flushed.await(timeoutMs, TimeUnit.MILLISECONDS) && marker.succeeded;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Return a snapshot of the writer counters.
+     */
+    public Stats getStats() {
+        return new Stats(enqueuedCount.get(), writtenCount.get(), batchCount.get(), failedBatchCount.get(),
+                queueFullCount.get(), maxQueueDepth.get(), queue.size());
+    }
+
+    private void runLoop() {
+        List<Entry> batch = new ArrayList<>(maxBatchSize);
+        while (true) {
+            try {
+                Entry first = queue.take();
+                batch.add(first);
+                collectBatch(batch, first);
+                commit(batch);
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Audit writer interrupted; pending events remain queued");
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Gather more events until the batch is full, a flush is requested, or the oldest event hits its deadline.
+     */
+    private void collectBatch(List<Entry> batch, Entry first) throws InterruptedException {
+        if (first.flushed != null) {
+            return;
+        }
+        long deadline = first.enqueuedAtNanos + maxFlushDelayNanos;
+        while (batch.size() < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            Entry next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+            if (next.flushed != null) {
+                return;
+            }
+        }
+    }
+
+    private void commit(List<Entry> batch) {
+        List<AuditEvent> events = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            if (entry.event != null) {
+                events.add(entry.event);
+            }
+        }
+
+        if (!events.isEmpty()) {
+            try {
+                sink.commit(events);
+                writtenCount.addAndGet(events.size());
+                batchCount.incrementAndGet();
+            } catch (Exception e) {
+                failedBatchCount.incrementAndGet();
+                failedSinceFlush = true;
+                Log.e(TAG, "Failed to commit " + events.size() + " audit events", e);
+            }
+        }
+
+        for (Entry entry : batch) {
+            if (entry.flushed != null) {
+                entry.succeeded = !failedSinceFlush;
+                failedSinceFlush = false;
+                entry.flushed.countDown();
+            }
+        }
+    }
+
+    private void recordDepth() {
+        long depth = queue.size();
+        long max;
+        while (depth > (max = maxQueueDepth.get())) {
+            if (maxQueueDepth.compareAndSet(max, depth)) {
+                return;
+            }
+        }
+    }
+}
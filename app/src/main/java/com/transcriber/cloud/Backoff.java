@@ -0,0 +1,26 @@
+package com.transcriber.cloud;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry delays for work that failed against the cloud services.
+ */
+public final class Backoff {
+
+    // Keeps the shift from overflowing long before the cap applies
+    private static final int MAX_SHIFT = 20;
+
+    private Backoff() {
+        // Utility class - prevent instantiation
+    }
+
+    /**
+     * Exponential delay for the given 1-based attempt, capped at maxMs, with the upper half jittered so
+     * work that failed together does not retry together.
+     */
+    public static long jittered(int attempt, long baseMs, long maxMs) {
+        long exponential = baseMs << Math.min(Math.max(attempt - 1, 0), MAX_SHIFT);
+        long capped = Math.min(maxMs, exponential);
+        return capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1);
+    }
+}
@@ -0,0 +1,205 @@
+package com.transcriber.cloud;
+
+import android.util.Log;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.transcriber.audit.AuditLogger;
+import com.transcriber.config.Config;
+import com.transcriber.security.EncryptedFrameLog;
+import com.transcriber.security.EncryptionManager;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes uploaded recordings in the background, off the path that returns the transcript.
+ */
+public class BlobReaper {
+
+    private static final String TAG = "BlobReaper";
+    private static final String OP_ADD = "add";
+    private static final String OP_REMOVE = "remove";
+    private static final int COMPACT_MIN_FRAMES = 64;
+
+    private final Storage storage;
+    private final File logFile;
+    private final EncryptedFrameLog.Writer logWriter;
+    private final ScheduledExecutorService scheduler;
+
+    // Guarded by this
+    private final Map<String, Tombstone> pending = new LinkedHashMap<>();
+    private int frames = 0;
+
+    /**
+     * A blob that must be deleted, with what its audit rows refer to.
+     */
+    private static final class Tombstone {
+        final String blobName;
+        final File audioFile;
+        final String patient;
+        int attempts = 0;
+
+        Tombstone(String blobName, File audioFile, String patient) {
+            this.blobName = blobName;
+            this.audioFile = audioFile;
+            this.patient = patient;
+        }
+    }
+
+    public BlobReaper(Storage storage, File logFile) {
+        this.storage = storage;
+        this.logFile = logFile;
+        this.logWriter = new EncryptedFrameLog.Writer(logFile);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "GCS Blob Reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Replay tombstones left by an earlier process and retry their deletion, in the background.
+     */
+    public void start() {
+        scheduler.execute(this::replay);
+    }
+
+    /**
+     * Record a blob for deletion and delete it in the background. Returns once the tombstone is on disk.
+     */
+    public void reap(String blobName, File audioFile, String patient) {
+        Tombstone tombstone = new Tombstone(blobName, audioFile, patient != null ? patient : "");
+        synchronized (this) {
+            if (pending.containsKey(blobName)) {
+                return;
+            }
+            pending.put(blobName, tombstone);
+            try {
+                // A delete that fails or is cut short by process death is retried from this record
+                appendRecord(logWriter, OP_ADD, tombstone);
+                frames++;
+            } catch (Exception e) {
+                // Still delete it now; only a retry after process death is lost
+                Log.e(TAG, "Failed to record tombstone for " + blobName, e);
+            }
+        }
+        schedule(tombstone, 0);
+    }
+
+    private void replay() {
+        List<Tombstone> toRetry = new ArrayList<>();
+        try {
+            // Under the lock, so reap() and confirm() neither append to nor shred the log mid-read
+            synchronized (this) {
+                EncryptedFrameLog.recover(logFile);
+                Map<String, Tombstone> replayed = new LinkedHashMap<>();
+                // Every frame on disk, including those reap() already counted in this process
+                frames = EncryptedFrameLog.readFrames(logFile, plaintext -> {
+                    JSONObject record = new JSONObject(new String(plaintext, StandardCharsets.UTF_8));
+                    String blobName = record.getString("blob");
+                    if (OP_ADD.equals(record.getString("op"))) {
+                        replayed.put(blobName, new Tombstone(blobName,
+                                new File(record.getString("audio")), record.getString("patient")));
+                    } else {
+                        replayed.remove(blobName);
+                    }
+                });
+                for (Tombstone tombstone : replayed.values()) {
+                    if (!pending.containsKey(tombstone.blobName)) {
+                        pending.put(tombstone.blobName, tombstone);
+                        toRetry.add(tombstone);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to replay tombstone log", e);
+        }
+        if (!toRetry.isEmpty()) {
+            Log.i(TAG, "Retrying " + toRetry.size() + " blob deletions from an earlier session");
+        }
+        for (Tombstone tombstone : toRetry) {
+            schedule(tombstone, 0);
+        }
+    }
+
+    private void schedule(Tombstone tombstone, long delayMs) {
+        scheduler.schedule(() -> attempt(tombstone), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void attempt(Tombstone tombstone) {
+        boolean deleted;
+        try {
+            deleted = storage.delete(BlobId.of(Config.GCS_BUCKET, tombstone.blobName));
+        } catch (Exception e) {
+            tombstone.attempts++;
+            long delay = Backoff.jittered(tombstone.attempts,
+                    Config.BLOB_REAPER_RETRY_BASE_MS, Config.BLOB_REAPER_RETRY_MAX_MS);
+            Log.w(TAG, "Deleting " + tombstone.blobName + " failed (attempt " + tombstone.attempts
+                    + "), retrying in " + delay + "ms", e);
+            AuditLogger.log("gcs_delete_retry", tombstone.audioFile, tombstone.patient,
+                    "Blob delete failed on attempt " + tombstone.attempts + ", will retry");
+            schedule(tombstone, delay);
+            return;
+        }
+        AuditLogger.log("gcs_delete", tombstone.audioFile, tombstone.patient,
+                deleted ? "Deleted blob from GCS" : "Blob already absent from GCS");
+        confirm(tombstone);
+    }
+
+    private synchronized void confirm(Tombstone tombstone) {
+        pending.remove(tombstone.blobName);
+        try {
+            if (pending.isEmpty()) {
+                EncryptionManager.shredFile(logFile);
+                logWriter.close();
+                frames = 0;
+            } else if (frames >= COMPACT_MIN_FRAMES && frames > 2 * pending.size()) {
+                // Removal records outnumber the live tombstones
+                compact();
+            } else {
+                appendRecord(logWriter, OP_REMOVE, tombstone);
+                frames++;
+            }
+        } catch (Exception e) {
+            // The blob is gone either way; a stale tombstone only causes one more delete after restart
+            Log.w(TAG, "Failed to record deletion of " + tombstone.blobName, e);
+        }
+    }
+
+    /**
+     * Rewrite the log with only the live tombstones.
+     */
+    private void compact() throws Exception {
+        File temp = new File(logFile.getParentFile(), "." + logFile.getName() + ".tmp");
+        EncryptionManager.shredFile(temp);
+        try (EncryptedFrameLog.Writer tempWriter = new EncryptedFrameLog.Writer(temp)) {
+            for (Tombstone tombstone : pending.values()) {
+                appendRecord(tempWriter, OP_ADD, tombstone);
+            }
+        }
+        if (!temp.renameTo(logFile)) {
+            throw new IOException("Failed to replace " + logFile.getName());
+        }
+        frames = pending.size();
+    }
+
+    private static void appendRecord(EncryptedFrameLog.Writer writer, String op, Tombstone tombstone) throws Exception {
+        JSONObject record = new JSONObject();
+        record.put("op", op);
+        record.put("blob", tombstone.blobName);
+        if (OP_ADD.equals(op)) {
+            record.put("audio", tombstone.audioFile != null ? tombstone.audioFile.getAbsolutePath() : "");
+            record.put("patient", tombstone.patient);
+        }
+        writer.append(record.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,270 @@
+package com.transcriber.cloud;
+
+import android.util.Log;
+import com.google.cloud.speech.v1.RecognitionAudio;
+import com.google.cloud.speech.v1.RecognitionConfig;
+import com.google.cloud.speech.v1.RecognizeResponse;
+import com.google.cloud.speech.v1.SpeechClient;
+import com.google.cloud.speech.v1.SpeechRecognitionResult;
+import com.google.cloud.speech.v1.WordInfo;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Duration;
+import com.transcriber.audio.FlacEncoder;
+import com.transcriber.audio.PcmSource;
+import com.transcriber.config.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Transcribes a long recording as silence-bounded chunks recognized in parallel.
+ *
+ * One pass over the PCM computes a per-frame energy envelope; chunk boundaries are placed in the middle
+ * of the longest silence that keeps each chunk under {@link Config#CHUNK_MAX_SEC}. Where no silence is
+ * found the chunk is cut hard and the next one starts {@link Config#CHUNK_OVERLAP_SEC} earlier, and words
+ * in the overlap are kept from one side of its midpoint only. Each chunk goes to synchronous recognize with
+ * word time offsets, so wall-clock time approaches that of a single chunk.
+ */
+public class ChunkedTranscriber {
+
+    private static final String TAG = "ChunkedTranscriber";
+    private static final int BYTES_PER_SAMPLE = 2;
+    private static final int FRAME_MS = 20;
+    private static final int MS_PER_SECOND = 1000;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final int READ_BUFFER_FRAMES = 100;
+    // Silence is judged relative to the recording's own noise floor
+    private static final int NOISE_FLOOR_PERCENTILE = 10;
+    private static final int SILENCE_FLOOR_MULTIPLIER = 2;
+    private static final int MIN_SILENCE_THRESHOLD = 64;
+
+    private final SpeechClient speechClient;
+    private final int frameBytes;
+
+    /**
+     * A planned chunk in frames, with the time window whose words it contributes.
+     */
+    private static final class Chunk {
+        final int startFrame;
+        final int endFrame;
+        double keepFromSec = 0;
+        double keepUntilSec = Double.MAX_VALUE;
+
+        Chunk(int startFrame, int endFrame) {
+            this.startFrame = startFrame;
+            this.endFrame = endFrame;
+        }
+    }
+
+    public ChunkedTranscriber(SpeechClient speechClient) {
+        this.speechClient = speechClient;
+        this.frameBytes = Config.SAMPLE_RATE * Config.CHANNELS * BYTES_PER_SAMPLE * FRAME_MS / MS_PER_SECOND;
+    }
+
+    /**
+     * Transcribe a plain or encrypted WAV or FLAC recording and return the stitched transcript.
+     */
+    public String transcribe(File audioFile, Consumer<String> statusCallback) throws Exception {
+        // Frame offsets learned in the energy pass let each chunk start decoding FLAC at its own frame
+        PcmSource.FrameIndex frameIndex = new PcmSource.FrameIndex();
+        int[] energy = computeEnergy(audioFile, frameIndex);
+        List<Chunk> chunks = planChunks(energy);
+        Log.i(TAG, "Split " + energy.length * FRAME_MS / MS_PER_SECOND + "s of audio into " + chunks.size() + " chunks");
+        if (chunks.isEmpty()) {
+            return "";
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(Config.CHUNK_CONCURRENCY, chunks.size()));
+        try {
+            List<Future<List<WordInfo>>> futures = new ArrayList<>();
+            for (Chunk chunk : chunks) {
+                futures.add(pool.submit(() -> recognizeChunk(audioFile, frameIndex, chunk)));
+            }
+
+            StringBuilder transcript = new StringBuilder();
+            for (int i = 0; i < chunks.size(); i++) {
+                if (statusCallback != null) {
+                    statusCallback.accept("Transcribing… (" + (i + 1) + "/" + chunks.size() + ")");
+                }
+                appendWords(transcript, chunks.get(i), futures.get(i).get());
+            }
+            return transcript.toString();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new IOException("Chunk recognition failed", cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Mean absolute amplitude of every frame of the recording.
+     */
+    private int[] computeEnergy(File audioFile, PcmSource.FrameIndex frameIndex) throws Exception {
+        try (PcmSource source = PcmSource.open(audioFile, frameIndex)) {
+            long pcmBytes = source.size();
+            if (pcmBytes < 0) {
+                throw new IOException("Recording does not record its length");
+            }
+            int frames = (int) (pcmBytes / frameBytes);
+            int[] energy = new int[frames];
+            byte[] buffer = new byte[frameBytes * READ_BUFFER_FRAMES];
+
+            int frame = 0;
+            while (frame < frames) {
+                int wanted = Math.min(buffer.length, (frames - frame) * frameBytes);
+                source.readFully((long) frame * frameBytes, buffer, wanted);
+                for (int offset = 0; offset < wanted; offset += frameBytes) {
+                    long sum = 0;
+                    for (int i = offset; i < offset + frameBytes; i += BYTES_PER_SAMPLE) {
+                        sum += Math.abs((short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8)));
+                    }
+                    energy[frame++] = (int) (sum / (frameBytes / BYTES_PER_SAMPLE));
+                }
+            }
+            Arrays.fill(buffer, (byte) 0);
+            return energy;
+        }
+    }
+
+    /**
+     * Place chunk boundaries in silences, falling back to overlapping hard cuts.
+     */
+    private List<Chunk> planChunks(int[] energy) {
+        int framesPerSecond = MS_PER_SECOND / FRAME_MS;
+        int maxFrames = Config.CHUNK_MAX_SEC * framesPerSecond;
+        int minFrames = Config.CHUNK_MIN_SEC * framesPerSecond;
+        int overlapFrames = Config.CHUNK_OVERLAP_SEC * framesPerSecond;
+        int minSilenceFrames = Config.CHUNK_MIN_SILENCE_MS / FRAME_MS;
+        int threshold = silenceThreshold(energy);
+
+        List<Chunk> chunks = new ArrayList<>();
+        double pendingKeepFrom = 0;
+        int start = 0;
+        while (start < energy.length) {
+            Chunk chunk;
+            int next;
+            double nextKeepFrom = 0;
+            if (energy.length - start <= maxFrames) {
+                chunk = new Chunk(start, energy.length);
+                next = energy.length;
+            } else {
+                int split = findSilenceSplit(energy, start + minFrames, start + maxFrames, threshold, minSilenceFrames);
+                if (split > 0) {
+                    chunk = new Chunk(start, split);
+                    next = split;
+                } else {
+                    int end = start + maxFrames;
+                    chunk = new Chunk(start, end);
+                    next = end - overlapFrames;
+                    // Words in the overlap come from whichever chunk holds them before/after its midpoint
+                    double cut = (double) (end - overlapFrames / 2) / framesPerSecond;
+                    chunk.keepUntilSec = cut;
+                    nextKeepFrom = cut;
+                }
+            }
+            chunk.keepFromSec = pendingKeepFrom;
+            chunks.add(chunk);
+            pendingKeepFrom = nextKeepFrom;
+            start = next;
+        }
+        return chunks;
+    }
+
+    /**
+     * Middle frame of the longest silence run inside [from, to), or -1 if none is long enough.
+     */
+    private static int findSilenceSplit(int[] energy, int from, int to, int threshold, int minSilenceFrames) {
+        int bestStart = -1;
+        int bestLength = 0;
+        int runStart = -1;
+        for (int i = from; i <= to && i <= energy.length; i++) {
+            boolean silent = i < to && i < energy.length && energy[i] <= threshold;
+            if (silent && runStart < 0) {
+                runStart = i;
+            } else if (!silent && runStart >= 0) {
+                int length = i - runStart;
+                if (length > bestLength) {
+                    bestStart = runStart;
+                    bestLength = length;
+                }
+                runStart = -1;
+            }
+        }
+        return bestLength >= minSilenceFrames ? bestStart + bestLength / 2 : -1;
+    }
+
+    private static int silenceThreshold(int[] energy) {
+        if (energy.length == 0) {
+            return MIN_SILENCE_THRESHOLD;
+        }
+        int[] sorted = energy.clone();
+        Arrays.sort(sorted);
+        int floor = sorted[sorted.length * NOISE_FLOOR_PERCENTILE / 100];
+        return Math.max(MIN_SILENCE_THRESHOLD, floor * SILENCE_FLOOR_MULTIPLIER);
+    }
+
+    private List<WordInfo> recognizeChunk(File audioFile, PcmSource.FrameIndex frameIndex, Chunk chunk)
+            throws Exception {
+        int length = (chunk.endFrame - chunk.startFrame) * frameBytes;
+        byte[] pcm = new byte[length];
+        try (PcmSource source = PcmSource.open(audioFile, frameIndex)) {
+            source.readFully((long) chunk.startFrame * frameBytes, pcm, length);
+        }
+        byte[] content = Config.UPLOAD_AS_FLAC
+                ? FlacEncoder.encode(pcm, 0, length, Config.SAMPLE_RATE, Config.CHANNELS, Config.FLAC_BLOCK_SIZE)
+                : pcm;
+
+        RecognitionConfig config = RecognitionConfig.newBuilder()
+                .setEncoding(Config.UPLOAD_AS_FLAC
+                        ? RecognitionConfig.AudioEncoding.FLAC
+                        : RecognitionConfig.AudioEncoding.LINEAR16)
+                .setSampleRateHertz(Config.SAMPLE_RATE)
+                .setLanguageCode(Config.LANGUAGE_CODE)
+                .setModel(Config.GCS_MODEL)
+                .setEnableAutomaticPunctuation(true)
+                .setEnableWordTimeOffsets(true)
+                .build();
+        RecognitionAudio audio = RecognitionAudio.newBuilder().setContent(ByteString.copyFrom(content)).build();
+        Arrays.fill(pcm, (byte) 0);
+        Arrays.fill(content, (byte) 0);
+
+        RecognizeResponse response = speechClient.recognize(config, audio);
+        List<WordInfo> words = new ArrayList<>();
+        for (SpeechRecognitionResult result : response.getResultsList()) {
+            if (result.getAlternativesCount() > 0) {
+                words.addAll(result.getAlternatives(0).getWordsList());
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Append a chunk's words that start inside its keep window, using absolute recording time.
+     */
+    private static void appendWords(StringBuilder transcript, Chunk chunk, List<WordInfo> words) {
+        double chunkStartSec = (double) chunk.startFrame * FRAME_MS / MS_PER_SECOND;
+        for (WordInfo word : words) {
+            double start = chunkStartSec + seconds(word.getStartTime());
+            if (start < chunk.keepFromSec || start >= chunk.keepUntilSec) {
+                continue;
+            }
+            if (transcript.length() > 0) {
+                transcript.append(' ');
+            }
+            transcript.append(word.getWord());
+        }
+    }
+
+    private static double seconds(Duration duration) {
+        return duration.getSeconds() + duration.getNanos() / NANOS_PER_SECOND;
+    }
+}
@@ -1,24 +1,53 @@
 package com.transcriber.cloud;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 import com.google.api.gax.core.FixedCredentialsProvider;
-import com.google.api.gax.longrunning.OperationFuture;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.NotFoundException;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.speech.v1.*;
+import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Bucket;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.protobuf.ByteString;
 import com.transcriber.R;
+import com.transcriber.audio.FlacDecoder;
+import com.transcriber.audio.FlacEncoder;
 import com.transcriber.audit.AuditLogger;
 import com.transcriber.config.Config;
+import com.transcriber.security.EncryptionManager;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
 
 /**
@@ -27,93 +56,505 @@ import java.util.function.Consumer;
 public class GCloudTranscriber {
 
     private static final String TAG = "GCloudTranscriber";
-    private static SpeechClient speechClient;
-    private static Storage storageClient;
+    private static final int WAV_HEADER_SIZE = 44;
+    private static final int WAV_CHANNELS_OFFSET = 22;
+    private static final int WAV_SAMPLE_RATE_OFFSET = 24;
+    private static final int WAV_BYTE_RATE_OFFSET = 28;
+    private static final int WAV_DATA_SIZE_OFFSET = 40;
+    private static final String WAV_EXTENSION = ".wav";
+    private static final String FLAC_EXTENSION = ".flac";
+    private static final String CLOUD_PLATFORM_SCOPE = "https://www.googleapis.com/auth/cloud-platform";
+    // Looked up only to open the Speech channel; no operation has this name
+    private static final String WARM_UP_OPERATION_NAME = "0";
 
-    public static void initialize(Context context) throws IOException {
+    private static volatile SpeechClient speechClient;
+    private static volatile Storage storageClient;
+    private static volatile GoogleCredentials credentials;
+    private static volatile Bucket bucket;
+    private static OperationPoller operationPoller;
+    private static BlobReaper blobReaper;
+    private static ListenableFuture<Void> warmUp;
+    private static volatile boolean ready = false;
+
+    /**
+     * Build and prime the clients on a background thread: parse the credentials, create the clients,
+     * fetch an OAuth token, open the Speech channel and cache the bucket metadata, so the first
+     * transcription does not pay for the cold setup. The future completes once the clients can be used;
+     * network steps that fail are left for the first real request. Returns the running or finished
+     * warm-up, or starts a new one if the last one failed.
+     */
+    public static synchronized ListenableFuture<Void> warmUp(Context context) {
+        if (warmUp == null || (warmUp.isDone() && !ready)) {
+            Context appContext = context.getApplicationContext();
+            ListenableFutureTask<Void> task = ListenableFutureTask.create(() -> {
+                warmUpBlocking(appContext);
+                return null;
+            });
+            Thread thread = new Thread(task, "GCloud Warm-up");
+            thread.setDaemon(true);
+            thread.start();
+            warmUp = task;
+        }
+        return warmUp;
+    }
+
+    private static void warmUpBlocking(Context context) throws IOException {
+        long startedAt = SystemClock.elapsedRealtime();
+        initialize(context);
+        ready = true;
+        long clientsMs = SystemClock.elapsedRealtime() - startedAt;
+
+        try {
+            credentials.refreshIfExpired();
+        } catch (IOException e) {
+            Log.w(TAG, "OAuth token prefetch failed", e);
+        }
+        try {
+            speechClient.getOperationsClient().getOperation(WARM_UP_OPERATION_NAME);
+        } catch (NotFoundException e) {
+            // Expected: the channel is up and authenticated
+        } catch (ApiException e) {
+            Log.w(TAG, "Speech channel warm-up failed", e);
+        }
+        try {
+            bucket = storageClient.get(Config.GCS_BUCKET);
+            if (bucket == null) {
+                Log.e(TAG, "Bucket not found: " + Config.GCS_BUCKET);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Bucket metadata prefetch failed", e);
+        }
+        Log.i(TAG, "Google Cloud clients built in " + clientsMs + "ms, warm in "
+                + (SystemClock.elapsedRealtime() - startedAt) + "ms");
+    }
+
+    private static synchronized void initialize(Context context) throws IOException {
         if (speechClient == null || storageClient == null) {
             try (InputStream credentialsStream = context.getResources().openRawResource(R.raw.google_credentials)) {
-                GoogleCredentials credentials = GoogleCredentials.fromStream(credentialsStream);
+                GoogleCredentials parsed = GoogleCredentials.fromStream(credentialsStream);
+                // Scoped once and shared, so the prefetched token serves both clients
+                credentials = parsed.createScopedRequired()
+                        ? parsed.createScoped(Collections.singletonList(CLOUD_PLATFORM_SCOPE))
+                        : parsed;
                 SpeechSettings speechSettings = SpeechSettings.newBuilder()
                         .setCredentialsProvider(FixedCredentialsProvider.create(credentials))
                         .build();
                 speechClient = SpeechClient.create(speechSettings);
                 storageClient = StorageOptions.newBuilder().setCredentials(credentials).build().getService();
+                // One thread polls every pending operation; each poll is a single short RPC
+                ScheduledExecutorService pollScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "GCloud Operation Poller");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                operationPoller = new OperationPoller(speechClient.getOperationsClient(), pollScheduler);
+                blobReaper = new BlobReaper(storageClient, new File(Config.JOBS_DIR, Config.BLOB_TOMBSTONE_FILENAME));
+                blobReaper.start();
             }
         }
     }
 
     /**
-     * Upload an audio file, run transcription, return the transcript text.
+     * Check whether the clients were initialized.
      */
-    public static String uploadAndTranscribe(File audioFile, String patient, Consumer<String> statusCallback)
-            throws IOException {
+    public static boolean isInitialized() {
+        return ready;
+    }
+
+    /**
+     * Create a live transcription session on the shared SpeechClient.
+     */
+    public static StreamingTranscriber newStreamingTranscriber() {
+        if (speechClient == null) {
+            throw new IllegalStateException("GCloudTranscriber not initialized");
+        }
+        return new StreamingTranscriber(speechClient);
+    }
+
+    /**
+     * Transcribe a recording (plain or encrypted WAV or FLAC), picking the engine by its duration.
+     * Audio up to {@link Config#SYNC_RECOGNIZE_MAX_SEC} is sent inline to synchronous recognize,
+     * which skips the bucket lookup, upload, long-running operation and blob delete. Longer audio is
+     * split at silences and recognized in parallel chunks, with GCS + longRunningRecognize as fallback.
+     */
+    public static String transcribe(File audioFile, String patient, Consumer<String> statusCallback)
+            throws Exception {
+        double seconds = audioDurationSeconds(audioFile);
+        Log.i(TAG, "Audio duration: " + seconds + "s");
+
+        if (isInlineDuration(seconds)) {
+            return recognizeInline(audioFile, patient, statusCallback);
+        }
+
+        if (Config.CHUNKED_TRANSCRIPTION_ENABLED && seconds > 0) {
+            try {
+                return transcribeChunked(audioFile, patient, statusCallback);
+            } catch (Exception e) {
+                Log.w(TAG, "Chunked transcription failed, falling back to long-running recognize", e);
+            }
+        }
+
+        return uploadAndTranscribe(audioFile, patient, statusCallback);
+    }
+
+    /**
+     * Duration of a plain or encrypted WAV or FLAC recording, or -1 if its header is unusable.
+     */
+    public static double audioDurationSeconds(File audioFile) throws Exception {
         if (!audioFile.exists()) {
             throw new FileNotFoundException("Audio file not found: " + audioFile.getAbsolutePath());
         }
+        byte[] header = EncryptionManager.isSegmentedFile(audioFile)
+                ? EncryptionManager.readRange(audioFile, 0, WAV_HEADER_SIZE)
+                : readPrefix(audioFile, WAV_HEADER_SIZE);
+        return FlacDecoder.isFlac(header) ? FlacDecoder.durationSeconds(header) : wavDurationSeconds(header);
+    }
 
-        setStatus(statusCallback, "Uploading…");
+    /**
+     * Check whether audio of this duration can go to synchronous recognize.
+     */
+    public static boolean isInlineDuration(double seconds) {
+        return seconds > 0 && seconds <= Config.SYNC_RECOGNIZE_MAX_SEC;
+    }
 
-        Bucket bucket = storageClient.get(Config.GCS_BUCKET);
-        if (bucket == null) {
-            throw new RuntimeException("Bucket not found: " + Config.GCS_BUCKET);
+    /**
+     * Duration of a PCM WAV from its header, or -1 if the header is unusable.
+     */
+    public static double wavDurationSeconds(byte[] header) {
+        if (header == null || header.length < WAV_HEADER_SIZE) {
+            return -1;
         }
-
-        // Read file into byte array
-        byte[] fileData = new byte[(int) audioFile.length()];
-        try (FileInputStream fis = new FileInputStream(audioFile)) {
-            fis.read(fileData);
+        long byteRate = readLittleEndianInt(header, WAV_BYTE_RATE_OFFSET);
+        long dataSize = readLittleEndianInt(header, WAV_DATA_SIZE_OFFSET);
+        if (byteRate <= 0 || dataSize <= 0) {
+            return -1;
         }
+        return (double) dataSize / byteRate;
+    }
 
-        Blob blob = bucket.create(audioFile.getName(), fileData, "audio/wav");
-        AuditLogger.log("gcs_upload", audioFile.toPath(), patient != null ? patient : "", "Uploaded to GCS");
+    /**
+     * Run synchronous recognition on a short plain or encrypted WAV or FLAC recording.
+     */
+    public static String recognizeInline(File audioFile, String patient, Consumer<String> statusCallback)
+            throws Exception {
+        byte[] audioBytes = EncryptionManager.isSegmentedFile(audioFile)
+                ? EncryptionManager.readRange(audioFile, 0, Integer.MAX_VALUE)
+                : readPrefix(audioFile, (int) audioFile.length());
+        return recognizeInline(audioBytes, audioFile, patient, statusCallback);
+    }
 
-        String gcsUri = "gs://" + Config.GCS_BUCKET + "/" + audioFile.getName();
+    /**
+     * Run synchronous recognition on WAV or FLAC bytes sent inline with the request.
+     * WAV is compressed to FLAC first when {@link Config#UPLOAD_AS_FLAC} is set.
+     */
+    public static String recognizeInline(byte[] audioBytes, File source, String patient,
+                                         Consumer<String> statusCallback) throws IOException {
+        setStatus(statusCallback, "Transcribing…");
 
-        RecognitionConfig config = RecognitionConfig.newBuilder()
-                .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
-                .setSampleRateHertz(16000)
-                .setLanguageCode(Config.LANGUAGE_CODE)
-                .setModel(Config.GCS_MODEL)
-                .setEnableAutomaticPunctuation(true)
+        byte[] content = FlacDecoder.isFlac(audioBytes) || !Config.UPLOAD_AS_FLAC
+                ? audioBytes
+                : wavToFlac(audioBytes);
+        boolean flac = FlacDecoder.isFlac(content);
+        RecognitionAudio audio = RecognitionAudio.newBuilder()
+                .setContent(ByteString.copyFrom(content))
                 .build();
+        Arrays.fill(audioBytes, (byte) 0);
+        Arrays.fill(content, (byte) 0);
 
-        RecognitionAudio audio = RecognitionAudio.newBuilder().setUri(gcsUri).build();
+        try {
+            RecognizeResponse response = speechClient.recognize(buildRecognitionConfig(flac), audio);
+            AuditLogger.log("speech_recognize_inline", source, patient != null ? patient : "",
+                    "Transcribed inline without GCS upload");
+            return joinResults(response.getResultsList());
+        } finally {
+            setStatus(statusCallback, "Completed");
+        }
+    }
 
-        setStatus(statusCallback, "Transcribing…");
+    /**
+     * Recognize a long recording as silence-split chunks without uploading it.
+     */
+    public static String transcribeChunked(File audioFile, String patient, Consumer<String> statusCallback)
+            throws Exception {
+        String transcript = new ChunkedTranscriber(speechClient).transcribe(audioFile, statusCallback);
+        AuditLogger.log("speech_recognize_chunked", audioFile, patient != null ? patient : "",
+                "Transcribed in parallel chunks without GCS upload");
+        setStatus(statusCallback, "Completed");
+        return transcript;
+    }
 
-        OperationFuture<LongRunningRecognizeResponse, LongRunningRecognizeMetadata> operation =
-                speechClient.longRunningRecognizeAsync(config, audio);
+    /**
+     * Upload a plain or encrypted recording, run transcription, return the transcript text.
+     */
+    public static String uploadAndTranscribe(File audioFile, String patient, Consumer<String> statusCallback)
+            throws IOException {
+        if (!audioFile.exists()) {
+            throw new FileNotFoundException("Audio file not found: " + audioFile.getAbsolutePath());
+        }
+
+        setStatus(statusCallback, "Uploading…");
+        String blobName = blobNameFor(UUID.randomUUID().toString(), audioFile);
+        uploadRecording(audioFile, blobName, patient);
+
+        setStatus(statusCallback, "Transcribing…");
 
         try {
             Log.d(TAG, "Waiting for transcription operation to complete...");
-            LongRunningRecognizeResponse response = operation.get();
+            String finalTranscript = awaitLongRunning(startLongRunning(blobName), statusCallback);
             Log.d(TAG, "Transcription operation completed.");
 
-            if (response.getResultsList().isEmpty()) {
+            if (finalTranscript.isEmpty()) {
                 Log.w(TAG, "Transcription result was empty. No speech detected or error in recognition.");
-                return ""; // Return empty string if no results
             }
-
-            StringBuilder transcript = new StringBuilder();
-            for (SpeechRecognitionResult result : response.getResultsList()) {
-                if (result.getAlternativesCount() > 0) {
-                    transcript.append(result.getAlternatives(0).getTranscript());
-                }
-            }
-            String finalTranscript = transcript.toString();
-            Log.d(TAG, "Final Transcript: '" + finalTranscript + "'");
             return finalTranscript;
         } catch (Exception e) {
             Log.e(TAG, "Failed to get transcription result", e);
             throw new RuntimeException("Failed to get transcription result", e);
         } finally {
-            blob.delete();
-            AuditLogger.log("gcs_delete", audioFile.toPath(), patient != null ? patient : "", "Deleted blob from GCS");
+            reapBlob(blobName, audioFile, patient);
             setStatus(statusCallback, "Completed");
         }
     }
 
+    /**
+     * Upload a recording to the bucket under the given name, verified by CRC32C.
+     */
+    public static void uploadRecording(File audioFile, String blobName, String patient) throws IOException {
+        // Normally cached by the warm-up; only looked up here if that could not reach the bucket
+        if (bucket == null) {
+            bucket = storageClient.get(Config.GCS_BUCKET);
+            if (bucket == null) {
+                throw new RuntimeException("Bucket not found: " + Config.GCS_BUCKET);
+            }
+        }
+        uploadStreaming(audioFile, blobName);
+        AuditLogger.log("gcs_upload", audioFile, patient != null ? patient : "", "Uploaded to GCS");
+    }
+
+    /**
+     * Check whether a blob from an earlier attempt exists and matches the recording's CRC32C,
+     * so it can be reused instead of uploading again.
+     */
+    public static boolean isUploaded(File audioFile, String blobName) throws IOException {
+        Blob blob = storageClient.get(BlobId.of(Config.GCS_BUCKET, blobName));
+        if (blob == null) {
+            return false;
+        }
+        // FLAC encoding is deterministic, so re-encoding reproduces the uploaded bytes
+        HashingOutputStream crc32c = new HashingOutputStream(Hashing.crc32c(), ByteStreams.nullOutputStream());
+        writeUploadBytes(audioFile, isFlacBlob(blobName), crc32c);
+        return crc32cOf(crc32c.hash()).equals(blob.getCrc32c());
+    }
+
+    /**
+     * Delete an uploaded recording in the background; the deletion is retried until it is confirmed.
+     */
+    public static void reapBlob(String blobName, File audioFile, String patient) {
+        if (blobReaper == null) {
+            throw new IllegalStateException("GCloudTranscriber not initialized");
+        }
+        blobReaper.reap(blobName, audioFile, patient);
+    }
+
+    /**
+     * Name of the blob a recording is uploaded under. The upload id keeps a pending background delete
+     * of an earlier upload of the same recording from removing a newer one, and the extension records
+     * whether the blob holds WAV or FLAC.
+     */
+    public static String blobNameFor(String uploadId, File audioFile) {
+        String name = audioFile.getName();
+        if (name.endsWith(".enc")) {
+            name = name.substring(0, name.length() - ".enc".length());
+        }
+        if (Config.UPLOAD_AS_FLAC && name.endsWith(WAV_EXTENSION)) {
+            name = name.substring(0, name.length() - WAV_EXTENSION.length()) + FLAC_EXTENSION;
+        }
+        return uploadId + "/" + name;
+    }
+
+    /**
+     * Start longRunningRecognize on an uploaded blob and return the operation name, so a later
+     * attempt can resume waiting on the same operation.
+     */
+    public static String startLongRunning(String blobName) throws Exception {
+        RecognitionAudio audio = RecognitionAudio.newBuilder()
+                .setUri("gs://" + Config.GCS_BUCKET + "/" + blobName)
+                .build();
+        LongRunningRecognizeRequest request = LongRunningRecognizeRequest.newBuilder()
+                .setConfig(buildRecognitionConfig(isFlacBlob(blobName)))
+                .setAudio(audio)
+                .build();
+        return speechClient.longRunningRecognizeOperationCallable().futureCall(request).getName();
+    }
+
+    /**
+     * Poll a started longRunningRecognize operation on the shared poll scheduler, reporting progress.
+     * Cancelling the returned future also cancels the operation on the server.
+     */
+    public static ListenableFuture<String> pollLongRunning(String operationName, Consumer<String> statusCallback) {
+        if (operationPoller == null) {
+            throw new IllegalStateException("GCloudTranscriber not initialized");
+        }
+        return operationPoller.poll(operationName, statusCallback);
+    }
+
+    /**
+     * Wait for a started or resumed longRunningRecognize operation and return its transcript.
+     */
+    public static String awaitLongRunning(String operationName, Consumer<String> statusCallback) throws Exception {
+        try {
+            return pollLongRunning(operationName, statusCallback).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Stream a recording into a resumable upload, decrypting one segment at a time if it is encrypted,
+     * and verify the stored object against a CRC32C computed on the fly.
+     */
+    private static Blob uploadStreaming(File audioFile, String blobName) throws IOException {
+        boolean flac = isFlacBlob(blobName);
+        BlobInfo blobInfo = BlobInfo.newBuilder(BlobId.of(Config.GCS_BUCKET, blobName))
+                .setContentType(flac ? "audio/flac" : "audio/wav")
+                .build();
+        HashCode crc32c;
+        long uploaded;
+
+        try (WriteChannel writer = storageClient.writer(blobInfo)) {
+            // The writer buffers one chunk before sending it, so keep it at the smallest allowed size
+            writer.setChunkSize(Config.GCS_UPLOAD_CHUNK_SIZE);
+            HashingOutputStream sink = new HashingOutputStream(Hashing.crc32c(), Channels.newOutputStream(writer));
+            uploaded = writeUploadBytes(audioFile, flac, sink);
+            crc32c = sink.hash();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to upload " + blobName, e);
+        }
+
+        Blob blob = storageClient.get(blobInfo.getBlobId());
+        if (blob == null) {
+            throw new IOException("Uploaded blob not found: " + blobName);
+        }
+        if (!crc32cOf(crc32c).equals(blob.getCrc32c())) {
+            blob.delete();
+            throw new IOException("CRC32C mismatch after upload of " + blobName);
+        }
+        Log.i(TAG, "Uploaded " + uploaded + " bytes to " + blobName + " (CRC32C verified)");
+        return blob;
+    }
+
+    /**
+     * Write the bytes a recording is uploaded as: its plaintext, or its WAV audio encoded as FLAC on the fly.
+     * Returns the number of bytes written.
+     */
+    private static long writeUploadBytes(File audioFile, boolean flac, OutputStream sink) throws IOException {
+        CountingOutputStream out = new CountingOutputStream(sink);
+        byte[] buffer = new byte[Config.ENCRYPTION_SEGMENT_SIZE];
+        try (InputStream in = openPlaintext(audioFile)) {
+            int read = ByteStreams.read(in, buffer, 0, WAV_HEADER_SIZE);
+            FlacEncoder encoder = null;
+            if (flac && read == WAV_HEADER_SIZE && !FlacDecoder.isFlac(buffer)) {
+                encoder = newFlacEncoder(buffer, out);
+            } else {
+                out.write(buffer, 0, read);
+            }
+            while ((read = in.read(buffer)) != -1) {
+                if (encoder != null) {
+                    encoder.write(buffer, 0, read);
+                } else {
+                    out.write(buffer, 0, read);
+                }
+            }
+            if (encoder != null) {
+                encoder.finish();
+            }
+            out.flush();
+            return out.getCount();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to read " + audioFile.getName(), e);
+        } finally {
+            Arrays.fill(buffer, (byte) 0);
+        }
+    }
+
+    private static FlacEncoder newFlacEncoder(byte[] wavHeader, OutputStream out) throws IOException {
+        int channels = (int) readLittleEndianInt(wavHeader, WAV_CHANNELS_OFFSET) & 0xFFFF;
+        int sampleRate = (int) readLittleEndianInt(wavHeader, WAV_SAMPLE_RATE_OFFSET);
+        return new FlacEncoder(out, sampleRate, channels, Config.FLAC_BLOCK_SIZE);
+    }
+
+    /**
+     * Compress a whole in-memory WAV to FLAC, or return it unchanged if its header is unusable.
+     */
+    private static byte[] wavToFlac(byte[] wav) throws IOException {
+        if (wav.length < WAV_HEADER_SIZE) {
+            return wav;
+        }
+        int channels = (int) readLittleEndianInt(wav, WAV_CHANNELS_OFFSET) & 0xFFFF;
+        int sampleRate = (int) readLittleEndianInt(wav, WAV_SAMPLE_RATE_OFFSET);
+        return FlacEncoder.encode(wav, WAV_HEADER_SIZE, wav.length - WAV_HEADER_SIZE,
+                sampleRate, channels, Config.FLAC_BLOCK_SIZE);
+    }
+
+    private static boolean isFlacBlob(String blobName) {
+        return blobName.endsWith(FLAC_EXTENSION);
+    }
+
+    private static InputStream openPlaintext(File audioFile) throws Exception {
+        if (EncryptionManager.isSegmentedFile(audioFile)) {
+            return EncryptionManager.newDecryptingStream(new BufferedInputStream(
+                    new FileInputStream(audioFile), Config.ENCRYPTION_SEGMENT_SIZE));
+        }
+        return new FileInputStream(audioFile);
+    }
+
+    /**
+     * Base64 of the big-endian CRC32C, as reported by GCS.
+     */
+    private static String crc32cOf(HashCode crc32c) {
+        return BaseEncoding.base64().encode(Ints.toByteArray(crc32c.asInt()));
+    }
+
+    private static RecognitionConfig buildRecognitionConfig(boolean flac) {
+        return RecognitionConfig.newBuilder()
+                .setEncoding(flac ? RecognitionConfig.AudioEncoding.FLAC : RecognitionConfig.AudioEncoding.LINEAR16)
+                .setSampleRateHertz(Config.SAMPLE_RATE)
+                .setLanguageCode(Config.LANGUAGE_CODE)
+                .setModel(Config.GCS_MODEL)
+                .setEnableAutomaticPunctuation(true)
+                .build();
+    }
+
+    static String joinResults(List<SpeechRecognitionResult> results) {
+        StringBuilder transcript = new StringBuilder();
+        for (SpeechRecognitionResult result : results) {
+            if (result.getAlternativesCount() > 0) {
+                transcript.append(result.getAlternatives(0).getTranscript());
+            }
+        }
+        return transcript.toString();
+    }
+
+    private static byte[] readPrefix(File file, int length) throws IOException {
+        byte[] data = new byte[(int) Math.min(length, file.length())];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(data);
+        }
+        return data;
+    }
+
+    private static long readLittleEndianInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFFL)
+                | ((buffer[offset + 1] & 0xFFL) << 8)
+                | ((buffer[offset + 2] & 0xFFL) << 16)
+                | ((buffer[offset + 3] & 0xFFL) << 24);
+    }
+
     private static void setStatus(Consumer<String> callback, String message) {
         if (callback != null) {
             Log.d(TAG, "Setting status: " + message);
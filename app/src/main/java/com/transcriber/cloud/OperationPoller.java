@@ -0,0 +1,164 @@
+package com.transcriber.cloud;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.cloud.speech.v1.LongRunningRecognizeMetadata;
+import com.google.cloud.speech.v1.LongRunningRecognizeResponse;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.longrunning.Operation;
+import com.google.longrunning.OperationsClient;
+import com.transcriber.config.Config;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Polls longRunningRecognize operations on a shared scheduler instead of blocking a thread per operation.
+ */
+public class OperationPoller {
+
+    private static final String TAG = "OperationPoller";
+    private static final double BACKOFF_MULTIPLIER = 1.5;
+    private static final int PERCENT_DONE = 100;
+
+    private final OperationsClient operationsClient;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The operation finished with an error status.
+     */
+    public static class OperationFailedException extends Exception {
+        private final int code;
+
+        OperationFailedException(String operationName, int code, String message) {
+            super("Operation " + operationName + " failed with code " + code + ": " + message);
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+    }
+
+    public OperationPoller(OperationsClient operationsClient, ScheduledExecutorService scheduler) {
+        this.operationsClient = operationsClient;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Start polling an operation by name and return its transcript once it is done.
+     */
+    public ListenableFuture<String> poll(String operationName, Consumer<String> statusCallback) {
+        Poll poll = new Poll(operationName, statusCallback);
+        poll.schedule(0);
+        return poll.result;
+    }
+
+    private final class Poll implements Runnable {
+        final SettableFuture<String> result = SettableFuture.create();
+        final String operationName;
+        final Consumer<String> statusCallback;
+        final long startedAt = SystemClock.elapsedRealtime();
+        long delayMs = Config.OPERATION_POLL_INITIAL_MS;
+        int lastProgress = -1;
+        long lastProgressAt = startedAt;
+        volatile ScheduledFuture<?> next;
+
+        Poll(String operationName, Consumer<String> statusCallback) {
+            this.operationName = operationName;
+            this.statusCallback = statusCallback;
+            result.addListener(() -> {
+                if (result.isCancelled()) {
+                    onCancelled();
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        void schedule(long delay) {
+            if (!result.isDone()) {
+                next = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                // A single call per poll, so many operations can share one scheduler thread
+                Operation operation = operationsClient.getOperation(operationName);
+                if (operation.getDone()) {
+                    complete(operation);
+                    return;
+                }
+
+                long now = SystemClock.elapsedRealtime();
+                int progress = operation.hasMetadata()
+                        ? operation.getMetadata().unpack(LongRunningRecognizeMetadata.class).getProgressPercent()
+                        : 0;
+                if (progress != lastProgress) {
+                    lastProgress = progress;
+                    lastProgressAt = now;
+                    if (statusCallback != null) {
+                        statusCallback.accept("Transcribing… " + progress + "%");
+                    }
+                } else if (now - lastProgressAt > Config.OPERATION_STALL_TIMEOUT_MS) {
+                    cancelOnServer();
+                    result.setException(new TimeoutException("Operation " + operationName + " made no progress in "
+                            + TimeUnit.MILLISECONDS.toSeconds(Config.OPERATION_STALL_TIMEOUT_MS) + "s"));
+                    return;
+                }
+                schedule(nextDelay(progress, now));
+            } catch (Exception e) {
+                result.setException(e);
+            }
+        }
+
+        /**
+         * Back off while the operation runs, but not past the time its progress rate says it has left.
+         */
+        private long nextDelay(int progress, long now) {
+            long maxMs = TimeUnit.SECONDS.toMillis(Config.POLL_INTERVAL_SEC);
+            delayMs = Math.min(maxMs, (long) (delayMs * BACKOFF_MULTIPLIER));
+            if (progress <= 0) {
+                return delayMs;
+            }
+            long remainingMs = (now - startedAt) * (PERCENT_DONE - progress) / progress;
+            return Math.max(Config.OPERATION_POLL_INITIAL_MS, Math.min(delayMs, remainingMs));
+        }
+
+        private void complete(Operation operation) throws Exception {
+            if (operation.hasError()) {
+                result.setException(new OperationFailedException(operationName,
+                        operation.getError().getCode(), operation.getError().getMessage()));
+                return;
+            }
+            LongRunningRecognizeResponse response = operation.getResponse().unpack(LongRunningRecognizeResponse.class);
+            result.set(GCloudTranscriber.joinResults(response.getResultsList()));
+        }
+
+        private void onCancelled() {
+            ScheduledFuture<?> pending = next;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            // Cancellation usually comes from the UI thread, so keep the RPC on the scheduler
+            scheduler.execute(this::cancelOnServer);
+        }
+
+        private void cancelOnServer() {
+            try {
+                operationsClient.cancelOperation(operationName);
+                Log.i(TAG, "Cancelled operation " + operationName);
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to cancel operation " + operationName, e);
+            }
+        }
+    }
+}
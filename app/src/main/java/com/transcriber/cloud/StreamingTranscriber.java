@@ -0,0 +1,298 @@
+package com.transcriber.cloud;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.api.gax.rpc.ClientStream;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.StreamController;
+import com.google.cloud.speech.v1.RecognitionConfig;
+import com.google.cloud.speech.v1.SpeechClient;
+import com.google.cloud.speech.v1.StreamingRecognitionConfig;
+import com.google.cloud.speech.v1.StreamingRecognitionResult;
+import com.google.cloud.speech.v1.StreamingRecognizeRequest;
+import com.google.cloud.speech.v1.StreamingRecognizeResponse;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Duration;
+import com.transcriber.config.Config;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Live transcription over the Speech StreamingRecognize call, fed with PCM while recording.
+ */
+public class StreamingTranscriber {
+
+    private static final String TAG = "StreamingTranscriber";
+    private static final int BYTES_PER_SAMPLE = 2;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final SpeechClient speechClient;
+    private final LongSupplier clockMs;
+    private final long rolloverMs;
+    private final StreamingRecognitionConfig streamingConfig;
+    private final long bytesPerSecond;
+    private final long rolloverBytes;
+
+    private final StringBuilder transcript = new StringBuilder();
+    // Audio sent since the last final result, with its offset in the whole recording
+    private final Deque<Chunk> unfinalized = new ArrayDeque<>();
+
+    private ClientStream<StreamingRecognizeRequest> stream;
+    private CountDownLatch streamDone;
+    private int generation = 0;
+    private long streamOpenedAtMs = 0;
+    private long streamStartOffset = 0;
+    private long sentOffset = 0;
+    private long finalizedOffset = 0;
+    private Throwable failure;
+    private boolean finished = false;
+
+    /**
+     * PCM bytes sent to the service, with their position in the recording.
+     */
+    private static final class Chunk {
+        final long offset;
+        final ByteString data;
+
+        Chunk(long offset, ByteString data) {
+            this.offset = offset;
+            this.data = data;
+        }
+
+        long end() {
+            return offset + data.size();
+        }
+    }
+
+    public StreamingTranscriber(SpeechClient speechClient) {
+        this(speechClient, SystemClock::elapsedRealtime);
+    }
+
+    StreamingTranscriber(SpeechClient speechClient, LongSupplier clockMs) {
+        this.speechClient = speechClient;
+        this.clockMs = clockMs;
+        this.rolloverMs = TimeUnit.SECONDS.toMillis(Config.STREAMING_ROLLOVER_SEC);
+        this.bytesPerSecond = (long) Config.SAMPLE_RATE * Config.CHANNELS * BYTES_PER_SAMPLE;
+        this.rolloverBytes = Config.STREAMING_ROLLOVER_SEC * bytesPerSecond;
+
+        RecognitionConfig recognitionConfig = RecognitionConfig.newBuilder()
+                .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
+                .setSampleRateHertz(Config.SAMPLE_RATE)
+                .setLanguageCode(Config.LANGUAGE_CODE)
+                .setModel(Config.GCS_MODEL)
+                .setEnableAutomaticPunctuation(true)
+                .build();
+        this.streamingConfig = StreamingRecognitionConfig.newBuilder()
+                .setConfig(recognitionConfig)
+                .setInterimResults(false)
+                .build();
+    }
+
+    /**
+     * Open the first stream.
+     */
+    public synchronized void start() {
+        openStream();
+    }
+
+    /**
+     * Send raw 16-bit PCM; the bytes are copied, so the caller may reuse its buffer.
+     */
+    public synchronized void feed(byte[] pcm, int offset, int length) {
+        if (finished || failure != null || length <= 0) {
+            return;
+        }
+        // The service limits both how long a stream stays open and how much audio it takes
+        if (clockMs.getAsLong() - streamOpenedAtMs >= rolloverMs
+                || sentOffset - streamStartOffset >= rolloverBytes) {
+            rollover();
+            if (stream == null) {
+                return;
+            }
+        }
+        Chunk chunk = new Chunk(sentOffset, ByteString.copyFrom(pcm, offset, length));
+        unfinalized.addLast(chunk);
+        sentOffset = chunk.end();
+        send(chunk.data);
+    }
+
+    /**
+     * Close the audio side, wait for the remaining final results and return the stitched transcript.
+     * Fails if any of the audio fed was not transcribed.
+     */
+    public String finish(long timeoutMs) throws IOException {
+        CountDownLatch done;
+        synchronized (this) {
+            finished = true;
+            if (stream != null) {
+                stream.closeSend();
+            }
+            done = streamDone;
+        }
+
+        try {
+            if (done != null && !done.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                cancel();
+                throw new IOException("Timed out waiting for final streaming results");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new IOException("Interrupted waiting for streaming results", e);
+        }
+
+        synchronized (this) {
+            if (failure != null) {
+                throw new IOException("Streaming recognition failed", failure);
+            }
+            unfinalized.clear();
+            return transcript.toString().trim();
+        }
+    }
+
+    /**
+     * Abandon the session without waiting for results.
+     */
+    public synchronized void cancel() {
+        finished = true;
+        generation++;
+        if (stream != null) {
+            stream.closeSendWithError(new IOException("Streaming transcription cancelled"));
+            stream = null;
+        }
+        if (streamDone != null) {
+            streamDone.countDown();
+        }
+        unfinalized.clear();
+    }
+
+    /**
+     * Seconds of audio sent so far.
+     */
+    public synchronized double getSentSeconds() {
+        return (double) sentOffset / bytesPerSecond;
+    }
+
+    private void openStream() {
+        int streamGeneration = ++generation;
+        CountDownLatch done = new CountDownLatch(1);
+        streamDone = done;
+        streamOpenedAtMs = clockMs.getAsLong();
+        stream = speechClient.streamingRecognizeCallable().splitCall(new ResponseObserver<StreamingRecognizeResponse>() {
+            @Override
+            public void onStart(StreamController controller) {
+            }
+
+            @Override
+            public void onResponse(StreamingRecognizeResponse response) {
+                handleResponse(streamGeneration, response);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                handleError(streamGeneration, t);
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+        stream.send(StreamingRecognizeRequest.newBuilder().setStreamingConfig(streamingConfig).build());
+    }
+
+    /**
+     * Retire the current stream and replay unfinalized audio on a fresh one, or fail the session if
+     * there is too much of it.
+     */
+    private void rollover() {
+        long pending = sentOffset - finalizedOffset;
+        if (pending > rolloverBytes / 2) {
+            // The replay could itself outgrow a stream, and skipping it would leave a gap in the transcript
+            failure = new IOException("No final result for " + pending / bytesPerSecond + "s of audio");
+            Log.w(TAG, "Abandoning live transcription: " + failure.getMessage());
+            generation++;
+            stream.closeSendWithError(failure);
+            stream = null;
+            streamDone.countDown();
+            unfinalized.clear();
+            return;
+        }
+
+        ClientStream<StreamingRecognizeRequest> retired = stream;
+        openStream();
+        retired.closeSend();
+
+        streamStartOffset = finalizedOffset;
+        long replayed = 0;
+        for (Chunk chunk : unfinalized) {
+            ByteString data = chunk.data;
+            if (chunk.offset < finalizedOffset) {
+                data = data.substring((int) (finalizedOffset - chunk.offset));
+            }
+            send(data);
+            replayed += data.size();
+        }
+        Log.i(TAG, "Rolled over to stream " + generation + ", replayed " + replayed + " bytes");
+    }
+
+    private void send(ByteString audio) {
+        stream.send(StreamingRecognizeRequest.newBuilder().setAudioContent(audio).build());
+    }
+
+    private synchronized void handleResponse(int streamGeneration, StreamingRecognizeResponse response) {
+        // The current stream finalizes the retired stream's unfinished audio again, so each stretch is
+        // appended once and in order
+        if (streamGeneration != generation) {
+            return;
+        }
+        for (StreamingRecognitionResult result : response.getResultsList()) {
+            if (!result.getIsFinal() || result.getAlternativesCount() == 0) {
+                continue;
+            }
+            appendFinal(result.getAlternatives(0).getTranscript());
+            if (result.hasResultEndTime()) {
+                markFinalized(streamStartOffset + toBytes(result.getResultEndTime()));
+            }
+        }
+    }
+
+    private synchronized void handleError(int streamGeneration, Throwable t) {
+        if (streamGeneration != generation) {
+            return;
+        }
+        Log.e(TAG, "Streaming recognition error", t);
+        failure = t;
+    }
+
+    private void appendFinal(String text) {
+        if (text.isEmpty()) {
+            return;
+        }
+        if (transcript.length() > 0 && !Character.isWhitespace(transcript.charAt(transcript.length() - 1))
+                && !Character.isWhitespace(text.charAt(0))) {
+            transcript.append(' ');
+        }
+        transcript.append(text);
+    }
+
+    private void markFinalized(long offset) {
+        finalizedOffset = Math.max(finalizedOffset, Math.min(offset, sentOffset));
+        while (!unfinalized.isEmpty() && unfinalized.peekFirst().end() <= finalizedOffset) {
+            unfinalized.removeFirst();
+        }
+    }
+
+    private long toBytes(Duration duration) {
+        long nanos = duration.getSeconds() * NANOS_PER_SECOND + duration.getNanos();
+        long bytes = nanos * bytesPerSecond / NANOS_PER_SECOND;
+        // Keep offsets on sample boundaries
+        return bytes - (bytes % (BYTES_PER_SAMPLE * Config.CHANNELS));
+    }
+}
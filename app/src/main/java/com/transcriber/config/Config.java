@@ -13,25 +13,75 @@ public class Config {
     public static File TRANSCRIPTIONS_DIR;
     public static File RECORDINGS_DIR;
     public static File AUDIT_LOG_DIR;
+    public static File JOBS_DIR;
 
     // Google Cloud
     public static final String GCS_BUCKET = "transcribe_bucket9788";
     public static final String LANGUAGE_CODE = "en-US";
     public static final String GCS_MODEL = "medical_conversation";
-    public static final int POLL_INTERVAL_SEC = 5;
+    public static final int POLL_INTERVAL_SEC = 5; // longest wait between operation polls
+    public static final long OPERATION_POLL_INITIAL_MS = 500;
+    public static final long OPERATION_STALL_TIMEOUT_MS = 10 * 60 * 1000;
+    public static final int GCS_UPLOAD_CHUNK_SIZE = 256 * 1024; // smallest resumable upload chunk
+    public static final int SYNC_RECOGNIZE_MAX_SEC = 55; // synchronous recognize accepts up to 60 s
+    public static final boolean CHUNKED_TRANSCRIPTION_ENABLED = true;
+    public static final int CHUNK_MAX_SEC = 50;
+    public static final int CHUNK_MIN_SEC = 20;
+    public static final int CHUNK_OVERLAP_SEC = 2;
+    public static final int CHUNK_MIN_SILENCE_MS = 300;
+    public static final int CHUNK_CONCURRENCY = 4;
+    public static final long STREAMING_ROLLOVER_SEC = 290; // StreamingRecognize allows about 305 s per stream
+    public static final long STREAMING_FINISH_TIMEOUT_MS = 15000;
+
+    // Transcription job queue
+    public static final int TRANSCRIPTION_JOB_CONCURRENCY = 2;
+    public static final int JOB_MAX_ATTEMPTS = 6;
+    public static final long JOB_BACKOFF_BASE_MS = 5000;
+    public static final long JOB_BACKOFF_MAX_MS = 5 * 60 * 1000;
+    public static final String BLOB_TOMBSTONE_FILENAME = "gcs_tombstones.log.enc";
+    public static final long BLOB_REAPER_RETRY_BASE_MS = 5000;
+    public static final long BLOB_REAPER_RETRY_MAX_MS = 10 * 60 * 1000;
 
     // Audio recording defaults
     public static final int SAMPLE_RATE = 16_000;
     public static final int CHANNELS = 1;
     public static final String AUDIO_SUBTYPE = "PCM_SIGNED";
+    public static final long RECORDER_STOP_TIMEOUT_MS = 5000;
+    public static final int RECORDER_RING_BUFFER_BYTES = 256 * 1024; // ~8 s of 16 kHz mono PCM
+    public static final int RECORDER_WRITE_BATCH_BYTES = 16 * 1024;
+    public static final long RECORDER_WRITER_WAIT_MS = 250;
+    public static final long RECORDER_SYNC_INTERVAL_MS = 5000; // bounds what a power loss takes from a recording
+    public static final boolean RECORD_AS_FLAC = true; // store recordings losslessly compressed (.flac.enc)
+    public static final boolean UPLOAD_AS_FLAC = true; // compress WAV audio to FLAC before sending it
+    public static final int FLAC_BLOCK_SIZE = 4096; // samples per FLAC frame, ~256 ms at 16 kHz
+    public static final boolean VAD_ENABLED = true; // trim long pauses out of recordings
+    public static final int VAD_FRAME_MS = 20;
+    public static final int VAD_KEEP_PAUSE_MS = 600; // head of every pause kept, so short pauses survive whole
+    public static final int VAD_PREROLL_MS = 200; // audio kept just before speech resumes
 
     // Security / deletion
     public static final int SECURE_OVERWRITE_PASSES = 3;
 
+    // Audit logging
+    public static final int AUDIT_QUEUE_CAPACITY = 1024;
+    public static final int AUDIT_MAX_BATCH_SIZE = 128;
+    public static final long AUDIT_MAX_FLUSH_DELAY_MS = 250;
+    public static final long AUDIT_FLUSH_TIMEOUT_MS = 5000;
+
     // Encryption
     public static final String KEY_ALIAS = "transcriber_master_key";
+    public static final int ENCRYPTION_SEGMENT_SIZE = 64 * 1024;
     public static final int BIOMETRIC_TIMEOUT_SECONDS = 36000; // 10 hours (doctor's workday)
-    public static final String METADATA_FILENAME = "file_metadata.json.enc";
+    public static final long SESSION_REAUTH_RETRY_MS = 5000; // re-prompt deferred while recording or saving
+    public static final String METADATA_FILE_PREFIX = "file_metadata";
+    public static final String METADATA_FILENAME = "file_metadata.json.enc"; // legacy whole-file JSON, migrated on first open
+    public static final String METADATA_SNAPSHOT_FILENAME = "file_metadata.snapshot.enc";
+    public static final String METADATA_LOG_FILENAME = "file_metadata.log.enc";
+    public static final String METADATA_ROTATED_LOG_FILENAME = "file_metadata.log.compacting.enc";
+    public static final int METADATA_COMPACT_MIN_RECORDS = 256;
+    public static final long METADATA_WRITE_BEHIND_MS = 200; // changes within this window share one log frame
+    public static final long METADATA_WRITE_RETRY_MS = 5000;
+    public static final long METADATA_FLUSH_TIMEOUT_MS = 5000;
 
     // Transcription cleaning - filler words to remove
     public static final List<String> FILLER_WORDS = Arrays.asList(
@@ -5,6 +5,7 @@ import com.transcriber.audit.AuditLogger;
 import com.transcriber.config.Config;
 import com.transcriber.security.EncryptionManager;
 import com.transcriber.security.FileMetadataManager;
+import com.transcriber.security.MetadataStore;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -156,10 +157,10 @@ public class FileManager {
         int deletedCount = 0;
         if (files != null) {
             for (File file : files) {
-                // Encrypted files can just be deleted (no secure overwrite needed)
+                // Encrypted files are crypto-shredded (wrapped key destroyed) instead of overwritten
                 if (file.getName().endsWith(".enc")) {
-                    if (file.delete()) {
-                        AuditLogger.log("delete_recording", file, "(batch delete)", "Deleted encrypted recording");
+                    if (EncryptionManager.shredFile(file)) {
+                        AuditLogger.log("delete_recording", file, "(batch delete)", "Shredded encrypted recording");
                         deletedCount++;
                     }
                 } else {
@@ -181,26 +182,18 @@ public class FileManager {
         }
 
         File encryptedFile = new File(Config.TRANSCRIPTIONS_DIR, uuid + ".enc");
-        File tempPlaintext = new File(Config.TRANSCRIPTIONS_DIR, ".temp_" + uuid + ".txt");
-
-        try {
-            try (FileOutputStream fos = new FileOutputStream(tempPlaintext);
-                 OutputStreamWriter writer = new OutputStreamWriter(fos, StandardCharsets.UTF_8)) {
-                writer.write(content);
-            }
-
-            EncryptionManager.encryptFile(tempPlaintext, encryptedFile);
-
+        // Held across both writes so concurrent saves of one transcription leave content and metadata matching
+        try (MetadataStore.Transaction transaction = FileMetadataManager.beginTransaction()) {
+            EncryptionManager.encryptToFile(content, encryptedFile);
             long timestamp = System.currentTimeMillis();
-            FileMetadataManager.updateMetadata(uuid, patientName, dob, timestamp);
+            transaction.put(uuid, FileMetadataManager.createMetadata(patientName, dob, timestamp));
+            transaction.commit();
+        }
 
-            AuditLogger.log("save_encrypted_transcription", encryptedFile, patientName,
-                    "Saved encrypted transcription");
+        AuditLogger.log("save_encrypted_transcription", encryptedFile, patientName,
+                "Saved encrypted transcription");
 
-            return encryptedFile;
-        } finally {
-            tempPlaintext.delete();
-        }
+        return encryptedFile;
     }
 
     /**
@@ -226,7 +219,7 @@ public class FileManager {
         if (Config.TRANSCRIPTIONS_DIR == null || !Config.TRANSCRIPTIONS_DIR.exists()) {
             return new ArrayList<>();
         }
-        File[] files = Config.TRANSCRIPTIONS_DIR.listFiles((dir, name) -> name.endsWith(".enc") && !name.equals(Config.METADATA_FILENAME));
+        File[] files = Config.TRANSCRIPTIONS_DIR.listFiles((dir, name) -> name.endsWith(".enc") && !FileMetadataManager.isMetadataFile(name));
         if (files == null) {
             return new ArrayList<>();
         }
@@ -248,9 +241,10 @@ public class FileManager {
             return true;
         }
 
-        try {
-            if (encryptedFile.delete()) {
-                FileMetadataManager.deleteMetadata(uuid);
+        try (MetadataStore.Transaction transaction = FileMetadataManager.beginTransaction()) {
+            if (EncryptionManager.shredFile(encryptedFile)) {
+                transaction.delete(uuid);
+                transaction.commit();
                 AuditLogger.log("delete_encrypted_transcription", encryptedFile, patient != null ? patient : "",
                         "Deleted encrypted transcription and metadata");
                 return true;
@@ -0,0 +1,131 @@
+package com.transcriber.job;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.concurrent.Future;
+
+/**
+ * A transcription request and its progress, persisted encrypted so it survives process death.
+ *
+ * Each state records what an attempt may reuse: the blob name once an upload is under way, the
+ * operation name once longRunningRecognize has started and the transcription UUID once the result
+ * is being saved, so a resumed attempt never repeats work that already finished.
+ */
+public class TranscriptionJob {
+
+    /**
+     * Lifecycle of a job; DONE, FAILED and CANCELLED are terminal.
+     */
+    public enum State {
+        QUEUED,
+        UPLOADING,
+        RECOGNIZING,
+        POST_PROCESSING,
+        DONE,
+        FAILED,
+        CANCELLED
+    }
+
+    final String id;
+    final File audioFile;
+    final String patient;
+    final String dob;
+    final String templateContent;
+    final long createdAt;
+
+    State state = State.QUEUED;
+    int attempts = 0;
+    long nextAttemptAt = 0;
+    String blobName;
+    String operationName;
+    String transcript;
+    String transcriptionUuid;
+    String error;
+
+    // In-memory only: a cancellation request and the operation poll the job is parked on
+    volatile boolean cancelRequested = false;
+    volatile Future<?> pendingPoll;
+
+    TranscriptionJob(String id, File audioFile, String patient, String dob, String templateContent, long createdAt) {
+        this.id = id;
+        this.audioFile = audioFile;
+        this.patient = patient;
+        this.dob = dob;
+        this.templateContent = templateContent;
+        this.createdAt = createdAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public File getAudioFile() {
+        return audioFile;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public String getTranscriptionUuid() {
+        return transcriptionUuid;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isTerminal() {
+        return state == State.DONE || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("id", id);
+        obj.put("audioPath", audioFile.getAbsolutePath());
+        obj.put("patient", patient);
+        obj.put("dob", dob);
+        obj.putOpt("templateContent", templateContent);
+        obj.put("createdAt", createdAt);
+        obj.put("state", state.name());
+        obj.put("attempts", attempts);
+        obj.put("nextAttemptAt", nextAttemptAt);
+        obj.putOpt("blobName", blobName);
+        obj.putOpt("operationName", operationName);
+        obj.putOpt("transcript", transcript);
+        obj.putOpt("transcriptionUuid", transcriptionUuid);
+        obj.putOpt("error", error);
+        return obj;
+    }
+
+    static TranscriptionJob fromJson(JSONObject obj) throws JSONException {
+        TranscriptionJob job = new TranscriptionJob(
+                obj.getString("id"),
+                new File(obj.getString("audioPath")),
+                obj.getString("patient"),
+                obj.getString("dob"),
+                optString(obj, "templateContent"),
+                obj.getLong("createdAt")
+        );
+        job.state = State.valueOf(obj.getString("state"));
+        job.attempts = obj.getInt("attempts");
+        job.nextAttemptAt = obj.getLong("nextAttemptAt");
+        job.blobName = optString(obj, "blobName");
+        job.operationName = optString(obj, "operationName");
+        job.transcript = optString(obj, "transcript");
+        job.transcriptionUuid = optString(obj, "transcriptionUuid");
+        job.error = optString(obj, "error");
+        return job;
+    }
+
+    // JSONObject.optString turns a missing key into "", but null means "not reached yet" here
+    private static String optString(JSONObject obj, String key) throws JSONException {
+        return obj.isNull(key) ? null : obj.getString(key);
+    }
+}
@@ -0,0 +1,447 @@
+package com.transcriber.job;
+
+import android.util.Log;
+import com.google.api.gax.rpc.ApiException;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.transcriber.audio.SpeechSegmentIndex;
+import com.transcriber.audit.AuditLogger;
+import com.transcriber.cloud.Backoff;
+import com.transcriber.cloud.GCloudTranscriber;
+import com.transcriber.config.Config;
+import com.transcriber.file.FileManager;
+import com.transcriber.security.EncryptionManager;
+import com.transcriber.template.TemplateManager;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Durable queue of transcription jobs, run on a bounded worker pool.
+ */
+public class TranscriptionJobQueue {
+
+    private static final String TAG = "TranscriptionJobQueue";
+    private static final String JOB_SUFFIX = ".job.enc";
+
+    /**
+     * Receives progress from worker threads.
+     */
+    public interface Listener {
+        void onJobStatus(TranscriptionJob job, String status);
+
+        void onJobFinished(TranscriptionJob job);
+    }
+
+    /**
+     * A failure that retrying cannot fix.
+     */
+    private static class JobFailedException extends Exception {
+        JobFailedException(String message) {
+            super(message);
+        }
+    }
+
+    private static final Map<String, TranscriptionJob> jobs = new ConcurrentHashMap<>();
+    // Pending attempt per job id; guarded by its own lock
+    private static final Map<String, ScheduledFuture<?>> scheduled = new HashMap<>();
+    private static ScheduledThreadPoolExecutor executor;
+    private static volatile Listener listener;
+
+    private TranscriptionJobQueue() {
+        // Utility class - prevent instantiation
+    }
+
+    /**
+     * Start the workers and resume jobs left over from an earlier process. Safe to call more than once.
+     */
+    public static synchronized void initialize() {
+        if (executor != null) {
+            return;
+        }
+        executor = new ScheduledThreadPoolExecutor(Config.TRANSCRIPTION_JOB_CONCURRENCY, runnable -> {
+            Thread thread = new Thread(runnable, "TranscriptionJob Worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loadJobs();
+    }
+
+    public static void setListener(Listener jobListener) {
+        listener = jobListener;
+    }
+
+    /**
+     * Queue a recording for transcription, or return the job already queued for it.
+     * A transcript that is already known (for example from live streaming) skips straight to saving.
+     */
+    public static TranscriptionJob enqueue(File audioFile, String patient, String dob, String templateContent,
+                                           String transcript) throws Exception {
+        if (executor == null) {
+            throw new IllegalStateException("TranscriptionJobQueue not initialized");
+        }
+        for (TranscriptionJob existing : jobs.values()) {
+            if (existing.audioFile.equals(audioFile) && !existing.isTerminal()) {
+                return existing;
+            }
+        }
+
+        TranscriptionJob job = new TranscriptionJob(UUID.randomUUID().toString(), audioFile, patient, dob,
+                templateContent, System.currentTimeMillis());
+        if (transcript != null && !transcript.isEmpty()) {
+            job.transcript = transcript;
+            job.state = TranscriptionJob.State.POST_PROCESSING;
+        }
+        save(job);
+        jobs.put(job.id, job);
+        AuditLogger.log("job_enqueued", audioFile, patient, "Queued transcription job " + job.id);
+        schedule(job, 0);
+        return job;
+    }
+
+    /**
+     * Cancel an unfinished job: its recognize operation is cancelled on the server and its blob deleted,
+     * while the recording is kept. Returns false if there is no such job.
+     */
+    public static boolean cancel(String jobId) {
+        TranscriptionJob job = jobs.get(jobId);
+        if (job == null) {
+            return false;
+        }
+        job.cancelRequested = true;
+        Future<?> poll = job.pendingPoll;
+        if (poll != null) {
+            // The poll callback reschedules the job, which then completes the cancellation
+            poll.cancel(true);
+            return true;
+        }
+        // A job waiting out its backoff is woken so the cancellation does not wait for the next attempt
+        synchronized (scheduled) {
+            ScheduledFuture<?> pending = scheduled.get(jobId);
+            if (pending != null && pending.getDelay(TimeUnit.MILLISECONDS) > 0 && pending.cancel(false)) {
+                scheduled.remove(jobId);
+                schedule(job, 0);
+            }
+        }
+        return true;
+    }
+
+    private static void loadJobs() {
+        File[] files = Config.JOBS_DIR != null
+                ? Config.JOBS_DIR.listFiles((dir, name) -> name.endsWith(JOB_SUFFIX))
+                : null;
+        if (files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            try {
+                TranscriptionJob job = TranscriptionJob.fromJson(new JSONObject(EncryptionManager.decryptFile(file)));
+                if (job.isTerminal()) {
+                    EncryptionManager.shredFile(file);
+                    continue;
+                }
+                jobs.put(job.id, job);
+                schedule(job, Math.max(0, job.nextAttemptAt - now));
+                Log.i(TAG, "Resuming job " + job.id + " in state " + job.state);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to load job " + file.getName(), e);
+            }
+        }
+    }
+
+    private static void schedule(TranscriptionJob job, long delayMs) {
+        synchronized (scheduled) {
+            if (!scheduled.containsKey(job.id)) {
+                scheduled.put(job.id, executor.schedule(() -> run(job), delayMs, TimeUnit.MILLISECONDS));
+            }
+        }
+    }
+
+    private static void run(TranscriptionJob job) {
+        synchronized (scheduled) {
+            scheduled.remove(job.id);
+        }
+        try {
+            while (!job.isTerminal()) {
+                if (job.cancelRequested) {
+                    cancelled(job);
+                    return;
+                }
+                if (!step(job)) {
+                    // Parked on an operation poll, which reschedules the job when it completes
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            if (job.cancelRequested) {
+                cancelled(job);
+            } else {
+                onAttemptFailed(job, e);
+            }
+        }
+    }
+
+    /**
+     * Run one step of the job; returns false if the worker thread was released while waiting.
+     */
+    private static boolean step(TranscriptionJob job) throws Exception {
+        switch (job.state) {
+            case QUEUED:
+                recognizeWithoutUpload(job);
+                return true;
+            case UPLOADING:
+                upload(job);
+                return true;
+            case RECOGNIZING:
+                pollRecognition(job);
+                return false;
+            case POST_PROCESSING:
+                saveTranscription(job);
+                return true;
+            default:
+                throw new IllegalStateException("Unexpected job state " + job.state);
+        }
+    }
+
+    /**
+     * Short audio goes inline and long audio as parallel chunks; only if chunking fails is it uploaded.
+     */
+    private static void recognizeWithoutUpload(TranscriptionJob job) throws Exception {
+        Consumer<String> status = message -> notifyStatus(job, message);
+        double seconds = GCloudTranscriber.audioDurationSeconds(job.audioFile);
+
+        if (GCloudTranscriber.isInlineDuration(seconds)) {
+            job.transcript = GCloudTranscriber.recognizeInline(job.audioFile, job.patient, status);
+            advance(job, TranscriptionJob.State.POST_PROCESSING);
+            return;
+        }
+        if (Config.CHUNKED_TRANSCRIPTION_ENABLED && seconds > 0) {
+            try {
+                job.transcript = GCloudTranscriber.transcribeChunked(job.audioFile, job.patient, status);
+                advance(job, TranscriptionJob.State.POST_PROCESSING);
+                return;
+            } catch (Exception e) {
+                Log.w(TAG, "Chunked transcription failed for job " + job.id + ", uploading instead", e);
+            }
+        }
+        advance(job, TranscriptionJob.State.UPLOADING);
+    }
+
+    private static void upload(TranscriptionJob job) throws Exception {
+        notifyStatus(job, "Uploading…");
+        boolean resumed = job.blobName != null;
+        if (!resumed) {
+            // Saved first, so a job resumed after process death reuses the blob if its CRC32C still matches
+            job.blobName = GCloudTranscriber.blobNameFor(job.id, job.audioFile);
+            save(job);
+        }
+
+        if (resumed && GCloudTranscriber.isUploaded(job.audioFile, job.blobName)) {
+            Log.i(TAG, "Reusing uploaded blob for job " + job.id);
+        } else {
+            GCloudTranscriber.uploadRecording(job.audioFile, job.blobName, job.patient);
+        }
+        advance(job, TranscriptionJob.State.RECOGNIZING);
+    }
+
+    /**
+     * Start or resume the recognize operation and hand it to the shared poller, freeing this worker.
+     */
+    private static void pollRecognition(TranscriptionJob job) throws Exception {
+        notifyStatus(job, "Transcribing…");
+        if (job.operationName == null) {
+            // Saved at once, so a resumed job waits on this operation instead of starting another
+            job.operationName = GCloudTranscriber.startLongRunning(job.blobName);
+            save(job);
+        } else {
+            Log.i(TAG, "Resuming recognize operation for job " + job.id);
+        }
+
+        ListenableFuture<String> poll = GCloudTranscriber.pollLongRunning(job.operationName,
+                status -> notifyStatus(job, status));
+        job.pendingPoll = poll;
+        if (job.cancelRequested) {
+            poll.cancel(true);
+        }
+        Futures.addCallback(poll, new FutureCallback<String>() {
+            @Override
+            public void onSuccess(String transcript) {
+                job.pendingPoll = null;
+                if (!job.cancelRequested) {
+                    try {
+                        onRecognized(job, transcript);
+                    } catch (Exception e) {
+                        onAttemptFailed(job, e);
+                        return;
+                    }
+                }
+                schedule(job, 0);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                job.pendingPoll = null;
+                if (job.cancelRequested) {
+                    schedule(job, 0);
+                    return;
+                }
+                Exception e = t instanceof Exception ? (Exception) t : new ExecutionException(t);
+                // An operation that failed, stalled or expired will not succeed on resume, so start a new one
+                if (!isTransient(e)) {
+                    job.operationName = null;
+                }
+                onAttemptFailed(job, e);
+            }
+        }, executor);
+    }
+
+    private static void onRecognized(TranscriptionJob job, String transcript) throws Exception {
+        job.transcript = transcript;
+        GCloudTranscriber.reapBlob(job.blobName, job.audioFile, job.patient);
+        job.blobName = null;
+        job.operationName = null;
+        advance(job, TranscriptionJob.State.POST_PROCESSING);
+    }
+
+    private static void saveTranscription(TranscriptionJob job) throws Exception {
+        if (job.transcript == null || job.transcript.trim().isEmpty()) {
+            throw new JobFailedException("Transcription returned empty");
+        }
+        notifyStatus(job, "Saving…");
+        // Fix the UUID first so a repeated attempt overwrites the same transcription
+        if (job.transcriptionUuid == null) {
+            job.transcriptionUuid = UUID.randomUUID().toString();
+            save(job);
+        }
+
+        String text = job.transcript;
+        if (job.templateContent != null) {
+            Map<String, String> context = new HashMap<>();
+            context.put("PATIENT", job.patient);
+            context.put("DOB", job.dob);
+            text = TemplateManager.applyTemplate(job.templateContent, job.transcript, context);
+        }
+        FileManager.saveEncryptedTranscription(job.transcriptionUuid, job.patient, job.dob, text);
+
+        if (job.audioFile.exists() && EncryptionManager.shredFile(job.audioFile)) {
+            Log.i(TAG, "Encrypted recording shredded: " + job.audioFile.getName());
+        }
+        File speechIndex = SpeechSegmentIndex.sidecarFor(job.audioFile);
+        if (speechIndex.exists()) {
+            EncryptionManager.shredFile(speechIndex);
+        }
+
+        job.state = TranscriptionJob.State.DONE;
+        job.transcript = null;
+        finish(job);
+        AuditLogger.log("job_done", job.audioFile, job.patient, "Transcription job " + job.id + " completed");
+    }
+
+    private static void onAttemptFailed(TranscriptionJob job, Exception e) {
+        job.attempts++;
+        job.error = e instanceof JobFailedException ? e.getMessage() : e.getClass().getSimpleName() + ": " + e.getMessage();
+
+        boolean permanent = e instanceof JobFailedException || e instanceof FileNotFoundException;
+        if (permanent || job.attempts >= Config.JOB_MAX_ATTEMPTS) {
+            Log.e(TAG, "Job " + job.id + " failed in state " + job.state + " after " + job.attempts + " attempts", e);
+            fail(job);
+            return;
+        }
+
+        long delay = Backoff.jittered(job.attempts, Config.JOB_BACKOFF_BASE_MS, Config.JOB_BACKOFF_MAX_MS);
+        job.nextAttemptAt = System.currentTimeMillis() + delay;
+        Log.w(TAG, "Job " + job.id + " attempt " + job.attempts + " failed in state " + job.state
+                + ", retrying in " + delay + "ms", e);
+        try {
+            save(job);
+        } catch (Exception saveError) {
+            Log.e(TAG, "Failed to persist job " + job.id, saveError);
+        }
+        notifyStatus(job, "Transcription failed, retrying in " + TimeUnit.MILLISECONDS.toSeconds(delay) + "s");
+        schedule(job, delay);
+    }
+
+    private static void fail(TranscriptionJob job) {
+        deleteUploadedBlob(job);
+        job.state = TranscriptionJob.State.FAILED;
+        job.transcript = null;
+        finish(job);
+        AuditLogger.log("job_failed", job.audioFile, job.patient,
+                "Transcription job " + job.id + " failed: " + job.error);
+    }
+
+    private static void cancelled(TranscriptionJob job) {
+        deleteUploadedBlob(job);
+        job.state = TranscriptionJob.State.CANCELLED;
+        job.error = "Cancelled";
+        job.transcript = null;
+        finish(job);
+        AuditLogger.log("job_cancelled", job.audioFile, job.patient, "Transcription job " + job.id + " cancelled");
+    }
+
+    private static void deleteUploadedBlob(TranscriptionJob job) {
+        if (job.blobName == null) {
+            return;
+        }
+        GCloudTranscriber.reapBlob(job.blobName, job.audioFile, job.patient);
+        job.blobName = null;
+    }
+
+    private static void finish(TranscriptionJob job) {
+        EncryptionManager.shredFile(jobFile(job.id));
+        jobs.remove(job.id);
+        Listener current = listener;
+        if (current != null) {
+            current.onJobFinished(job);
+        }
+    }
+
+    private static void advance(TranscriptionJob job, TranscriptionJob.State state) throws Exception {
+        job.state = state;
+        save(job);
+    }
+
+    private static void save(TranscriptionJob job) throws Exception {
+        EncryptionManager.encryptToFile(job.toJson().toString(), jobFile(job.id));
+    }
+
+    private static File jobFile(String id) {
+        return new File(Config.JOBS_DIR, id + JOB_SUFFIX);
+    }
+
+    /**
+     * Check whether a failure is a network or service hiccup rather than a result of the request itself.
+     */
+    private static boolean isTransient(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof ApiException) {
+                return ((ApiException) t).isRetryable();
+            }
+            if (t instanceof IOException && !(t instanceof FileNotFoundException)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void notifyStatus(TranscriptionJob job, String status) {
+        Listener current = listener;
+        if (current != null) {
+            current.onJobStatus(job, status);
+        }
+    }
+}
@@ -11,6 +11,7 @@ import java.util.concurrent.Executor;
 
 /**
  * Biometric authentication helper for unlocking encryption keys.
+ * A successful authentication starts a {@link KeySession}.
  */
 public class BiometricAuthHelper {
 
@@ -49,6 +50,15 @@ public class BiometricAuthHelper {
             public void onAuthenticationSucceeded(@NonNull BiometricPrompt.AuthenticationResult result) {
                 super.onAuthenticationSucceeded(result);
                 Log.i(TAG, "Authentication succeeded");
+                try {
+                    KeySession.start();
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to unlock encryption keys", e);
+                    if (callback != null) {
+                        callback.onAuthFailure("Failed to unlock encryption keys: " + e.getMessage());
+                    }
+                    return;
+                }
                 if (callback != null) {
                     callback.onAuthSuccess();
                 }
@@ -0,0 +1,437 @@
+package com.transcriber.security;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Append-only file of independently sealed AES-GCM frames.
+ *
+ * Layout: a magic header followed by frames of [4-byte big-endian length][sealed bytes]. Version 2 and 3 logs
+ * carry a per-file data key wrapped by the Keystore master key after the magic ([2-byte length][wrapped key])
+ * and seal each frame as [12-byte IV][ciphertext + tag] with that key in software. Version 3 logs also bind the
+ * frame's position in the file into its tag, so dropped or reordered frames fail to decrypt. Version 1 logs
+ * sealed every frame with {@link EncryptionManager#encryptBytes(byte[])}; versions 1 and 2 remain readable and
+ * appendable, and new logs are always created as version 3.
+ * Appending a frame never touches existing frames, so the cost of a write is independent of file size.
+ */
+public class EncryptedFrameLog {
+
+    private static final String TAG = "EncryptedFrameLog";
+    private static final byte[] MAGIC_V1 = {'T', 'F', 'L', '1'};
+    private static final byte[] MAGIC_V2 = {'T', 'F', 'L', '2'};
+    private static final byte[] MAGIC_V3 = {'T', 'F', 'L', '3'};
+    private static final int VERSION_SHARED_KEY = 1;
+    private static final int VERSION_DATA_KEY = 2;
+    private static final int VERSION_INDEXED = 3;
+    private static final int MAGIC_LENGTH = 4;
+    private static final int LENGTH_PREFIX_SIZE = 4;
+    private static final int KEY_LENGTH_PREFIX_SIZE = 2;
+    private static final int INDEX_SIZE = 8;
+    private static final int MAX_WRAPPED_KEY_LENGTH = 1024;
+    private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int IV_LENGTH = 12;
+    private static final int GCM_TAG_LENGTH = 128;
+    private static final String DATA_KEY_ALGORITHM = "AES";
+    private static final SecureRandom secureRandom = new SecureRandom();
+
+    private EncryptedFrameLog() {
+        // Utility class - prevent instantiation
+    }
+
+    /**
+     * Callback receiving each decrypted frame in file order.
+     */
+    public interface FrameVisitor {
+        void onFrame(byte[] plaintext) throws Exception;
+    }
+
+    /**
+     * Parsed log header: the format version and the wrapped data key, null for version 1.
+     */
+    private static final class Header {
+        final int version;
+        final byte[] wrappedKey;
+
+        Header(int version, byte[] wrappedKey) {
+            this.version = version;
+            this.wrappedKey = wrappedKey;
+        }
+    }
+
+    /**
+     * Check whether a file starts with a frame log header.
+     */
+    public static boolean isFrameLog(File file) throws IOException {
+        if (file == null || !file.exists() || file.length() < MAGIC_LENGTH) {
+            return false;
+        }
+        byte[] magic = new byte[MAGIC_LENGTH];
+        try (FileInputStream fis = new FileInputStream(file)) {
+            if (fis.read(magic) != magic.length) {
+                return false;
+            }
+        }
+        return versionOf(magic) != 0;
+    }
+
+    /**
+     * Seal one frame and append it to the log, creating the file with a fresh data key if needed.
+     * Callers appending repeatedly to the same log should keep a {@link Writer} instead.
+     */
+    public static void append(File file, byte[] plaintext) throws Exception {
+        try (Writer writer = new Writer(file)) {
+            writer.append(plaintext);
+        }
+    }
+
+    /**
+     * Appender that keeps the unwrapped data key of its log between appends, so only the first append (or
+     * the first after the file was replaced) goes to the Keystore. Each append still checks the wrapped key
+     * in the header, so a log that was shredded, rotated or replaced by a compaction is picked up correctly.
+     * The key is zeroed on close.
+     */
+    public static final class Writer implements Closeable {
+        private final File file;
+        private byte[] wrappedKey;
+        private byte[] rawKey;
+        // Index of the next frame and the file length it was counted at; recounted if the file changed
+        private long nextIndex;
+        private long expectedLength = -1;
+
+        public Writer(File file) {
+            this.file = file;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Seal one frame and append it, creating the file with a fresh data key if needed.
+         */
+        public synchronized void append(byte[] plaintext) throws Exception {
+            byte[] prefix;
+            byte[] sealed;
+            long length = file.exists() ? file.length() : 0;
+            if (length == 0) {
+                forgetKey();
+                SecretKey dataKey = EncryptionManager.generateDataKey();
+                byte[] wrapped = EncryptionManager.wrapDataKey(dataKey);
+                rememberKey(wrapped, dataKey.getEncoded());
+                prefix = newHeader(wrapped);
+                nextIndex = 0;
+                sealed = seal(dataKey, plaintext, indexAad(nextIndex));
+            } else {
+                Header header;
+                try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                    header = readHeader(in, file);
+                }
+                prefix = new byte[0];
+                if (header.version == VERSION_SHARED_KEY) {
+                    sealed = EncryptionManager.encryptBytes(plaintext);
+                } else {
+                    if (!Arrays.equals(header.wrappedKey, wrappedKey)) {
+                        forgetKey();
+                        rememberKey(header.wrappedKey,
+                                EncryptionManager.unwrapDataKey(header.wrappedKey).getEncoded());
+                    }
+                    byte[] aad = null;
+                    if (header.version == VERSION_INDEXED) {
+                        if (length != expectedLength) {
+                            nextIndex = countFrames(file);
+                        }
+                        aad = indexAad(nextIndex);
+                    }
+                    sealed = seal(new SecretKeySpec(rawKey, DATA_KEY_ALGORITHM), plaintext, aad);
+                }
+            }
+
+            // Assemble the whole frame first so it reaches the file in a single write
+            byte[] frame = new byte[prefix.length + LENGTH_PREFIX_SIZE + sealed.length];
+            System.arraycopy(prefix, 0, frame, 0, prefix.length);
+            writeInt(frame, prefix.length, sealed.length);
+            System.arraycopy(sealed, 0, frame, prefix.length + LENGTH_PREFIX_SIZE, sealed.length);
+
+            try (FileOutputStream fos = new FileOutputStream(file, true)) {
+                fos.write(frame);
+            }
+            nextIndex++;
+            expectedLength = length + frame.length;
+        }
+
+        @Override
+        public synchronized void close() {
+            forgetKey();
+        }
+
+        private void rememberKey(byte[] wrapped, byte[] raw) {
+            wrappedKey = wrapped;
+            rawKey = raw;
+        }
+
+        // Wipe the cached data key from memory
+        private void forgetKey() {
+            if (rawKey != null) {
+                Arrays.fill(rawKey, (byte) 0);
+            }
+            rawKey = null;
+            wrappedKey = null;
+            expectedLength = -1;
+        }
+    }
+
+    /**
+     * Stream every frame of the log to the visitor and return the number of frames read.
+     * A version 3 log whose frames were dropped or reordered fails with an AEADBadTagException.
+     */
+    public static int readFrames(File file, FrameVisitor visitor) throws Exception {
+        if (file == null || !file.exists() || file.length() == 0) {
+            return 0;
+        }
+
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE))) {
+            Header header = readHeader(in, file);
+            SecretKey dataKey = header.wrappedKey != null
+                    ? EncryptionManager.unwrapDataKey(header.wrappedKey) : null;
+            boolean indexed = header.version == VERSION_INDEXED;
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_FRAME_LENGTH) {
+                    if (indexed) {
+                        throw new IOException("Corrupt frame length in " + file.getName() + " at frame " + count);
+                    }
+                    Log.w(TAG, "Corrupt frame length in " + file.getName() + ", stopping at frame " + count);
+                    break;
+                }
+                byte[] sealed = new byte[length];
+                try {
+                    in.readFully(sealed);
+                } catch (EOFException e) {
+                    Log.w(TAG, "Truncated final frame in " + file.getName() + ", ignoring");
+                    break;
+                }
+                visitor.onFrame(dataKey != null
+                        ? open(dataKey, sealed, indexed ? indexAad(count) : null)
+                        : EncryptionManager.decryptBytes(sealed));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Truncate a torn frame left at the end of the log by an interrupted append.
+     * Only the header and length prefixes are read, so this does not decrypt anything.
+     */
+    public static void recover(File file) throws IOException {
+        if (file == null || !file.exists() || (file.length() >= MAGIC_LENGTH && !isFrameLog(file))) {
+            return;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long fileLength = raf.length();
+            long position = headerLength(raf);
+            if (position < 0 || position > fileLength) {
+                Log.w(TAG, "Dropping incomplete header of " + file.getName());
+                raf.setLength(0);
+                return;
+            }
+            position = skipFrames(raf, position, null);
+            if (position < fileLength) {
+                Log.w(TAG, "Dropping " + (fileLength - position) + " torn bytes from " + file.getName());
+                raf.setLength(position);
+            }
+        }
+    }
+
+    /**
+     * Overwrite the wrapped data key in the header with random bytes and return the key it held,
+     * or null if the log has no per-file key.
+     */
+    static byte[] destroyWrappedKey(File file) throws IOException {
+        Header header;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            header = readHeader(in, file);
+        }
+        if (header.wrappedKey == null) {
+            return null;
+        }
+        byte[] noise = new byte[header.wrappedKey.length];
+        secureRandom.nextBytes(noise);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(MAGIC_LENGTH + KEY_LENGTH_PREFIX_SIZE);
+            raf.write(noise);
+            raf.getFD().sync();
+        }
+        return header.wrappedKey;
+    }
+
+    /**
+     * Number of whole frames in the log, read from the length prefixes alone.
+     */
+    private static long countFrames(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long position = headerLength(raf);
+            if (position < 0) {
+                throw new IOException("Incomplete header in frame log: " + file.getName());
+            }
+            long[] count = new long[1];
+            skipFrames(raf, position, count);
+            return count[0];
+        }
+    }
+
+    /**
+     * Walk the length prefixes from the first frame and return the end of the last whole frame,
+     * adding the number of frames passed to count[0] if count is not null.
+     */
+    private static long skipFrames(RandomAccessFile raf, long position, long[] count) throws IOException {
+        long fileLength = raf.length();
+        while (position + LENGTH_PREFIX_SIZE <= fileLength) {
+            raf.seek(position);
+            int length = raf.readInt();
+            long next = position + LENGTH_PREFIX_SIZE + length;
+            if (length <= 0 || length > MAX_FRAME_LENGTH || next > fileLength) {
+                break;
+            }
+            position = next;
+            if (count != null) {
+                count[0]++;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Length of the header at the start of the file, or -1 if it is incomplete.
+     */
+    private static long headerLength(RandomAccessFile raf) throws IOException {
+        if (raf.length() < MAGIC_LENGTH) {
+            return -1;
+        }
+        byte[] magic = new byte[MAGIC_LENGTH];
+        raf.seek(0);
+        raf.readFully(magic);
+        if (versionOf(magic) == VERSION_SHARED_KEY) {
+            return MAGIC_LENGTH;
+        }
+        if (raf.length() < MAGIC_LENGTH + KEY_LENGTH_PREFIX_SIZE) {
+            return -1;
+        }
+        return MAGIC_LENGTH + KEY_LENGTH_PREFIX_SIZE + raf.readUnsignedShort();
+    }
+
+    private static byte[] newHeader(byte[] wrappedKey) {
+        byte[] header = new byte[MAGIC_LENGTH + KEY_LENGTH_PREFIX_SIZE + wrappedKey.length];
+        System.arraycopy(MAGIC_V3, 0, header, 0, MAGIC_LENGTH);
+        header[MAGIC_LENGTH] = (byte) (wrappedKey.length >>> 8);
+        header[MAGIC_LENGTH + 1] = (byte) wrappedKey.length;
+        System.arraycopy(wrappedKey, 0, header, MAGIC_LENGTH + KEY_LENGTH_PREFIX_SIZE, wrappedKey.length);
+        return header;
+    }
+
+    /**
+     * Read the header without unwrapping its data key.
+     */
+    private static Header readHeader(DataInputStream in, File file) throws IOException {
+        byte[] magic = new byte[MAGIC_LENGTH];
+        in.readFully(magic);
+        int version = versionOf(magic);
+        if (version == 0) {
+            throw new IOException("Not a frame log: " + file.getName());
+        }
+        if (version == VERSION_SHARED_KEY) {
+            return new Header(version, null);
+        }
+        int wrappedKeyLength = in.readUnsignedShort();
+        if (wrappedKeyLength == 0 || wrappedKeyLength > MAX_WRAPPED_KEY_LENGTH) {
+            throw new IOException("Invalid wrapped key in frame log: " + file.getName());
+        }
+        byte[] wrappedKey = new byte[wrappedKeyLength];
+        in.readFully(wrappedKey);
+        return new Header(version, wrappedKey);
+    }
+
+    /**
+     * Format version named by a magic, or 0 if it is not a frame log magic.
+     */
+    private static int versionOf(byte[] magic) {
+        if (Arrays.equals(magic, MAGIC_V1)) {
+            return VERSION_SHARED_KEY;
+        }
+        if (Arrays.equals(magic, MAGIC_V2)) {
+            return VERSION_DATA_KEY;
+        }
+        if (Arrays.equals(magic, MAGIC_V3)) {
+            return VERSION_INDEXED;
+        }
+        return 0;
+    }
+
+    private static byte[] indexAad(long index) {
+        byte[] aad = new byte[INDEX_SIZE];
+        for (int i = INDEX_SIZE - 1; i >= 0; i--) {
+            aad[i] = (byte) index;
+            index >>>= 8;
+        }
+        return aad;
+    }
+
+    private static byte[] seal(SecretKey dataKey, byte[] plaintext, byte[] aad) throws Exception {
+        byte[] iv = new byte[IV_LENGTH];
+        secureRandom.nextBytes(iv);
+        Cipher cipher = EncryptionManager.gcmCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, dataKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+        if (aad != null) {
+            cipher.updateAAD(aad);
+        }
+        byte[] ciphertext = cipher.doFinal(plaintext);
+
+        byte[] sealed = new byte[IV_LENGTH + ciphertext.length];
+        System.arraycopy(iv, 0, sealed, 0, IV_LENGTH);
+        System.arraycopy(ciphertext, 0, sealed, IV_LENGTH, ciphertext.length);
+        return sealed;
+    }
+
+    private static byte[] open(SecretKey dataKey, byte[] sealed, byte[] aad) throws Exception {
+        if (sealed.length < IV_LENGTH) {
+            throw new IOException("Frame too short");
+        }
+        Cipher cipher = EncryptionManager.gcmCipher();
+        cipher.init(Cipher.DECRYPT_MODE, dataKey, new GCMParameterSpec(GCM_TAG_LENGTH, sealed, 0, IV_LENGTH));
+        if (aad != null) {
+            cipher.updateAAD(aad);
+        }
+        return cipher.doFinal(sealed, IV_LENGTH, sealed.length - IV_LENGTH);
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
@@ -5,17 +5,30 @@ import android.security.keystore.KeyProperties;
 import android.util.Log;
 import com.transcriber.config.Config;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 /**
  * AES-256-GCM encryption using Android Keystore for PHI protection.
@@ -27,6 +40,21 @@ public class EncryptionManager {
     private static final String TRANSFORMATION = "AES/GCM/NoPadding";
     private static final int GCM_TAG_LENGTH = 128;
     private static final int IV_LENGTH = 12;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final String DATA_KEY_ALGORITHM = "AES";
+    private static final int DATA_KEY_SIZE_BITS = 256;
+    private static final SecureRandom secureRandom = new SecureRandom();
+
+    // Unwraps the data key of a segmented file from its header
+    private static final SegmentedAead.KeyResolver KEY_RESOLVER = header -> {
+        try {
+            return unwrapDataKey(header.wrappedKey);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to resolve file key", e);
+        }
+    };
 
     private EncryptionManager() {
         // Utility class - prevent instantiation
@@ -34,8 +62,15 @@ public class EncryptionManager {
 
     /**
      * Generate or retrieve the AES encryption key from Android Keystore.
+     * While a {@link KeySession} is active the resolved key is reused without a Keystore lookup; without one
+     * it is loaded from the Keystore, as the key does not require user authentication.
      */
     public static SecretKey getOrCreateKey() throws Exception {
+        SecretKey sessionKey = KeySession.masterKey();
+        if (sessionKey != null) {
+            return sessionKey;
+        }
+
         KeyStore keyStore = KeyStore.getInstance(KEYSTORE_PROVIDER);
         keyStore.load(null);
 
@@ -58,6 +93,214 @@ public class EncryptionManager {
         return keyGen.generateKey();
     }
 
+    /**
+     * Generate a random per-file data key for bulk encryption in software.
+     */
+    public static SecretKey generateDataKey() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance(DATA_KEY_ALGORITHM);
+        keyGen.init(DATA_KEY_SIZE_BITS, secureRandom);
+        return keyGen.generateKey();
+    }
+
+    /**
+     * Wrap a data key with the Keystore master key for storage in a file header.
+     */
+    public static byte[] wrapDataKey(SecretKey dataKey) throws Exception {
+        byte[] raw = dataKey.getEncoded();
+        try {
+            byte[] wrapped = encryptBytes(raw);
+            KeySession.cacheDataKey(wrapped, raw);
+            return wrapped;
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    /**
+     * Unwrap a data key read from a file header, reusing the session's copy when it is cached.
+     */
+    public static SecretKey unwrapDataKey(byte[] wrappedKey) throws Exception {
+        SecretKey cached = KeySession.cachedDataKey(wrappedKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        byte[] raw = decryptBytes(wrappedKey);
+        try {
+            KeySession.cacheDataKey(wrappedKey, raw);
+            return new SecretKeySpec(raw, DATA_KEY_ALGORITHM);
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    /**
+     * Wrap an output stream so everything written to it is encrypted in fixed-size segments
+     * under a fresh data key that is stored, wrapped, in the header.
+     */
+    public static SegmentedAeadOutputStream newEncryptingStream(OutputStream out) throws Exception {
+        SecretKey dataKey = generateDataKey();
+        return new SegmentedAeadOutputStream(out, dataKey, wrapDataKey(dataKey), Config.ENCRYPTION_SEGMENT_SIZE);
+    }
+
+    /**
+     * Like {@link #newEncryptingStream(OutputStream)}, but the first segment stays patchable until the
+     * stream is finished, for container headers whose sizes are only known at the end.
+     */
+    public static SegmentedAeadOutputStream newPatchableEncryptingStream(FileOutputStream out) throws Exception {
+        SecretKey dataKey = generateDataKey();
+        return new SegmentedAeadOutputStream(out, dataKey, wrapDataKey(dataKey), Config.ENCRYPTION_SEGMENT_SIZE, true);
+    }
+
+    /**
+     * Like {@link #newPatchableEncryptingStream(FileOutputStream)}, with a sealed backup of the held first
+     * segment kept in firstSegmentBackup until the stream is finished.
+     */
+    public static SegmentedAeadOutputStream newPatchableEncryptingStream(FileOutputStream out, File firstSegmentBackup)
+            throws Exception {
+        SecretKey dataKey = generateDataKey();
+        return new SegmentedAeadOutputStream(out, dataKey, wrapDataKey(dataKey), Config.ENCRYPTION_SEGMENT_SIZE,
+                firstSegmentBackup);
+    }
+
+    /**
+     * Read what a patchable stream whose writer was interrupted left behind: the first segment from its
+     * backup, then every following segment that authenticates. The unsealed tail is lost.
+     */
+    public static InputStream openInterrupted(File encrypted, File firstSegmentBackup) throws Exception {
+        byte[] firstSegment;
+        byte[] backupKey;
+        try (SegmentedAeadInputStream backup = new SegmentedAeadInputStream(new FileInputStream(firstSegmentBackup),
+                KEY_RESOLVER)) {
+            byte[] segment = new byte[backup.header().segmentSize];
+            firstSegment = Arrays.copyOf(segment, SegmentedAead.readFully(backup, segment, 0, segment.length));
+            Arrays.fill(segment, (byte) 0);
+            backupKey = backup.header().wrappedKey;
+        }
+        FileInputStream in = new FileInputStream(encrypted);
+        try {
+            SegmentedAeadInputStream recovered = new SegmentedAeadInputStream(new BufferedInputStream(in),
+                    KEY_RESOLVER, firstSegment);
+            if (!Arrays.equals(backupKey, recovered.header().wrappedKey)) {
+                throw new IOException("First segment backup belongs to another file");
+            }
+            return recovered;
+        } catch (Exception e) {
+            in.close();
+            Arrays.fill(firstSegment, (byte) 0);
+            throw e;
+        }
+    }
+
+    /**
+     * Wrap an input stream of segmented ciphertext so reads return authenticated plaintext.
+     */
+    public static InputStream newDecryptingStream(InputStream in) throws Exception {
+        return new SegmentedAeadInputStream(in, KEY_RESOLVER);
+    }
+
+    /**
+     * Encrypt from the source channel's position to the destination channel in constant memory.
+     * Both channels are left open.
+     */
+    public static void encryptChannel(FileChannel source, FileChannel destination) throws Exception {
+        SegmentedAeadOutputStream out = newEncryptingStream(Channels.newOutputStream(destination));
+        copy(Channels.newInputStream(source), out);
+        out.finish();
+    }
+
+    /**
+     * Decrypt segmented ciphertext from the source channel's position to the destination channel
+     * in constant memory. Both channels are left open.
+     */
+    public static void decryptChannel(FileChannel source, FileChannel destination) throws Exception {
+        InputStream in = newDecryptingStream(Channels.newInputStream(source));
+        copy(in, Channels.newOutputStream(destination));
+    }
+
+    /**
+     * Open a segmented encrypted file for random-access reads of its plaintext.
+     * Only the segments covering the requested bytes are read and decrypted.
+     */
+    public static SeekableByteChannel openSeekable(File encrypted) throws Exception {
+        if (!isSegmentedFile(encrypted)) {
+            throw new IOException("Not a segmented encrypted file: " + encrypted);
+        }
+        RandomAccessFile file = new RandomAccessFile(encrypted, "r");
+        try {
+            return new SegmentedAeadSeekableChannel(file, KEY_RESOLVER);
+        } catch (Exception e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Decrypt up to length plaintext bytes starting at offset, e.g. a WAV header or the tail of a recording.
+     */
+    public static byte[] readRange(File encrypted, long offset, int length) throws Exception {
+        try (SeekableByteChannel channel = openSeekable(encrypted)) {
+            long available = Math.max(0, channel.size() - offset);
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, available));
+            channel.position(offset);
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read > 0 && buffer.hasRemaining());
+            return buffer.array();
+        }
+    }
+
+    /**
+     * Crypto-shred a file: destroy the wrapped data key in its header, then delete it.
+     * Without the wrapped key no copy of the ciphertext (backups, flash remnants) can be decrypted.
+     * Covers segmented files and frame logs; files in formats without a per-file key are only deleted.
+     * @return true if the file no longer exists.
+     */
+    public static boolean shredFile(File file) {
+        if (file == null || !file.exists()) {
+            return true;
+        }
+
+        try {
+            if (isSegmentedFile(file)) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    SegmentedAead.Header header = SegmentedAead.readHeader(Channels.newInputStream(raf.getChannel()));
+                    byte[] noise = new byte[header.wrappedKey.length];
+                    secureRandom.nextBytes(noise);
+                    raf.seek(SegmentedAead.WRAPPED_KEY_OFFSET);
+                    raf.write(noise);
+                    raf.getFD().sync();
+                    KeySession.forgetDataKey(header.wrappedKey);
+                }
+            } else if (EncryptedFrameLog.isFrameLog(file)) {
+                byte[] wrappedKey = EncryptedFrameLog.destroyWrappedKey(file);
+                if (wrappedKey != null) {
+                    KeySession.forgetDataKey(wrappedKey);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to destroy wrapped key of " + file.getName(), e);
+        }
+        return file.delete() || !file.exists();
+    }
+
+    /**
+     * Check whether a file uses the segmented streaming format rather than a single AES-GCM blob.
+     */
+    public static boolean isSegmentedFile(File file) throws IOException {
+        if (file == null || file.length() < SegmentedAead.FIXED_HEADER_LENGTH) {
+            return false;
+        }
+        byte[] magic = new byte[SegmentedAead.MAGIC.length];
+        try (FileInputStream fis = new FileInputStream(file)) {
+            if (fis.read(magic) != magic.length) {
+                return false;
+            }
+        }
+        return SegmentedAead.hasMagic(magic);
+    }
+
     /**
      * Encrypt a string and return encrypted bytes.
      */
@@ -77,7 +320,7 @@ public class EncryptionManager {
         }
 
         SecretKey key = getOrCreateKey();
-        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        Cipher cipher = gcmCipher();
         cipher.init(Cipher.ENCRYPT_MODE, key);
 
         byte[] iv = cipher.getIV();
@@ -119,13 +362,68 @@ public class EncryptionManager {
         System.arraycopy(encryptedData, 1 + ivLength, ciphertext, 0, ciphertext.length);
 
         SecretKey key = getOrCreateKey();
-        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        Cipher cipher = gcmCipher();
         GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
         cipher.init(Cipher.DECRYPT_MODE, key, spec);
 
         return cipher.doFinal(ciphertext);
     }
 
+    /**
+     * The session's cipher for this thread, or a new one when no session is active.
+     */
+    static Cipher gcmCipher() throws Exception {
+        Cipher cipher = KeySession.cipher();
+        return cipher != null ? cipher : Cipher.getInstance(TRANSFORMATION);
+    }
+
+    /**
+     * Encrypt text straight into the target file without a plaintext temp file.
+     */
+    public static void encryptToFile(CharSequence plaintext, File encrypted) throws Exception {
+        if (plaintext == null) {
+            throw new IllegalArgumentException("Plaintext cannot be null");
+        }
+        writeEncrypted(encrypted, out -> {
+            // The writer encodes in small chunks, so no full-size byte copy of the text is made
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            writer.append(plaintext);
+            writer.flush();
+        });
+    }
+
+    /**
+     * Encrypt the remaining bytes of a buffer into the target file; the buffer's position is not changed.
+     */
+    public static void encryptToFile(ByteBuffer plaintext, File encrypted) throws Exception {
+        if (plaintext == null) {
+            throw new IllegalArgumentException("Plaintext cannot be null");
+        }
+        ByteBuffer source = plaintext.duplicate();
+        writeEncrypted(encrypted, out -> {
+            if (source.hasArray()) {
+                out.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+                return;
+            }
+            byte[] chunk = new byte[Math.min(STREAM_BUFFER_SIZE, source.remaining())];
+            while (source.hasRemaining()) {
+                int length = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        });
+    }
+
+    /**
+     * Encrypt everything read from a stream into the target file. The stream is not closed.
+     */
+    public static void encryptToFile(InputStream plaintext, File encrypted) throws Exception {
+        if (plaintext == null) {
+            throw new IllegalArgumentException("Plaintext cannot be null");
+        }
+        writeEncrypted(encrypted, out -> copy(plaintext, out));
+    }
+
     /**
      * Encrypt a file using AES-256-GCM (for text files).
      */
@@ -134,26 +432,23 @@ public class EncryptionManager {
             throw new IOException("Plaintext file does not exist: " + plaintext);
         }
 
-        byte[] fileData = readFile(plaintext);
-        String content = new String(fileData, StandardCharsets.UTF_8);
-        byte[] encryptedData = encryptString(content);
-
-        writeFile(encrypted, encryptedData);
+        try (InputStream in = new FileInputStream(plaintext)) {
+            encryptToFile(in, encrypted);
+        }
         Log.i(TAG, "Encrypted file: " + encrypted.getAbsolutePath());
     }
 
     /**
-     * Encrypt a binary file using AES-256-GCM (for audio files).
+     * Encrypt a binary file using segmented AES-256-GCM in constant memory (for audio files).
      */
     public static void encryptBinaryFile(File plaintext, File encrypted) throws Exception {
         if (plaintext == null || !plaintext.exists()) {
             throw new IOException("Plaintext file does not exist: " + plaintext);
         }
 
-        byte[] fileData = readFile(plaintext);
-        byte[] encryptedData = encryptBytes(fileData);
-
-        writeFile(encrypted, encryptedData);
+        try (InputStream in = new FileInputStream(plaintext)) {
+            encryptToFile(in, encrypted);
+        }
         Log.i(TAG, "Encrypted binary file: " + encrypted.getAbsolutePath());
     }
 
@@ -165,8 +460,18 @@ public class EncryptionManager {
             throw new IOException("Encrypted file does not exist: " + encrypted);
         }
 
-        byte[] encryptedData = readFile(encrypted);
-        String plaintext = decryptString(encryptedData);
+        String plaintext;
+        if (isSegmentedFile(encrypted)) {
+            try (InputStream in = newDecryptingStream(
+                    new BufferedInputStream(new FileInputStream(encrypted), STREAM_BUFFER_SIZE))) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.min(
+                        encrypted.length(), Integer.MAX_VALUE));
+                copy(in, buffer);
+                plaintext = buffer.toString(StandardCharsets.UTF_8.name());
+            }
+        } else {
+            plaintext = decryptString(readFile(encrypted));
+        }
         Log.i(TAG, "Decrypted file: " + encrypted.getAbsolutePath());
         return plaintext;
     }
@@ -189,15 +494,64 @@ public class EncryptionManager {
             throw new IOException("Encrypted file does not exist: " + encrypted);
         }
 
-        byte[] encryptedData = readFile(encrypted);
-        byte[] plaintextData = decryptBytes(encryptedData);
+        if (isSegmentedFile(encrypted)) {
+            try (InputStream in = newDecryptingStream(
+                         new BufferedInputStream(new FileInputStream(encrypted), STREAM_BUFFER_SIZE));
+                 OutputStream out = new FileOutputStream(plaintext)) {
+                copy(in, out);
+            }
+        } else {
+            byte[] encryptedData = readFile(encrypted);
+            byte[] plaintextData = decryptBytes(encryptedData);
 
-        try (FileOutputStream fos = new FileOutputStream(plaintext)) {
-            fos.write(plaintextData);
+            try (FileOutputStream fos = new FileOutputStream(plaintext)) {
+                fos.write(plaintextData);
+            }
         }
         Log.i(TAG, "Decrypted binary file: " + plaintext.getAbsolutePath());
     }
 
+    /**
+     * Writes plaintext into an encrypting stream.
+     */
+    private interface PlaintextSource {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Encrypt into a temp file next to the target, sync it, then rename it over the target
+     * so readers see either the old file or the complete new one.
+     */
+    private static void writeEncrypted(File encrypted, PlaintextSource source) throws Exception {
+        File temp = new File(encrypted.getParentFile(), "." + encrypted.getName() + ".tmp");
+        try {
+            try (FileOutputStream fos = new FileOutputStream(temp)) {
+                SegmentedAeadOutputStream out = newEncryptingStream(fos);
+                source.writeTo(out);
+                out.finish();
+                fos.getFD().sync();
+            }
+            if (!temp.renameTo(encrypted)) {
+                throw new IOException("Failed to replace " + encrypted.getName());
+            }
+        } finally {
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Copy a stream through a fixed-size buffer.
+     */
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
     /**
      * Read entire file into byte array.
      */
@@ -211,13 +565,4 @@ public class EncryptionManager {
         }
         return data;
     }
-
-    /**
-     * Write byte array to file.
-     */
-    private static void writeFile(File file, byte[] data) throws IOException {
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-            fos.write(data);
-        }
-    }
 }
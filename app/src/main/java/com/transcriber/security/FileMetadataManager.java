@@ -2,14 +2,9 @@ package com.transcriber.security;
 
 import android.util.Log;
 import com.transcriber.config.Config;
-import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
 
@@ -22,112 +17,116 @@ public class FileMetadataManager {
     private static final SimpleDateFormat DISPLAY_DATE_FORMATTER = new SimpleDateFormat("MM/dd/yyyy", Locale.getDefault());
     private static final SimpleDateFormat DISPLAY_TIME_FORMATTER = new SimpleDateFormat("h:mm a", Locale.getDefault());
 
+    private static volatile MetadataStore store;
+
     private FileMetadataManager() {
         // Utility class - prevent instantiation
     }
 
+    /**
+     * Whether a file in the transcriptions directory belongs to the metadata store rather than a transcription.
+     */
+    public static boolean isMetadataFile(String name) {
+        return name.startsWith(Config.METADATA_FILE_PREFIX);
+    }
+
     /**
      * Update metadata for a transcription file.
      */
     public static void updateMetadata(String uuid, String patientName, String dob, long timestamp) throws Exception {
-        Map<String, FileMetadata> allMetadata = loadAllMetadata();
+        store().put(uuid, createMetadata(patientName, dob, timestamp));
+        Log.i(TAG, "Updated metadata for UUID: " + uuid);
+    }
 
+    /**
+     * Build a metadata entry, including its display name.
+     */
+    public static FileMetadata createMetadata(String patientName, String dob, long timestamp) {
         String displayName = formatDisplayName(patientName, dob, timestamp);
-        FileMetadata metadata = new FileMetadata(patientName, dob, timestamp, displayName);
-        allMetadata.put(uuid, metadata);
+        return new FileMetadata(patientName, dob, timestamp, displayName);
+    }
 
-        saveAllMetadata(allMetadata);
-        Log.i(TAG, "Updated metadata for UUID: " + uuid);
+    /**
+     * Begin a metadata transaction; other writers wait until it commits or closes.
+     */
+    public static MetadataStore.Transaction beginTransaction() throws Exception {
+        return store().begin();
     }
 
     /**
      * Get metadata for a specific UUID.
      */
     public static FileMetadata getMetadata(String uuid) throws Exception {
-        Map<String, FileMetadata> allMetadata = loadAllMetadata();
-        return allMetadata.get(uuid);
+        return store().get(uuid);
     }
 
     /**
      * Get all metadata entries.
      */
     public static Map<String, FileMetadata> getAllMetadata() throws Exception {
-        return loadAllMetadata();
+        return store().getAll();
     }
 
     /**
-     * Delete metadata for a specific UUID.
+     * Find transcriptions by patient name prefix, by name and newest first within a name. Pass null to start
+     * and the page's next to continue.
      */
-    public static void deleteMetadata(String uuid) throws Exception {
-        Map<String, FileMetadata> allMetadata = loadAllMetadata();
-        allMetadata.remove(uuid);
-        saveAllMetadata(allMetadata);
-        Log.i(TAG, "Deleted metadata for UUID: " + uuid);
+    public static MetadataIndex.Page findByPatientName(String prefix, MetadataIndex.Position after, int limit) throws Exception {
+        return store().findByNamePrefix(prefix, after, limit);
     }
 
     /**
-     * Load all metadata from encrypted file.
+     * Find transcriptions by DOB (YYYYMMDD), newest first.
      */
-    private static Map<String, FileMetadata> loadAllMetadata() throws Exception {
-        Map<String, FileMetadata> result = new HashMap<>();
-        File metadataFile = new File(Config.TRANSCRIPTIONS_DIR, Config.METADATA_FILENAME);
+    public static MetadataIndex.Page findByDob(String dob, MetadataIndex.Position after, int limit) throws Exception {
+        return store().findByDob(dob, after, limit);
+    }
 
-        if (!metadataFile.exists()) {
-            return result;
-        }
+    /**
+     * Find transcriptions saved between from (inclusive) and to (exclusive), in epoch milliseconds, newest first.
+     */
+    public static MetadataIndex.Page findByDateRange(long from, long to, MetadataIndex.Position after, int limit) throws Exception {
+        return store().findByTimeRange(from, to, after, limit);
+    }
 
-        try {
-            String json = EncryptionManager.decryptFile(metadataFile);
-            JSONObject root = new JSONObject(json);
-
-            Iterator<String> keys = root.keys();
-            while (keys.hasNext()) {
-                String uuid = keys.next();
-                JSONObject obj = root.getJSONObject(uuid);
-                FileMetadata metadata = new FileMetadata(
-                        obj.getString("patientName"),
-                        obj.getString("dob"),
-                        obj.getLong("timestamp"),
-                        obj.getString("displayName")
-                );
-                result.put(uuid, metadata);
-            }
-        } catch (JSONException e) {
-            Log.e(TAG, "Failed to parse metadata JSON", e);
-            throw new Exception("Failed to parse metadata", e);
-        }
+    /**
+     * Delete metadata for a specific UUID.
+     */
+    public static void deleteMetadata(String uuid) throws Exception {
+        store().delete(uuid);
+        Log.i(TAG, "Deleted metadata for UUID: " + uuid);
+    }
 
-        return result;
+    /**
+     * Load all metadata into memory now, so later reads do not wait for decryption. Call off the UI thread.
+     */
+    public static void load() throws Exception {
+        store();
     }
 
     /**
-     * Save all metadata to encrypted file.
+     * Wait until every metadata change made so far is written. Returns false on timeout or write failure.
      */
-    private static void saveAllMetadata(Map<String, FileMetadata> allMetadata) throws Exception {
-        JSONObject root = new JSONObject();
+    public static boolean flush(long timeoutMs) {
+        MetadataStore current = store;
+        return current == null || current.flush(timeoutMs);
+    }
 
-        for (Map.Entry<String, FileMetadata> entry : allMetadata.entrySet()) {
-            JSONObject obj = new JSONObject();
-            FileMetadata metadata = entry.getValue();
-            obj.put("patientName", metadata.patientName);
-            obj.put("dob", metadata.dob);
-            obj.put("timestamp", metadata.timestamp);
-            obj.put("displayName", metadata.displayName);
-            root.put(entry.getKey(), obj);
+    /**
+     * The store for the transcriptions directory, opened on first use.
+     */
+    private static MetadataStore store() throws Exception {
+        MetadataStore current = store;
+        if (current != null) {
+            return current;
         }
-
-        String json = root.toString();
-        File metadataFile = new File(Config.TRANSCRIPTIONS_DIR, Config.METADATA_FILENAME);
-
-        File tempPlaintext = new File(Config.TRANSCRIPTIONS_DIR, ".temp_metadata.json");
-        try {
-            java.io.FileOutputStream fos = new java.io.FileOutputStream(tempPlaintext);
-            fos.write(json.getBytes(java.nio.charset.StandardCharsets.UTF_8));
-            fos.close();
-
-            EncryptionManager.encryptFile(tempPlaintext, metadataFile);
-        } finally {
-            tempPlaintext.delete();
+        synchronized (FileMetadataManager.class) {
+            if (store == null) {
+                MetadataStore opened = new MetadataStore(Config.TRANSCRIPTIONS_DIR);
+                opened.open();
+                store = opened;
+            }
+            return store;
         }
     }
 
@@ -0,0 +1,203 @@
+package com.transcriber.security;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.transcriber.config.Config;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Cache of key material, opened by a successful biometric authentication.
+ *
+ * While a session is active the resolved Keystore master key, unwrapped per-file data keys and per-thread
+ * AES-GCM ciphers are reused instead of going back to the Keystore for every operation. The session
+ * ends after {@link Config#BIOMETRIC_TIMEOUT_SECONDS} or when the app is backgrounded, and its data
+ * keys are zeroized.
+ *
+ * The session is a performance cache and the biometric prompt gates the UI, not the keys: the Keystore
+ * keys do not require user authentication, so encryption keeps working without a session, through the
+ * Keystore on every operation. Background writers (audit log, metadata, blob reaper, job queue) rely on
+ * that after the app is backgrounded.
+ */
+public final class KeySession {
+
+    private static final String TAG = "KeySession";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final String DATA_KEY_ALGORITHM = "AES";
+    private static final int DATA_KEY_CACHE_SIZE = 32;
+
+    private static final Object lock = new Object();
+    private static KeySession current;
+
+    private final SecretKey masterKey;
+    private final long expiresAtMs;
+    private volatile boolean closed = false;
+
+    // Raw unwrapped data keys by wrapped-key bytes, evicting (and zeroizing) the least recently used
+    private final Map<ByteBuffer, byte[]> dataKeys =
+            new LinkedHashMap<ByteBuffer, byte[]>(DATA_KEY_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, byte[]> eldest) {
+                    if (size() > DATA_KEY_CACHE_SIZE) {
+                        Arrays.fill(eldest.getValue(), (byte) 0);
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    // Cipher is not thread-safe, so each thread gets its own instance for the session's lifetime
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES-GCM unavailable", e);
+            }
+        }
+    };
+
+    private KeySession(SecretKey masterKey, long expiresAtMs) {
+        this.masterKey = masterKey;
+        this.expiresAtMs = expiresAtMs;
+    }
+
+    /**
+     * Start a new session after successful authentication, replacing any previous one.
+     */
+    public static void start() throws Exception {
+        end("restarted");
+        SecretKey masterKey = EncryptionManager.getOrCreateKey();
+        long expiresAt = SystemClock.elapsedRealtime() + Config.BIOMETRIC_TIMEOUT_SECONDS * 1000L;
+        synchronized (lock) {
+            current = new KeySession(masterKey, expiresAt);
+        }
+        Log.i(TAG, "Key session started, expires in " + Config.BIOMETRIC_TIMEOUT_SECONDS + "s");
+    }
+
+    /**
+     * End the current session, if any, and zeroize its cached key material.
+     */
+    public static void end(String reason) {
+        KeySession session;
+        synchronized (lock) {
+            session = current;
+            current = null;
+        }
+        if (session != null) {
+            session.close();
+            Log.i(TAG, "Key session ended: " + reason);
+        }
+    }
+
+    /**
+     * Check whether an unexpired session is active.
+     */
+    public static boolean isActive() {
+        return active() != null;
+    }
+
+    /**
+     * Milliseconds until the current session expires, or 0 if none is active.
+     */
+    public static long remainingMillis() {
+        KeySession session = active();
+        return session != null ? Math.max(0, session.expiresAtMs - SystemClock.elapsedRealtime()) : 0;
+    }
+
+    static SecretKey masterKey() {
+        KeySession session = active();
+        return session != null ? session.masterKey : null;
+    }
+
+    /**
+     * This thread's reusable AES-GCM cipher, or null if no session is active.
+     */
+    static Cipher cipher() {
+        KeySession session = active();
+        return session != null ? session.ciphers.get() : null;
+    }
+
+    /**
+     * A fresh key object for a cached data key, or null if it is not cached or no session is active.
+     * Streams keep the returned key for their own lifetime; the session only zeroizes its cached copy.
+     */
+    static SecretKey cachedDataKey(byte[] wrappedKey) {
+        KeySession session = active();
+        if (session == null) {
+            return null;
+        }
+        synchronized (session.dataKeys) {
+            byte[] raw = session.dataKeys.get(ByteBuffer.wrap(wrappedKey));
+            return raw != null ? new SecretKeySpec(raw, DATA_KEY_ALGORITHM) : null;
+        }
+    }
+
+    /**
+     * Cache an unwrapped data key for the session; the raw bytes are copied, so the caller may zero them.
+     */
+    static void cacheDataKey(byte[] wrappedKey, byte[] rawKey) {
+        KeySession session = active();
+        if (session == null) {
+            return;
+        }
+        synchronized (session.dataKeys) {
+            if (session.closed) {
+                return;
+            }
+            byte[] previous = session.dataKeys.put(ByteBuffer.wrap(wrappedKey.clone()), rawKey.clone());
+            if (previous != null) {
+                Arrays.fill(previous, (byte) 0);
+            }
+        }
+    }
+
+    static void forgetDataKey(byte[] wrappedKey) {
+        KeySession session = active();
+        if (session == null) {
+            return;
+        }
+        synchronized (session.dataKeys) {
+            byte[] raw = session.dataKeys.remove(ByteBuffer.wrap(wrappedKey));
+            if (raw != null) {
+                Arrays.fill(raw, (byte) 0);
+            }
+        }
+    }
+
+    private static KeySession active() {
+        KeySession session;
+        synchronized (lock) {
+            session = current;
+        }
+        if (session != null && SystemClock.elapsedRealtime() >= session.expiresAtMs) {
+            synchronized (lock) {
+                if (current == session) {
+                    current = null;
+                }
+            }
+            session.close();
+            Log.i(TAG, "Key session ended: timeout");
+            return null;
+        }
+        return session;
+    }
+
+    private void close() {
+        synchronized (dataKeys) {
+            closed = true;
+            for (byte[] raw : dataKeys.values()) {
+                Arrays.fill(raw, (byte) 0);
+            }
+            dataKeys.clear();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.transcriber.security;
+
+import com.transcriber.security.FileMetadataManager.FileMetadata;
+import com.transcriber.security.MetadataStore.Record;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of metadata records, with readers for the older JSON encodings.
+ *
+ * A frame is a version byte, a varint record count and the records. Each record starts with a flags byte
+ * (put or delete, binary or text key). Canonical lowercase UUID keys take 16 bytes, anything else is a
+ * length-prefixed UTF-8 string. A put follows with the timestamp as a varint and patient name, DOB and
+ * display name as varint-length-prefixed UTF-8, where length 0 means null and n means n - 1 bytes.
+ */
+final class MetadataCodec {
+
+    private static final int VERSION = 1;
+    private static final int FLAG_PUT = 0x01;
+    private static final int FLAG_BINARY_UUID = 0x02;
+    private static final int UUID_LENGTH = 36;
+    private static final int UUID_BYTES = 16;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // Frames written before the binary encoding were JSON arrays
+    private static final byte JSON_ARRAY_START = '[';
+
+    private MetadataCodec() {
+        // Utility class - prevent instantiation
+    }
+
+    static byte[] encode(List<Record> batch) {
+        Writer out = new Writer(16 + batch.size() * 64);
+        out.write(VERSION);
+        out.writeVarint(batch.size());
+        for (Record record : batch) {
+            boolean binaryUuid = isCanonicalUuid(record.uuid);
+            out.write((record.metadata != null ? FLAG_PUT : 0) | (binaryUuid ? FLAG_BINARY_UUID : 0));
+            if (binaryUuid) {
+                out.writeUuid(record.uuid);
+            } else {
+                out.writeString(record.uuid);
+            }
+            if (record.metadata != null) {
+                out.writeVarint(record.metadata.timestamp);
+                out.writeString(record.metadata.patientName);
+                out.writeString(record.metadata.dob);
+                out.writeString(record.metadata.displayName);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    static List<Record> decode(byte[] frame) throws IOException {
+        if (frame.length > 0 && frame[0] == JSON_ARRAY_START) {
+            return decodeJsonFrame(frame);
+        }
+        Reader in = new Reader(frame);
+        int version = in.read();
+        if (version != VERSION) {
+            throw new IOException("Unsupported metadata encoding version " + version);
+        }
+        int count = (int) in.readVarint();
+        List<Record> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int flags = in.read();
+            String uuid = (flags & FLAG_BINARY_UUID) != 0 ? in.readUuid() : in.readString();
+            FileMetadata metadata = null;
+            if ((flags & FLAG_PUT) != 0) {
+                long timestamp = in.readVarint();
+                String patientName = in.readString();
+                String dob = in.readString();
+                String displayName = in.readString();
+                metadata = new FileMetadata(patientName, dob, timestamp, displayName);
+            }
+            records.add(new Record(uuid, metadata));
+        }
+        return records;
+    }
+
+    /**
+     * Read the whole-file JSON object of objects used before the log-structured store.
+     */
+    static Map<String, FileMetadata> decodeLegacyFile(String json) throws JSONException {
+        Map<String, FileMetadata> result = new HashMap<>();
+        JSONObject root = new JSONObject(json);
+        Iterator<String> keys = root.keys();
+        while (keys.hasNext()) {
+            String uuid = keys.next();
+            result.put(uuid, fromJson(root.getJSONObject(uuid)));
+        }
+        return result;
+    }
+
+    /**
+     * Read a log frame written as a JSON array of {op, uuid, ...} records.
+     */
+    private static List<Record> decodeJsonFrame(byte[] frame) throws IOException {
+        try {
+            JSONArray array = new JSONArray(new String(frame, StandardCharsets.UTF_8));
+            List<Record> records = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject obj = array.getJSONObject(i);
+                boolean put = "put".equals(obj.getString("op"));
+                records.add(new Record(obj.getString("uuid"), put ? fromJson(obj) : null));
+            }
+            return records;
+        } catch (JSONException e) {
+            throw new IOException("Malformed JSON metadata frame", e);
+        }
+    }
+
+    private static FileMetadata fromJson(JSONObject obj) throws JSONException {
+        return new FileMetadata(
+                obj.getString("patientName"),
+                obj.getString("dob"),
+                obj.getLong("timestamp"),
+                obj.getString("displayName")
+        );
+    }
+
+    private static boolean isCanonicalUuid(String value) {
+        if (value.length() != UUID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = value.charAt(i);
+            boolean dash = i == 8 || i == 13 || i == 18 || i == 23;
+            if (dash ? c != '-' : hexValue(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Growable output buffer; avoids the synchronization and copies of ByteArrayOutputStream.
+     */
+    private static final class Writer {
+        private byte[] buffer;
+        private int size = 0;
+
+        Writer(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void write(int b) {
+            ensure(1);
+            buffer[size++] = (byte) b;
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1L);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeUuid(String uuid) {
+            ensure(UUID_BYTES);
+            int high = -1;
+            for (int i = 0; i < UUID_LENGTH; i++) {
+                int digit = hexValue(uuid.charAt(i));
+                if (digit < 0) {
+                    continue;
+                }
+                if (high < 0) {
+                    high = digit;
+                } else {
+                    buffer[size++] = (byte) ((high << 4) | digit);
+                    high = -1;
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buffer;
+        private int position = 0;
+
+        Reader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        int read() throws IOException {
+            require(1);
+            return buffer[position++] & 0xFF;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed metadata varint");
+        }
+
+        String readString() throws IOException {
+            long length = readVarint();
+            if (length == 0) {
+                return null;
+            }
+            int bytes = (int) (length - 1);
+            require(bytes);
+            String value = new String(buffer, position, bytes, StandardCharsets.UTF_8);
+            position += bytes;
+            return value;
+        }
+
+        String readUuid() throws IOException {
+            require(UUID_BYTES);
+            char[] chars = new char[UUID_LENGTH];
+            int c = 0;
+            for (int i = 0; i < UUID_BYTES; i++) {
+                if (i == 4 || i == 6 || i == 8 || i == 10) {
+                    chars[c++] = '-';
+                }
+                int b = buffer[position++] & 0xFF;
+                chars[c++] = HEX[b >>> 4];
+                chars[c++] = HEX[b & 0x0F];
+            }
+            return new String(chars);
+        }
+
+        private void require(int count) throws IOException {
+            if (count < 0 || count > buffer.length - position) {
+                throw new IOException("Truncated metadata frame");
+            }
+        }
+    }
+}
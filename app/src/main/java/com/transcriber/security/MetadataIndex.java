@@ -0,0 +1,162 @@
+package com.transcriber.security;
+
+import com.transcriber.security.FileMetadataManager.FileMetadata;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Pattern;
+
+/**
+ * Sorted secondary indexes over metadata: normalized patient name, DOB and timestamp.
+ *
+ * Each index is a skip list of (key, timestamp, uuid) positions, newest first within a key, so a query is
+ * one O(log n) seek plus a walk over the page it returns. Pages end with a {@link Position} that resumes
+ * the query after the last result. The store updates the indexes under its lock; queries read the skip
+ * lists without locking and may miss a change that is being applied at the same moment.
+ */
+public final class MetadataIndex {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // Sorts after every character that appears in a key, closing a prefix range
+    private static final char KEY_END = '\uffff';
+    private static final String NO_KEY = "";
+
+    private final NavigableSet<Position> byName = new ConcurrentSkipListSet<>();
+    private final NavigableSet<Position> byDob = new ConcurrentSkipListSet<>();
+    private final NavigableSet<Position> byTime = new ConcurrentSkipListSet<>();
+
+    /**
+     * A place in an index; opaque to callers, who pass it back to fetch the next page.
+     */
+    public static final class Position implements Comparable<Position> {
+        private final String key;
+        private final long timestamp;
+        private final String uuid;
+
+        Position(String key, long timestamp, String uuid) {
+            this.key = key;
+            this.timestamp = timestamp;
+            this.uuid = uuid;
+        }
+
+        @Override
+        public int compareTo(Position other) {
+            int result = key.compareTo(other.key);
+            if (result == 0) {
+                result = Long.compare(other.timestamp, timestamp);
+            }
+            return result != 0 ? result : uuid.compareTo(other.uuid);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Position && compareTo((Position) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return (key.hashCode() * 31 + Long.valueOf(timestamp).hashCode()) * 31 + uuid.hashCode();
+        }
+    }
+
+    /**
+     * One page of matching UUIDs, newest first, and where the next page starts (null on the last page).
+     */
+    public static final class Page {
+        public final List<String> uuids;
+        public final Position next;
+
+        Page(List<String> uuids, Position next) {
+            this.uuids = uuids;
+            this.next = next;
+        }
+    }
+
+    void add(String uuid, FileMetadata metadata) {
+        byName.add(new Position(normalizeName(metadata.patientName), metadata.timestamp, uuid));
+        byDob.add(new Position(normalizeDob(metadata.dob), metadata.timestamp, uuid));
+        byTime.add(new Position(NO_KEY, metadata.timestamp, uuid));
+    }
+
+    void remove(String uuid, FileMetadata metadata) {
+        byName.remove(new Position(normalizeName(metadata.patientName), metadata.timestamp, uuid));
+        byDob.remove(new Position(normalizeDob(metadata.dob), metadata.timestamp, uuid));
+        byTime.remove(new Position(NO_KEY, metadata.timestamp, uuid));
+    }
+
+    void clear() {
+        byName.clear();
+        byDob.clear();
+        byTime.clear();
+    }
+
+    /**
+     * Entries whose patient name starts with a prefix, ignoring case, accents and extra spaces.
+     */
+    Page findByNamePrefix(String prefix, Position after, int limit) {
+        String key = normalizeName(prefix);
+        String end = key + KEY_END;
+        if (!key.isEmpty() && Character.isWhitespace(prefix.charAt(prefix.length() - 1))) {
+            // "jose " asks for the whole word: "jose" and "jose ..." match, "joseph" does not
+            end = key + ' ' + KEY_END;
+        }
+        return page(byName, new Position(key, Long.MAX_VALUE, NO_KEY), new Position(end, Long.MAX_VALUE, NO_KEY),
+                after, limit);
+    }
+
+    Page findByDob(String dob, Position after, int limit) {
+        String key = normalizeDob(dob);
+        return page(byDob, new Position(key, Long.MAX_VALUE, NO_KEY), new Position(key + '\0', Long.MAX_VALUE, NO_KEY),
+                after, limit);
+    }
+
+    /**
+     * Entries with from <= timestamp < to.
+     */
+    Page findByTimeRange(long from, long to, Position after, int limit) {
+        from = Math.max(from, Long.MIN_VALUE + 1);
+        if (from >= to) {
+            return new Page(Collections.<String>emptyList(), null);
+        }
+        // Newest first: the range starts at to - 1 and ends before from - 1
+        return page(byTime, new Position(NO_KEY, to - 1, NO_KEY), new Position(NO_KEY, from - 1, NO_KEY), after, limit);
+    }
+
+    private static Page page(NavigableSet<Position> index, Position start, Position end, Position after, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive");
+        }
+        boolean resume = after != null && after.compareTo(start) >= 0;
+        if (resume && after.compareTo(end) >= 0) {
+            return new Page(Collections.<String>emptyList(), null);
+        }
+        NavigableSet<Position> range = index.subSet(resume ? after : start, !resume, end, false);
+        List<String> uuids = new ArrayList<>(Math.min(limit, 64));
+        Position last = null;
+        Iterator<Position> it = range.iterator();
+        while (it.hasNext() && uuids.size() < limit) {
+            last = it.next();
+            uuids.add(last.uuid);
+        }
+        return new Page(uuids, it.hasNext() ? last : null);
+    }
+
+    static String normalizeName(String name) {
+        if (name == null) {
+            return NO_KEY;
+        }
+        String stripped = COMBINING_MARKS.matcher(Normalizer.normalize(name, Normalizer.Form.NFD)).replaceAll("");
+        return WHITESPACE.matcher(stripped.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    private static String normalizeDob(String dob) {
+        return dob != null ? dob.trim() : NO_KEY;
+    }
+}
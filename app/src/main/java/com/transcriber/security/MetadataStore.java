@@ -0,0 +1,400 @@
+package com.transcriber.security;
+
+import android.util.Log;
+import com.transcriber.config.Config;
+import com.transcriber.security.FileMetadataManager.FileMetadata;
+import org.json.JSONException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Encrypted, log-structured store of transcription metadata.
+ */
+public class MetadataStore {
+
+    private static final String TAG = "MetadataStore";
+    private static final int SNAPSHOT_BATCH_SIZE = 256;
+
+    private final File directory;
+    private final File snapshotFile;
+    private final File logFile;
+    private final File rotatedLogFile;
+    private final File legacyFile;
+    private final EncryptedFrameLog.Writer logWriter;
+    private final ScheduledExecutorService writer;
+    private final ReentrantLock writerLock = new ReentrantLock();
+
+    // Guarded by this
+    private final Map<String, FileMetadata> entries = new HashMap<>();
+    private final MetadataIndex index = new MetadataIndex();
+    // Changes not yet in the log, latest per entry
+    private final Map<String, Record> pending = new LinkedHashMap<>();
+    private int logRecords = 0;
+    private boolean writeScheduled = false;
+
+    /**
+     * One put (metadata set) or delete (metadata null) of an entry.
+     */
+    static final class Record {
+        final String uuid;
+        final FileMetadata metadata;
+
+        Record(String uuid, FileMetadata metadata) {
+            this.uuid = uuid;
+            this.metadata = metadata;
+        }
+    }
+
+    public MetadataStore(File directory) {
+        this.directory = directory;
+        this.snapshotFile = new File(directory, Config.METADATA_SNAPSHOT_FILENAME);
+        this.logFile = new File(directory, Config.METADATA_LOG_FILENAME);
+        this.rotatedLogFile = new File(directory, Config.METADATA_ROTATED_LOG_FILENAME);
+        this.legacyFile = new File(directory, Config.METADATA_FILENAME);
+        this.logWriter = new EncryptedFrameLog.Writer(logFile);
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Metadata Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Load the state: migrate a legacy JSON file if there is one, then replay snapshot and logs.
+     */
+    public synchronized void open() throws Exception {
+        entries.clear();
+        index.clear();
+        pending.clear();
+        logRecords = 0;
+        if (legacyFile.exists()) {
+            migrateLegacy();
+        }
+
+        EncryptedFrameLog.recover(rotatedLogFile);
+        EncryptedFrameLog.recover(logFile);
+        // Replaying records onto a snapshot that already holds them gives the same state, so a crash at any
+        // step of a compaction loses nothing
+        replay(snapshotFile);
+        logRecords += replay(rotatedLogFile);
+        logRecords += replay(logFile);
+        Log.i(TAG, "Loaded " + entries.size() + " metadata entries, " + logRecords + " log records");
+
+        if (rotatedLogFile.exists()) {
+            // A compaction was interrupted; finish it before anything is appended
+            foldAll();
+        } else {
+            writer.execute(this::compactIfDue);
+        }
+    }
+
+    public synchronized FileMetadata get(String uuid) {
+        return entries.get(uuid);
+    }
+
+    /**
+     * A copy of every entry.
+     */
+    public synchronized Map<String, FileMetadata> getAll() {
+        return new HashMap<>(entries);
+    }
+
+    /**
+     * Entries whose patient name starts with a prefix, by name and newest first within a name; pass the
+     * page's next position to continue.
+     */
+    public MetadataIndex.Page findByNamePrefix(String prefix, MetadataIndex.Position after, int limit) {
+        return index.findByNamePrefix(prefix, after, limit);
+    }
+
+    public MetadataIndex.Page findByDob(String dob, MetadataIndex.Position after, int limit) {
+        return index.findByDob(dob, after, limit);
+    }
+
+    /**
+     * Entries saved in [from, to), newest first.
+     */
+    public MetadataIndex.Page findByTimeRange(long from, long to, MetadataIndex.Position after, int limit) {
+        return index.findByTimeRange(from, to, after, limit);
+    }
+
+    public void put(String uuid, FileMetadata metadata) {
+        try (Transaction transaction = begin()) {
+            transaction.put(uuid, metadata);
+            transaction.commit();
+        }
+    }
+
+    public void delete(String uuid) {
+        try (Transaction transaction = begin()) {
+            transaction.delete(uuid);
+            transaction.commit();
+        }
+    }
+
+    /**
+     * Start a transaction, waiting for any other writer to finish first.
+     */
+    public Transaction begin() {
+        writerLock.lock();
+        return new Transaction();
+    }
+
+    /**
+     * Changes made under the writer lock and applied together by {@link #commit()}; closing without
+     * committing discards them. Must be finished by the thread that began it.
+     */
+    public final class Transaction implements Closeable {
+        private final Map<String, Record> records = new LinkedHashMap<>();
+        private boolean finished = false;
+
+        private Transaction() {
+        }
+
+        /**
+         * The entry as this transaction sees it, including its own uncommitted changes.
+         */
+        public FileMetadata get(String uuid) {
+            checkOpen();
+            Record record = records.get(uuid);
+            return record != null ? record.metadata : MetadataStore.this.get(uuid);
+        }
+
+        public void put(String uuid, FileMetadata metadata) {
+            checkOpen();
+            records.put(uuid, new Record(uuid, metadata));
+        }
+
+        public void delete(String uuid) {
+            checkOpen();
+            records.put(uuid, new Record(uuid, null));
+        }
+
+        public void commit() {
+            checkOpen();
+            try {
+                if (!records.isEmpty()) {
+                    apply(new ArrayList<>(records.values()));
+                }
+            } finally {
+                finish();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!finished) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            records.clear();
+            writerLock.unlock();
+        }
+
+        private void checkOpen() {
+            if (finished) {
+                throw new IllegalStateException("Transaction already finished");
+            }
+        }
+    }
+
+    /**
+     * Apply a batch of records in memory and queue them for the writer.
+     */
+    private synchronized void apply(List<Record> batch) {
+        for (Record record : batch) {
+            applyRecord(record);
+            pending.put(record.uuid, record);
+        }
+        scheduleWrite(Config.METADATA_WRITE_BEHIND_MS);
+    }
+
+    /**
+     * Wait until every change made before the call is in the log. Returns false on timeout or write failure.
+     */
+    public boolean flush(long timeoutMs) {
+        try {
+            return writer.submit(this::writePending).get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            Log.w(TAG, "Metadata flush did not complete", e);
+            return false;
+        }
+    }
+
+    private void applyRecord(Record record) {
+        FileMetadata previous = record.metadata != null
+                ? entries.put(record.uuid, record.metadata)
+                : entries.remove(record.uuid);
+        if (previous != null) {
+            index.remove(record.uuid, previous);
+        }
+        if (record.metadata != null) {
+            index.add(record.uuid, record.metadata);
+        }
+    }
+
+    private int replay(File file) throws Exception {
+        int[] records = {0};
+        EncryptedFrameLog.readFrames(file, plaintext -> {
+            for (Record record : MetadataCodec.decode(plaintext)) {
+                applyRecord(record);
+                records[0]++;
+            }
+        });
+        return records[0];
+    }
+
+    private void scheduleWrite(long delayMs) {
+        if (!writeScheduled) {
+            writeScheduled = true;
+            writer.schedule(this::writePending, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Append everything pending as one frame, then compact if the log has grown. Runs on the writer thread.
+     */
+    private boolean writePending() {
+        List<Record> batch;
+        synchronized (this) {
+            writeScheduled = false;
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        if (!batch.isEmpty()) {
+            try {
+                // One frame per batch, however many entries the store holds
+                logWriter.append(MetadataCodec.encode(batch));
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to write " + batch.size() + " metadata records, will retry", e);
+                synchronized (this) {
+                    // Changes made since the batch was taken are newer and win
+                    for (Record record : batch) {
+                        pending.putIfAbsent(record.uuid, record);
+                    }
+                    scheduleWrite(Config.METADATA_WRITE_RETRY_MS);
+                }
+                return false;
+            }
+            synchronized (this) {
+                logRecords += batch.size();
+            }
+        }
+        compactIfDue();
+        return true;
+    }
+
+    private void compactIfDue() {
+        synchronized (this) {
+            if (logRecords < Config.METADATA_COMPACT_MIN_RECORDS || logRecords <= entries.size()) {
+                return;
+            }
+        }
+        compact();
+    }
+
+    /**
+     * Rotate the log under the lock, then write the snapshot without holding it. Runs on the writer thread.
+     */
+    private void compact() {
+        Map<String, FileMetadata> state;
+        synchronized (this) {
+            if (rotatedLogFile.exists()) {
+                // An earlier compaction failed after rotating; renaming again would overwrite its records
+                try {
+                    foldAll();
+                } catch (Exception e) {
+                    Log.e(TAG, "Metadata compaction failed", e);
+                }
+                return;
+            }
+            if (!logFile.exists() || !logFile.renameTo(rotatedLogFile)) {
+                return;
+            }
+            logWriter.close();
+            state = new HashMap<>(entries);
+            logRecords = 0;
+        }
+        try {
+            writeSnapshot(state);
+            EncryptionManager.shredFile(rotatedLogFile);
+            Log.i(TAG, "Compacted metadata log into a snapshot of " + state.size() + " entries");
+        } catch (Exception e) {
+            // The rotated log is kept and folded in by the next compaction or open
+            Log.e(TAG, "Metadata compaction failed", e);
+        }
+    }
+
+    /**
+     * Write the whole state as the snapshot and drop both logs; callers hold the lock.
+     */
+    private void foldAll() throws Exception {
+        writeSnapshot(new HashMap<>(entries));
+        EncryptionManager.shredFile(rotatedLogFile);
+        EncryptionManager.shredFile(logFile);
+        logWriter.close();
+        logRecords = 0;
+    }
+
+    private void writeSnapshot(Map<String, FileMetadata> state) throws Exception {
+        if (state.isEmpty()) {
+            EncryptionManager.shredFile(snapshotFile);
+            return;
+        }
+        File temp = new File(directory, "." + snapshotFile.getName() + ".tmp");
+        EncryptionManager.shredFile(temp);
+        try (EncryptedFrameLog.Writer snapshotWriter = new EncryptedFrameLog.Writer(temp)) {
+            List<Record> batch = new ArrayList<>(SNAPSHOT_BATCH_SIZE);
+            for (Map.Entry<String, FileMetadata> entry : state.entrySet()) {
+                batch.add(new Record(entry.getKey(), entry.getValue()));
+                if (batch.size() == SNAPSHOT_BATCH_SIZE) {
+                    snapshotWriter.append(MetadataCodec.encode(batch));
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                snapshotWriter.append(MetadataCodec.encode(batch));
+            }
+        }
+        if (!temp.renameTo(snapshotFile)) {
+            EncryptionManager.shredFile(temp);
+            throw new IOException("Failed to replace " + snapshotFile.getName());
+        }
+    }
+
+    /**
+     * Move the entries of the old whole-file JSON into a snapshot, then shred the JSON file.
+     */
+    private void migrateLegacy() throws Exception {
+        if (!snapshotFile.exists()) {
+            Map<String, FileMetadata> legacy;
+            try {
+                legacy = MetadataCodec.decodeLegacyFile(EncryptionManager.decryptFile(legacyFile));
+            } catch (JSONException e) {
+                throw new Exception("Failed to parse metadata", e);
+            }
+            writeSnapshot(legacy);
+            Log.i(TAG, "Migrated " + legacy.size() + " metadata entries from " + legacyFile.getName());
+        }
+        EncryptionManager.shredFile(legacyFile);
+    }
+}
@@ -0,0 +1,230 @@
+package com.transcriber.security;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Layout shared by the segmented streaming AES-GCM readers and writers.
+ *
+ * A file is a header followed by segments of at most {@code segmentSize} plaintext bytes, each sealed with
+ * its own 16-byte tag. The nonce of segment i is noncePrefix(7) || i(4, big-endian) || lastFlag(1), and the
+ * header is the associated data of every segment, so segments cannot be reordered, dropped, truncated at a
+ * segment boundary, or moved between files.
+ *
+ * Headers carry the file's random data key wrapped by the Keystore master key (envelope encryption).
+ */
+final class SegmentedAead {
+
+    static final byte[] MAGIC = {'T', 'S', 'E', 'G'};
+    static final byte VERSION_ENVELOPE = 2;
+    static final int NONCE_PREFIX_LENGTH = 7;
+    static final int FIXED_HEADER_LENGTH = MAGIC.length + 1 + 4 + NONCE_PREFIX_LENGTH;
+    static final int WRAPPED_KEY_OFFSET = FIXED_HEADER_LENGTH + 2;
+    static final int TAG_LENGTH_BYTES = 16;
+    static final int TAG_LENGTH_BITS = TAG_LENGTH_BYTES * 8;
+    static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final int NONCE_LENGTH = 12;
+    private static final int MIN_SEGMENT_SIZE = 1024;
+    private static final int MAX_SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_WRAPPED_KEY_LENGTH = 1024;
+    private static final SecureRandom secureRandom = new SecureRandom();
+
+    private SegmentedAead() {
+        // Utility class - prevent instantiation
+    }
+
+    /**
+     * Resolves the key that decrypts a file's segments from its header.
+     */
+    interface KeyResolver {
+        SecretKey resolve(Header header) throws IOException;
+    }
+
+    /**
+     * Parsed file header.
+     */
+    static final class Header {
+        final byte[] bytes;
+        final byte version;
+        final int segmentSize;
+        final byte[] noncePrefix;
+        final byte[] wrappedKey;
+
+        Header(byte[] bytes, byte version, int segmentSize, byte[] noncePrefix, byte[] wrappedKey) {
+            this.bytes = bytes;
+            this.version = version;
+            this.segmentSize = segmentSize;
+            this.noncePrefix = noncePrefix;
+            this.wrappedKey = wrappedKey;
+        }
+
+        int length() {
+            return bytes.length;
+        }
+
+        int cipherSegmentSize() {
+            return segmentSize + TAG_LENGTH_BYTES;
+        }
+    }
+
+    /**
+     * Build an envelope header with a fresh random nonce prefix around the given wrapped data key.
+     */
+    static Header newHeader(int segmentSize, byte[] wrappedKey) {
+        if (!isValidSegmentSize(segmentSize)) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        if (wrappedKey.length == 0 || wrappedKey.length > MAX_WRAPPED_KEY_LENGTH) {
+            throw new IllegalArgumentException("Invalid wrapped key length: " + wrappedKey.length);
+        }
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        secureRandom.nextBytes(noncePrefix);
+
+        byte[] bytes = new byte[WRAPPED_KEY_OFFSET + wrappedKey.length];
+        System.arraycopy(MAGIC, 0, bytes, 0, MAGIC.length);
+        bytes[MAGIC.length] = VERSION_ENVELOPE;
+        writeInt(bytes, MAGIC.length + 1, segmentSize);
+        System.arraycopy(noncePrefix, 0, bytes, MAGIC.length + 5, NONCE_PREFIX_LENGTH);
+        bytes[FIXED_HEADER_LENGTH] = (byte) (wrappedKey.length >>> 8);
+        bytes[FIXED_HEADER_LENGTH + 1] = (byte) wrappedKey.length;
+        System.arraycopy(wrappedKey, 0, bytes, WRAPPED_KEY_OFFSET, wrappedKey.length);
+        return new Header(bytes, VERSION_ENVELOPE, segmentSize, noncePrefix, wrappedKey);
+    }
+
+    /**
+     * Read and validate a header from the start of a stream.
+     */
+    static Header readHeader(InputStream in) throws IOException {
+        byte[] fixed = new byte[FIXED_HEADER_LENGTH];
+        if (readFully(in, fixed, 0, fixed.length) != fixed.length) {
+            throw new EOFException("Segmented file header truncated");
+        }
+        if (!hasMagic(fixed)) {
+            throw new IOException("Not a segmented encrypted file");
+        }
+        if (fixed[MAGIC.length] != VERSION_ENVELOPE) {
+            throw new IOException("Unsupported segmented file version: " + fixed[MAGIC.length]);
+        }
+
+        byte[] lengthBytes = new byte[2];
+        if (readFully(in, lengthBytes, 0, 2) != 2) {
+            throw new EOFException("Segmented file header truncated");
+        }
+        int wrappedKeyLength = ((lengthBytes[0] & 0xFF) << 8) | (lengthBytes[1] & 0xFF);
+        if (wrappedKeyLength == 0 || wrappedKeyLength > MAX_WRAPPED_KEY_LENGTH) {
+            throw new IOException("Invalid wrapped key length in header: " + wrappedKeyLength);
+        }
+        byte[] bytes = Arrays.copyOf(fixed, WRAPPED_KEY_OFFSET + wrappedKeyLength);
+        bytes[FIXED_HEADER_LENGTH] = lengthBytes[0];
+        bytes[FIXED_HEADER_LENGTH + 1] = lengthBytes[1];
+        if (readFully(in, bytes, WRAPPED_KEY_OFFSET, wrappedKeyLength) != wrappedKeyLength) {
+            throw new EOFException("Segmented file header truncated");
+        }
+        return parseHeader(bytes);
+    }
+
+    /**
+     * Validate complete header bytes that were already read.
+     */
+    static Header parseHeader(byte[] bytes) throws IOException {
+        if (!hasMagic(bytes) || bytes.length <= WRAPPED_KEY_OFFSET) {
+            throw new IOException("Not a segmented encrypted file");
+        }
+        byte version = bytes[MAGIC.length];
+        if (version != VERSION_ENVELOPE) {
+            throw new IOException("Unsupported segmented file version: " + version);
+        }
+        int segmentSize = readInt(bytes, MAGIC.length + 1);
+        if (!isValidSegmentSize(segmentSize)) {
+            throw new IOException("Invalid segment size in header: " + segmentSize);
+        }
+        byte[] noncePrefix = Arrays.copyOfRange(bytes, MAGIC.length + 5, MAGIC.length + 5 + NONCE_PREFIX_LENGTH);
+        byte[] wrappedKey = Arrays.copyOfRange(bytes, WRAPPED_KEY_OFFSET, bytes.length);
+        return new Header(bytes, version, segmentSize, noncePrefix, wrappedKey);
+    }
+
+    /**
+     * Check whether the buffer starts with the segmented file magic.
+     */
+    static boolean hasMagic(byte[] bytes) {
+        if (bytes.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Derive the GCM parameters of a segment from the header nonce prefix, its index and the final flag.
+     */
+    static GCMParameterSpec segmentSpec(byte[] noncePrefix, long segmentIndex, boolean last) {
+        if (segmentIndex < 0 || segmentIndex > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException("Segment index out of range: " + segmentIndex);
+        }
+        byte[] nonce = new byte[NONCE_LENGTH];
+        System.arraycopy(noncePrefix, 0, nonce, 0, NONCE_PREFIX_LENGTH);
+        writeInt(nonce, NONCE_PREFIX_LENGTH, (int) segmentIndex);
+        nonce[NONCE_LENGTH - 1] = (byte) (last ? 1 : 0);
+        return new GCMParameterSpec(TAG_LENGTH_BITS, nonce);
+    }
+
+    /**
+     * Plaintext length of a segmented file, derived from its ciphertext length.
+     */
+    static long plaintextLength(long ciphertextLength, Header header) throws IOException {
+        long body = ciphertextLength - header.length();
+        int cipherSegmentSize = header.cipherSegmentSize();
+        if (body < TAG_LENGTH_BYTES) {
+            throw new IOException("Segmented file truncated");
+        }
+        long segments = (body + cipherSegmentSize - 1) / cipherSegmentSize;
+        long lastCipherLength = body - (segments - 1) * cipherSegmentSize;
+        if (lastCipherLength < TAG_LENGTH_BYTES) {
+            throw new IOException("Segmented file has a truncated final segment");
+        }
+        return (segments - 1) * header.segmentSize + lastCipherLength - TAG_LENGTH_BYTES;
+    }
+
+    /**
+     * Read until the buffer range is full or the stream ends; return the number of bytes read.
+     */
+    static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, offset + total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static boolean isValidSegmentSize(int segmentSize) {
+        return segmentSize >= MIN_SEGMENT_SIZE && segmentSize <= MAX_SEGMENT_SIZE;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 24)
+                | ((buffer[offset + 1] & 0xFF) << 16)
+                | ((buffer[offset + 2] & 0xFF) << 8)
+                | (buffer[offset + 3] & 0xFF);
+    }
+}
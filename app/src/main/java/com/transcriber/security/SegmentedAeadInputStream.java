@@ -0,0 +1,172 @@
+package com.transcriber.security;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * InputStream that decrypts and authenticates the segmented AES-GCM format one segment at a time.
+ *
+ * In recovery mode it reads a file whose writer was interrupted: the held-back first segment is taken
+ * from its backup, and the stream ends quietly at the last segment that authenticates, since such a file
+ * has no segment flagged last and its final one may be torn.
+ */
+public class SegmentedAeadInputStream extends InputStream {
+
+    private final InputStream in;
+    private final SecretKey key;
+    private final SegmentedAead.Header header;
+    private final Cipher cipher;
+    // One extra byte of lookahead tells a full final segment apart from a full inner one
+    private final byte[] ciphertextSegment;
+    private final byte[] plaintextSegment;
+    private final byte[] firstSegment;
+    private int ciphertextBuffered = 0;
+    private int plaintextPosition = 0;
+    private int plaintextLength = 0;
+    private long segmentIndex = 0;
+    private boolean finished = false;
+
+    SegmentedAeadInputStream(InputStream in, SegmentedAead.KeyResolver keyResolver) throws IOException {
+        this(in, keyResolver, null);
+    }
+
+    /**
+     * Open in recovery mode when firstSegment, the plaintext of the held first segment, is given.
+     */
+    SegmentedAeadInputStream(InputStream in, SegmentedAead.KeyResolver keyResolver, byte[] firstSegment)
+            throws IOException {
+        this.in = in;
+        this.header = SegmentedAead.readHeader(in);
+        this.key = keyResolver.resolve(header);
+        this.ciphertextSegment = new byte[header.cipherSegmentSize() + 1];
+        this.plaintextSegment = new byte[header.segmentSize];
+        this.firstSegment = firstSegment;
+        if (firstSegment != null && firstSegment.length != header.segmentSize) {
+            throw new IOException("First segment backup does not match the file");
+        }
+        try {
+            this.cipher = Cipher.getInstance(SegmentedAead.TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("AES-GCM unavailable", e);
+        }
+    }
+
+    SegmentedAead.Header header() {
+        return header;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (plaintextPosition == plaintextLength) {
+            if (finished) {
+                return -1;
+            }
+            openNextSegment();
+        }
+        int chunk = Math.min(length, plaintextLength - plaintextPosition);
+        System.arraycopy(plaintextSegment, plaintextPosition, buffer, offset, chunk);
+        plaintextPosition += chunk;
+        return chunk;
+    }
+
+    @Override
+    public int available() {
+        return plaintextLength - plaintextPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        Arrays.fill(plaintextSegment, (byte) 0);
+        if (firstSegment != null) {
+            Arrays.fill(firstSegment, (byte) 0);
+        }
+        in.close();
+    }
+
+    private void openNextSegment() throws IOException {
+        int wanted = ciphertextSegment.length;
+        ciphertextBuffered += SegmentedAead.readFully(in, ciphertextSegment, ciphertextBuffered,
+                wanted - ciphertextBuffered);
+
+        boolean last = ciphertextBuffered < wanted;
+        int segmentLength = last ? ciphertextBuffered : wanted - 1;
+        if (firstSegment != null) {
+            if (!openRecoveredSegment(segmentLength, last)) {
+                finished = true;
+                plaintextPosition = 0;
+                plaintextLength = 0;
+                ciphertextBuffered = 0;
+                return;
+            }
+        } else {
+            if (segmentLength < SegmentedAead.TAG_LENGTH_BYTES) {
+                throw new IOException("Segmented file truncated at segment " + segmentIndex);
+            }
+            try {
+                plaintextLength = decrypt(segmentLength, last);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Segment " + segmentIndex + " failed authentication", e);
+            }
+        }
+        plaintextPosition = 0;
+        segmentIndex++;
+
+        if (last) {
+            finished = true;
+            ciphertextBuffered = 0;
+        } else {
+            ciphertextSegment[0] = ciphertextSegment[wanted - 1];
+            ciphertextBuffered = 1;
+        }
+    }
+
+    /**
+     * Open a segment of an interrupted file; false once no further segment authenticates.
+     */
+    private boolean openRecoveredSegment(int segmentLength, boolean last) {
+        if (segmentIndex == 0) {
+            // Only space was reserved for the held segment; its plaintext comes from the backup
+            System.arraycopy(firstSegment, 0, plaintextSegment, 0, firstSegment.length);
+            plaintextLength = firstSegment.length;
+            return true;
+        }
+        if (segmentLength < SegmentedAead.TAG_LENGTH_BYTES) {
+            return false;
+        }
+        try {
+            plaintextLength = decrypt(segmentLength, last);
+            return true;
+        } catch (GeneralSecurityException e) {
+            // A complete segment at the end of an interrupted file was sealed as an inner one
+        }
+        if (last && segmentLength == header.cipherSegmentSize()) {
+            try {
+                plaintextLength = decrypt(segmentLength, false);
+                return true;
+            } catch (GeneralSecurityException e) {
+                // Torn by the interruption
+            }
+        }
+        return false;
+    }
+
+    private int decrypt(int segmentLength, boolean last) throws GeneralSecurityException {
+        cipher.init(Cipher.DECRYPT_MODE, key, SegmentedAead.segmentSpec(header.noncePrefix, segmentIndex, last));
+        cipher.updateAAD(header.bytes);
+        return cipher.doFinal(ciphertextSegment, 0, segmentLength, plaintextSegment, 0);
+    }
+}
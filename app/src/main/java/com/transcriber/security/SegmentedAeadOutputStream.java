@@ -0,0 +1,230 @@
+package com.transcriber.security;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * OutputStream that encrypts into the segmented AES-GCM format in constant memory.
+ *
+ * When writing to a file, the stream can hold the first segment back until {@link #finish()} so a
+ * container header at the start of the plaintext (such as a WAV header) can be patched once its final
+ * values are known. The space for that segment is reserved on disk, and the segment is sealed exactly
+ * once, so no nonce is ever reused. Until then it can also be kept in a backup file, sealed as a separate
+ * segmented file under a fresh nonce prefix, so a writer that is killed before finishing leaves a file
+ * that {@link EncryptionManager#openInterrupted} can still read.
+ */
+public class SegmentedAeadOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final FileChannel patchChannel;
+    private final File firstSegmentBackup;
+    private final SecretKey key;
+    private final SegmentedAead.Header header;
+    private final Cipher cipher;
+    private final byte[] plaintextSegment;
+    private final byte[] ciphertextSegment;
+    private byte[] heldFirstSegment;
+    private int buffered = 0;
+    private long segmentIndex = 0;
+    private boolean closed = false;
+
+    public SegmentedAeadOutputStream(OutputStream out, SecretKey dataKey, byte[] wrappedKey, int segmentSize)
+            throws IOException {
+        this(out, null, null, dataKey, wrappedKey, segmentSize);
+    }
+
+    /**
+     * Create a stream into a file that holds the first segment back so it can be patched before finishing.
+     */
+    public SegmentedAeadOutputStream(FileOutputStream out, SecretKey dataKey, byte[] wrappedKey, int segmentSize,
+                                     boolean holdFirstSegment) throws IOException {
+        this(out, holdFirstSegment ? out.getChannel() : null, null, dataKey, wrappedKey, segmentSize);
+    }
+
+    /**
+     * Create a stream that holds the first segment back and keeps a sealed backup of it until finishing.
+     */
+    public SegmentedAeadOutputStream(FileOutputStream out, SecretKey dataKey, byte[] wrappedKey, int segmentSize,
+                                     File firstSegmentBackup) throws IOException {
+        this(out, out.getChannel(), firstSegmentBackup, dataKey, wrappedKey, segmentSize);
+    }
+
+    private SegmentedAeadOutputStream(OutputStream out, FileChannel patchChannel, File firstSegmentBackup,
+                                      SecretKey dataKey, byte[] wrappedKey, int segmentSize) throws IOException {
+        this.out = out;
+        this.patchChannel = patchChannel;
+        this.firstSegmentBackup = firstSegmentBackup;
+        this.key = dataKey;
+        this.header = SegmentedAead.newHeader(segmentSize, wrappedKey);
+        this.plaintextSegment = new byte[segmentSize];
+        this.ciphertextSegment = new byte[header.cipherSegmentSize()];
+        try {
+            this.cipher = Cipher.getInstance(SegmentedAead.TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("AES-GCM unavailable", e);
+        }
+        out.write(header.bytes);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (length > 0) {
+            // A full segment is only sealed once more data arrives, so the final segment is never empty
+            // unless the whole stream is
+            if (buffered == plaintextSegment.length) {
+                sealSegment(false);
+            }
+            int chunk = Math.min(length, plaintextSegment.length - buffered);
+            System.arraycopy(data, offset, plaintextSegment, buffered, chunk);
+            buffered += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Overwrite plaintext bytes that were already written to the first segment.
+     * Only possible while the first segment is still buffered or held back.
+     */
+    public void patchFirstSegment(int offset, byte[] bytes) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        byte[] target;
+        int available;
+        if (heldFirstSegment != null) {
+            target = heldFirstSegment;
+            available = heldFirstSegment.length;
+        } else if (segmentIndex == 0) {
+            target = plaintextSegment;
+            available = buffered;
+        } else {
+            throw new IllegalStateException("First segment was already sealed");
+        }
+        if (offset < 0 || offset + bytes.length > available) {
+            throw new IllegalArgumentException("Patch outside written range: " + offset);
+        }
+        System.arraycopy(bytes, 0, target, offset, bytes.length);
+    }
+
+    /**
+     * Seal the final segment, and a held first segment, without closing the underlying stream.
+     */
+    public void finish() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            sealSegment(true);
+            out.flush();
+            if (heldFirstSegment != null) {
+                writeHeldFirstSegment();
+                if (firstSegmentBackup != null) {
+                    // The backup may only go once the sealed segment is durable
+                    patchChannel.force(false);
+                    EncryptionManager.shredFile(firstSegmentBackup);
+                }
+            }
+        } finally {
+            Arrays.fill(plaintextSegment, (byte) 0);
+            if (heldFirstSegment != null) {
+                Arrays.fill(heldFirstSegment, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Seal the final segment and close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void sealSegment(boolean last) throws IOException {
+        if (segmentIndex == 0 && !last && patchChannel != null) {
+            holdFirstSegment();
+            return;
+        }
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, SegmentedAead.segmentSpec(header.noncePrefix, segmentIndex, last));
+            cipher.updateAAD(header.bytes);
+            int length = cipher.doFinal(plaintextSegment, 0, buffered, ciphertextSegment, 0);
+            out.write(ciphertextSegment, 0, length);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to encrypt segment " + segmentIndex, e);
+        }
+        segmentIndex++;
+        buffered = 0;
+    }
+
+    private void holdFirstSegment() throws IOException {
+        heldFirstSegment = plaintextSegment.clone();
+        // Reserve the sealed segment's place; it is written at its offset by finish()
+        Arrays.fill(ciphertextSegment, (byte) 0);
+        out.write(ciphertextSegment, 0, header.cipherSegmentSize());
+        segmentIndex++;
+        buffered = 0;
+        if (firstSegmentBackup != null) {
+            writeFirstSegmentBackup();
+        }
+    }
+
+    private void writeFirstSegmentBackup() throws IOException {
+        File temp = new File(firstSegmentBackup.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            // Same data key under a new header, whose random nonce prefix keeps every nonce unique
+            SegmentedAeadOutputStream backup = new SegmentedAeadOutputStream(fos, key, header.wrappedKey,
+                    header.segmentSize);
+            backup.write(heldFirstSegment);
+            backup.finish();
+            fos.getFD().sync();
+        }
+        if (!temp.renameTo(firstSegmentBackup)) {
+            EncryptionManager.shredFile(temp);
+            throw new IOException("Failed to store first segment backup");
+        }
+    }
+
+    private void writeHeldFirstSegment() throws IOException {
+        int length;
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, SegmentedAead.segmentSpec(header.noncePrefix, 0, false));
+            cipher.updateAAD(header.bytes);
+            length = cipher.doFinal(heldFirstSegment, 0, heldFirstSegment.length, ciphertextSegment, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to encrypt segment 0", e);
+        }
+        ByteBuffer sealed = ByteBuffer.wrap(ciphertextSegment, 0, length);
+        long position = header.length();
+        while (sealed.hasRemaining()) {
+            position += patchChannel.write(sealed, position);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.transcriber.security;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Read-only channel over a segmented AES-GCM file that decrypts only the segments a read touches.
+ */
+public class SegmentedAeadSeekableChannel implements SeekableByteChannel {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final SecretKey key;
+    private final SegmentedAead.Header header;
+    private final Cipher cipher;
+    private final long plaintextSize;
+    private final long segmentCount;
+    private final byte[] ciphertextSegment;
+    private final byte[] plaintextSegment;
+    private long cachedSegment = -1;
+    private int cachedLength = 0;
+    private long position = 0;
+    private boolean open = true;
+
+    SegmentedAeadSeekableChannel(RandomAccessFile file, SegmentedAead.KeyResolver keyResolver) throws IOException {
+        this.file = file;
+        this.channel = file.getChannel();
+
+        channel.position(0);
+        this.header = SegmentedAead.readHeader(Channels.newInputStream(channel));
+        this.key = keyResolver.resolve(header);
+        this.plaintextSize = SegmentedAead.plaintextLength(channel.size(), header);
+        this.segmentCount = Math.max(1, (plaintextSize + header.segmentSize - 1) / header.segmentSize);
+        this.ciphertextSegment = new byte[header.cipherSegmentSize()];
+        this.plaintextSegment = new byte[header.segmentSize];
+        try {
+            this.cipher = Cipher.getInstance(SegmentedAead.TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("AES-GCM unavailable", e);
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer destination) throws IOException {
+        ensureOpen();
+        if (position >= plaintextSize) {
+            return -1;
+        }
+
+        int total = 0;
+        while (destination.hasRemaining() && position < plaintextSize) {
+            long segmentIndex = position / header.segmentSize;
+            loadSegment(segmentIndex);
+            int offsetInSegment = (int) (position - segmentIndex * header.segmentSize);
+            int chunk = Math.min(destination.remaining(), cachedLength - offsetInSegment);
+            destination.put(plaintextSegment, offsetInSegment, chunk);
+            position += chunk;
+            total += chunk;
+        }
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer source) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return plaintextSize;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        Arrays.fill(plaintextSegment, (byte) 0);
+        file.close();
+    }
+
+    private void loadSegment(long segmentIndex) throws IOException {
+        if (segmentIndex == cachedSegment) {
+            return;
+        }
+
+        boolean last = segmentIndex == segmentCount - 1;
+        long offset = header.length() + segmentIndex * header.cipherSegmentSize();
+        int length = last ? (int) (channel.size() - offset) : header.cipherSegmentSize();
+        readAt(offset, ciphertextSegment, length);
+
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, SegmentedAead.segmentSpec(header.noncePrefix, segmentIndex, last));
+            cipher.updateAAD(header.bytes);
+            cachedLength = cipher.doFinal(ciphertextSegment, 0, length, plaintextSegment, 0);
+            cachedSegment = segmentIndex;
+        } catch (GeneralSecurityException e) {
+            cachedSegment = -1;
+            throw new IOException("Segment " + segmentIndex + " failed authentication", e);
+        }
+    }
+
+    private void readAt(long offset, byte[] buffer, int length) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+        while (target.hasRemaining()) {
+            int read = channel.read(target, offset + target.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of encrypted file");
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
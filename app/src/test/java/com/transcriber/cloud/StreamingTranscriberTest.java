@@ -0,0 +1,275 @@
+package com.transcriber.cloud;
+
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.cloud.speech.v1.SpeechClient;
+import com.google.cloud.speech.v1.SpeechGrpc;
+import com.google.cloud.speech.v1.SpeechRecognitionAlternative;
+import com.google.cloud.speech.v1.SpeechSettings;
+import com.google.cloud.speech.v1.StreamingRecognitionResult;
+import com.google.cloud.speech.v1.StreamingRecognizeRequest;
+import com.google.cloud.speech.v1.StreamingRecognizeResponse;
+import com.google.protobuf.Duration;
+import com.transcriber.config.Config;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StreamingTranscriberTest {
+
+    private static final int BYTES_PER_SECOND = Config.SAMPLE_RATE * Config.CHANNELS * 2;
+    private static final long TIMEOUT_MS = 10_000;
+
+    private FakeSpeech speech;
+    private Server server;
+    private ManagedChannel channel;
+    private SpeechClient client;
+    // Fake elapsed time, advanced by a second for every second of audio fed
+    private long nowMs = 0;
+
+    /**
+     * Records each StreamingRecognize call; responses are sent by the test.
+     */
+    private static final class FakeSpeech extends SpeechGrpc.SpeechImplBase {
+        final List<Call> calls = new ArrayList<>();
+
+        @Override
+        public synchronized StreamObserver<StreamingRecognizeRequest> streamingRecognize(
+                StreamObserver<StreamingRecognizeResponse> responses) {
+            Call call = new Call(responses);
+            calls.add(call);
+            notifyAll();
+            return call;
+        }
+
+        synchronized Call awaitCall(int index) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (calls.size() <= index && System.currentTimeMillis() < deadline) {
+                wait(50);
+            }
+            assertTrue("No call " + index, calls.size() > index);
+            return calls.get(index);
+        }
+    }
+
+    private static final class Call implements StreamObserver<StreamingRecognizeRequest> {
+        final StreamObserver<StreamingRecognizeResponse> responses;
+        final ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        volatile boolean configFirst = false;
+        int requests = 0;
+        boolean halfClosed = false;
+
+        Call(StreamObserver<StreamingRecognizeResponse> responses) {
+            this.responses = responses;
+        }
+
+        @Override
+        public synchronized void onNext(StreamingRecognizeRequest request) {
+            if (requests++ == 0) {
+                configFirst = request.hasStreamingConfig();
+            }
+            byte[] data = request.getAudioContent().toByteArray();
+            audio.write(data, 0, data.length);
+            notifyAll();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public synchronized void onCompleted() {
+            halfClosed = true;
+            notifyAll();
+        }
+
+        synchronized byte[] awaitAudio(int length) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (audio.size() < length && System.currentTimeMillis() < deadline) {
+                wait(50);
+            }
+            assertEquals(length, audio.size());
+            return audio.toByteArray();
+        }
+
+        synchronized void awaitHalfClose() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (!halfClosed && System.currentTimeMillis() < deadline) {
+                wait(50);
+            }
+            assertTrue("Stream was not half-closed", halfClosed);
+        }
+
+        void sendFinal(String text, long endSeconds) {
+            responses.onNext(StreamingRecognizeResponse.newBuilder()
+                    .addResults(StreamingRecognitionResult.newBuilder()
+                            .setIsFinal(true)
+                            .setResultEndTime(Duration.newBuilder().setSeconds(endSeconds))
+                            .addAlternatives(SpeechRecognitionAlternative.newBuilder().setTranscript(text)))
+                    .build());
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        speech = new FakeSpeech();
+        // Direct executors deliver each response before the call that sent it returns
+        server = InProcessServerBuilder.forName(name).directExecutor().addService(speech).build().start();
+        channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+        client = SpeechClient.create(SpeechSettings.newBuilder()
+                .setTransportChannelProvider(FixedTransportChannelProvider.create(GrpcTransportChannel.create(channel)))
+                .setCredentialsProvider(NoCredentialsProvider.create())
+                .build());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testFeed_PastRolloverLimit_ReplaysUnfinalizedAudioAndDropsRetiredResults() throws Exception {
+        StreamingTranscriber transcriber = newTranscriber();
+        Call retired = speech.awaitCall(0);
+
+        int rolloverSeconds = (int) Config.STREAMING_ROLLOVER_SEC;
+        int finalizedSeconds = 200;
+        for (int second = 0; second < finalizedSeconds; second++) {
+            feedSecond(transcriber, second);
+        }
+        retired.awaitAudio(finalizedSeconds * BYTES_PER_SECOND);
+        retired.sendFinal("first", finalizedSeconds);
+
+        for (int second = finalizedSeconds; second < rolloverSeconds; second++) {
+            feedSecond(transcriber, second);
+        }
+        assertEquals(1, speech.calls.size());
+
+        // The next chunk crosses the limit: a new stream opens and the old one is half-closed
+        feedSecond(transcriber, rolloverSeconds);
+        Call replacement = speech.awaitCall(1);
+        retired.awaitHalfClose();
+        assertTrue(replacement.configFirst);
+        assertArrayEquals(audio(0, rolloverSeconds), retired.awaitAudio(rolloverSeconds * BYTES_PER_SECOND));
+
+        // Only audio after the last final result is replayed, ahead of the new chunk
+        int replayedSeconds = rolloverSeconds + 1 - finalizedSeconds;
+        assertArrayEquals(audio(finalizedSeconds, replayedSeconds),
+                replacement.awaitAudio(replayedSeconds * BYTES_PER_SECOND));
+
+        // A late result from the retired stream covers audio the new stream will finalize again
+        retired.sendFinal("stale", rolloverSeconds);
+        retired.responses.onCompleted();
+
+        replacement.sendFinal("second", replayedSeconds);
+        assertEquals("first second", finish(transcriber, replacement));
+    }
+
+    @Test
+    public void testFeed_StreamOpenPastRolloverLimit_RollsOverWithoutMoreAudio() throws Exception {
+        StreamingTranscriber transcriber = newTranscriber();
+        Call retired = speech.awaitCall(0);
+
+        // A long pause: the stream ages while hardly any audio is sent
+        feedSecond(transcriber, 0);
+        retired.awaitAudio(BYTES_PER_SECOND);
+        retired.sendFinal("before", 1);
+        nowMs += Config.STREAMING_ROLLOVER_SEC * 1000;
+
+        feedSecond(transcriber, 1);
+        Call replacement = speech.awaitCall(1);
+        retired.awaitHalfClose();
+        assertArrayEquals(audio(1, 1), replacement.awaitAudio(BYTES_PER_SECOND));
+
+        replacement.sendFinal("after", 1);
+        assertEquals("before after", finish(transcriber, replacement));
+    }
+
+    @Test
+    public void testFinish_RolloverWithTooMuchUnfinalizedAudio_ThrowsInsteadOfDroppingIt() throws Exception {
+        StreamingTranscriber transcriber = newTranscriber();
+        Call only = speech.awaitCall(0);
+
+        int rolloverSeconds = (int) Config.STREAMING_ROLLOVER_SEC;
+        for (int second = 0; second < rolloverSeconds; second++) {
+            feedSecond(transcriber, second);
+        }
+        only.awaitAudio(rolloverSeconds * BYTES_PER_SECOND);
+        only.sendFinal("early", 10);
+
+        // Everything after the tenth second is unfinalized, more than a new stream could take as replay
+        feedSecond(transcriber, rolloverSeconds);
+        feedSecond(transcriber, rolloverSeconds + 1);
+        assertEquals(1, speech.calls.size());
+        try {
+            transcriber.finish(TIMEOUT_MS);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getCause().getMessage().startsWith("No final result"));
+        }
+    }
+
+    private StreamingTranscriber newTranscriber() {
+        StreamingTranscriber transcriber = new StreamingTranscriber(client, () -> nowMs);
+        transcriber.start();
+        return transcriber;
+    }
+
+    private void feedSecond(StreamingTranscriber transcriber, int second) {
+        byte[] pcm = audio(second, 1);
+        transcriber.feed(pcm, 0, pcm.length);
+        nowMs += 1000;
+    }
+
+    /**
+     * Complete the call once the transcriber half-closes it, and return the transcript.
+     */
+    private static String finish(StreamingTranscriber transcriber, Call last) throws Exception {
+        Thread finisher = new Thread(() -> {
+            try {
+                last.awaitHalfClose();
+                last.responses.onCompleted();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        finisher.start();
+        String transcript = transcriber.finish(TIMEOUT_MS);
+        finisher.join(TIMEOUT_MS);
+        return transcript;
+    }
+
+    /**
+     * Audio whose every byte identifies the second it belongs to.
+     */
+    private static byte[] audio(int fromSecond, int seconds) {
+        byte[] pcm = new byte[seconds * BYTES_PER_SECOND];
+        for (int i = 0; i < seconds; i++) {
+            Arrays.fill(pcm, i * BYTES_PER_SECOND, (i + 1) * BYTES_PER_SECOND, (byte) ((fromSecond + i) % 251));
+        }
+        return pcm;
+    }
+}
@@ -0,0 +1,182 @@
+package com.transcriber.security;
+
+import com.transcriber.security.FileMetadataManager.FileMetadata;
+import com.transcriber.security.MetadataStore.Record;
+import org.json.JSONObject;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Plain-JVM timing harness for metadata save and load: the binary snapshot frames against the legacy
+ * whole-file JSON, at 1k, 10k and 100k entries. Reports encoded size, time and bytes allocated by the
+ * measuring thread. Encryption is left out; it costs the same per byte for both encodings.
+ *
+ * Not a unit test: run main() from the IDE, or with java on the test classpath. Pass entry counts as
+ * arguments to override the defaults.
+ */
+public final class MetadataCodecBenchmark {
+
+    private static final int[] DEFAULT_SIZES = {1_000, 10_000, 100_000};
+    private static final int SNAPSHOT_BATCH_SIZE = 256;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final String[] NAMES = {"José Núñez", "Jane Doe", "Zoë O'Brien", "Li Wei", "Mary-Ann Smith"};
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private MetadataCodecBenchmark() {
+        // Utility class - prevent instantiation
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "%-8s %-7s %12s %10s %14s %10s %14s",
+                "entries", "format", "bytes", "save ms", "save alloc", "load ms", "load alloc"));
+        for (int size : sizes) {
+            Map<String, FileMetadata> state = generate(size);
+            report(size, "binary", measureBinary(state));
+            report(size, "json", measureJson(state));
+        }
+    }
+
+    /**
+     * Averages of one format at one size.
+     */
+    private static final class Result {
+        long bytes;
+        double saveMillis;
+        long saveAllocated;
+        double loadMillis;
+        long loadAllocated;
+    }
+
+    private interface Step {
+        Object run() throws Exception;
+    }
+
+    private static Result measureBinary(Map<String, FileMetadata> state) throws Exception {
+        Result result = new Result();
+        List<byte[]> frames = encodeSnapshot(state);
+        for (byte[] frame : frames) {
+            result.bytes += frame.length;
+        }
+        measure(result, true, () -> encodeSnapshot(state));
+        measure(result, false, () -> {
+            Map<String, FileMetadata> loaded = new HashMap<>();
+            for (byte[] frame : frames) {
+                for (Record record : MetadataCodec.decode(frame)) {
+                    loaded.put(record.uuid, record.metadata);
+                }
+            }
+            return loaded;
+        });
+        return result;
+    }
+
+    private static Result measureJson(Map<String, FileMetadata> state) throws Exception {
+        Result result = new Result();
+        String json = encodeLegacy(state);
+        result.bytes = json.getBytes(StandardCharsets.UTF_8).length;
+        measure(result, true, () -> encodeLegacy(state).getBytes(StandardCharsets.UTF_8));
+        measure(result, false, () -> MetadataCodec.decodeLegacyFile(
+                new String(json.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8)));
+        return result;
+    }
+
+    private static void measure(Result result, boolean save, Step step) throws Exception {
+        Object sink = null;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink = step.run();
+        }
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            sink = step.run();
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / MEASURED_ROUNDS;
+        long allocated = (THREADS.getThreadAllocatedBytes(thread) - allocatedBefore) / MEASURED_ROUNDS;
+        if (sink == null) {
+            throw new IllegalStateException("Step produced nothing");
+        }
+        if (save) {
+            result.saveMillis = millis;
+            result.saveAllocated = allocated;
+        } else {
+            result.loadMillis = millis;
+            result.loadAllocated = allocated;
+        }
+    }
+
+    /**
+     * The frames MetadataStore writes for a snapshot.
+     */
+    private static List<byte[]> encodeSnapshot(Map<String, FileMetadata> state) {
+        List<byte[]> frames = new ArrayList<>(state.size() / SNAPSHOT_BATCH_SIZE + 1);
+        List<Record> batch = new ArrayList<>(SNAPSHOT_BATCH_SIZE);
+        for (Map.Entry<String, FileMetadata> entry : state.entrySet()) {
+            batch.add(new Record(entry.getKey(), entry.getValue()));
+            if (batch.size() == SNAPSHOT_BATCH_SIZE) {
+                frames.add(MetadataCodec.encode(batch));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            frames.add(MetadataCodec.encode(batch));
+        }
+        return frames;
+    }
+
+    /**
+     * The whole-file JSON the store wrote before the log-structured format.
+     */
+    private static String encodeLegacy(Map<String, FileMetadata> state) throws Exception {
+        JSONObject root = new JSONObject();
+        for (Map.Entry<String, FileMetadata> entry : state.entrySet()) {
+            FileMetadata metadata = entry.getValue();
+            JSONObject obj = new JSONObject();
+            obj.put("patientName", metadata.patientName);
+            obj.put("dob", metadata.dob);
+            obj.put("timestamp", metadata.timestamp);
+            obj.put("displayName", metadata.displayName);
+            root.put(entry.getKey(), obj);
+        }
+        return root.toString();
+    }
+
+    private static Map<String, FileMetadata> generate(int size) {
+        Random random = new Random(size);
+        Map<String, FileMetadata> state = new HashMap<>(size * 2);
+        long timestamp = 1_700_000_000_000L;
+        for (int i = 0; i < size; i++) {
+            String name = NAMES[random.nextInt(NAMES.length)] + " " + i;
+            String dob = String.format(Locale.ROOT, "19%02d-%02d-%02d",
+                    random.nextInt(100), 1 + random.nextInt(12), 1 + random.nextInt(28));
+            timestamp += random.nextInt(3_600_000);
+            state.put(new UUID(random.nextLong(), random.nextLong()).toString(),
+                    new FileMetadata(name, dob, timestamp, name + " - " + dob));
+        }
+        return state;
+    }
+
+    private static void report(int size, String format, Result result) {
+        System.out.println(String.format(Locale.ROOT, "%-8d %-7s %12d %10.2f %14d %10.2f %14d",
+                size, format, result.bytes, result.saveMillis, result.saveAllocated,
+                result.loadMillis, result.loadAllocated));
+    }
+}
@@ -0,0 +1,133 @@
+package com.transcriber.security;
+
+import com.transcriber.security.FileMetadataManager.FileMetadata;
+import com.transcriber.security.MetadataStore.Record;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MetadataCodecTest {
+
+    private static final String UUID = "0b8f5a4e-3c1d-4e2f-9a6b-7c8d9e0f1a2b";
+
+    @Test
+    public void testEncode_CanonicalUuidKey_RoundTripsInSixteenBytes() throws Exception {
+        Record record = new Record(UUID, metadata("José Núñez", 1_700_000_000_000L));
+
+        byte[] binary = MetadataCodec.encode(Collections.singletonList(record));
+        byte[] text = MetadataCodec.encode(Collections.singletonList(
+                new Record(UUID.toUpperCase(), record.metadata)));
+
+        assertRecordsEqual(Collections.singletonList(record), MetadataCodec.decode(binary));
+        // 16 key bytes instead of a length byte and 36 characters
+        assertEquals(text.length - 21, binary.length);
+    }
+
+    @Test
+    public void testEncode_NonUuidKeys_RoundTripUnchanged() throws Exception {
+        List<Record> records = Arrays.asList(
+                new Record(UUID.toUpperCase(), metadata("A", 1)),
+                new Record("transcription_20240101_120000", metadata("B", 2)),
+                new Record("0b8f5a4e-3c1d-4e2f-9a6b-7c8d9e0f1a2", metadata("C", 3)),
+                new Record("0b8f5a4e-3c1d-4e2f-9a6b-7c8d9e0f1a2g", metadata("D", 4)),
+                new Record("", metadata("E", 5)));
+
+        assertRecordsEqual(records, MetadataCodec.decode(MetadataCodec.encode(records)));
+    }
+
+    @Test
+    public void testEncode_DeleteRecordsAndNullFields_RoundTrip() throws Exception {
+        List<Record> records = Arrays.asList(
+                new Record(UUID, null),
+                new Record("legacy-key", null),
+                new Record(UUID, new FileMetadata(null, "", -1, null)),
+                new Record("max", new FileMetadata("", null, Long.MAX_VALUE, "")));
+
+        List<Record> decoded = MetadataCodec.decode(MetadataCodec.encode(records));
+
+        assertRecordsEqual(records, decoded);
+        assertNull(decoded.get(0).metadata);
+    }
+
+    @Test
+    public void testEncode_EmptyBatch_RoundTrips() throws Exception {
+        assertTrue(MetadataCodec.decode(MetadataCodec.encode(Collections.<Record>emptyList())).isEmpty());
+    }
+
+    @Test
+    public void testDecode_LegacyJsonFrame_ReadsPutsAndRemoves() throws Exception {
+        String json = "[{\"op\":\"put\",\"uuid\":\"" + UUID + "\",\"patientName\":\"Jane Doe\","
+                + "\"dob\":\"1970-01-01\",\"timestamp\":42,\"displayName\":\"Jane Doe - 1970-01-01\"},"
+                + "{\"op\":\"remove\",\"uuid\":\"old-key\"}]";
+
+        List<Record> decoded = MetadataCodec.decode(json.getBytes(StandardCharsets.UTF_8));
+
+        assertRecordsEqual(Arrays.asList(
+                new Record(UUID, new FileMetadata("Jane Doe", "1970-01-01", 42, "Jane Doe - 1970-01-01")),
+                new Record("old-key", null)), decoded);
+    }
+
+    @Test
+    public void testDecodeLegacyFile_JsonObjectOfObjects_ReadsEveryEntry() throws Exception {
+        String json = "{\"" + UUID + "\":{\"patientName\":\"Jane Doe\",\"dob\":\"1970-01-01\","
+                + "\"timestamp\":42,\"displayName\":\"Jane Doe - 1970-01-01\"},"
+                + "\"other\":{\"patientName\":\"John Roe\",\"dob\":\"1980-02-02\","
+                + "\"timestamp\":43,\"displayName\":\"John Roe - 1980-02-02\"}}";
+
+        Map<String, FileMetadata> decoded = MetadataCodec.decodeLegacyFile(json);
+
+        assertEquals(2, decoded.size());
+        assertEquals("Jane Doe", decoded.get(UUID).patientName);
+        assertEquals(43, decoded.get("other").timestamp);
+    }
+
+    @Test
+    public void testDecode_TruncatedFrame_ThrowsIOException() {
+        byte[] frame = MetadataCodec.encode(Collections.singletonList(new Record(UUID, metadata("Jane", 1))));
+
+        assertThrowsIOException(Arrays.copyOf(frame, frame.length - 1));
+        assertThrowsIOException(new byte[]{9, 0});
+        assertThrowsIOException("[{\"op\":".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static FileMetadata metadata(String patientName, long timestamp) {
+        return new FileMetadata(patientName, "1970-01-01", timestamp, patientName + " - 1970-01-01");
+    }
+
+    private static void assertThrowsIOException(byte[] frame) {
+        try {
+            MetadataCodec.decode(frame);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    private static void assertRecordsEqual(List<Record> expected, List<Record> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Record want = expected.get(i);
+            Record got = actual.get(i);
+            assertEquals(want.uuid, got.uuid);
+            if (want.metadata == null) {
+                assertNull(got.metadata);
+                continue;
+            }
+            assertEquals(want.metadata.patientName, got.metadata.patientName);
+            assertEquals(want.metadata.dob, got.metadata.dob);
+            assertEquals(want.metadata.timestamp, got.metadata.timestamp);
+            assertEquals(want.metadata.displayName, got.metadata.displayName);
+        }
+    }
+}
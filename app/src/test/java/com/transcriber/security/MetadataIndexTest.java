@@ -0,0 +1,128 @@
+package com.transcriber.security;
+
+import com.transcriber.security.FileMetadataManager.FileMetadata;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetadataIndexTest {
+
+    private MetadataIndex index;
+
+    @Before
+    public void setUp() {
+        index = new MetadataIndex();
+    }
+
+    @Test
+    public void testFindByNamePrefix_AccentsCaseAndSpaces_MatchNormalizedName() {
+        add("jose", "José  Núñez", "1970-01-01", 100);
+        add("joseph", "Joseph Smith", "1980-02-02", 200);
+        add("maria", "María José", "1990-03-03", 300);
+
+        // Ordered by normalized name, then newest first
+        assertEquals(Arrays.asList("jose", "joseph"), index.findByNamePrefix("jose", null, 10).uuids);
+        assertEquals(Collections.singletonList("jose"), index.findByNamePrefix("JOSÉ   nu", null, 10).uuids);
+        assertEquals(Collections.singletonList("jose"), index.findByNamePrefix("  jose n", null, 10).uuids);
+        assertEquals(Collections.singletonList("maria"), index.findByNamePrefix("maria jose", null, 10).uuids);
+    }
+
+    @Test
+    public void testFindByNamePrefix_TrailingSpace_MatchesWholeWordOnly() {
+        add("jose", "José Núñez", "1970-01-01", 100);
+        add("joseph", "Joseph Smith", "1980-02-02", 200);
+        add("alone", "Jose", "1975-05-05", 300);
+
+        // "jose " matches the whole word, alone or followed by more, but not "joseph"
+        assertEquals(Arrays.asList("alone", "jose"), index.findByNamePrefix("jose ", null, 10).uuids);
+        assertEquals(Arrays.asList("alone", "jose"), index.findByNamePrefix("JOSÉ\t", null, 10).uuids);
+        assertEquals(Arrays.asList("alone", "jose", "joseph"), index.findByNamePrefix("jose", null, 10).uuids);
+    }
+
+    @Test
+    public void testFindByNamePrefix_EmptyPrefix_MatchesEveryone() {
+        add("a", "Ann", "1970-01-01", 100);
+        add("b", null, "1970-01-01", 200);
+
+        assertEquals(Arrays.asList("b", "a"), index.findByNamePrefix("", null, 10).uuids);
+    }
+
+    @Test
+    public void testFindByDob_ExactMatchOnly() {
+        add("a", "Ann", "1970-01-01", 100);
+        add("b", "Bob", "1970-01-011", 200);
+        add("c", "Cid", "1970-01-0", 300);
+        add("d", "Dee", " 1970-01-01 ", 400);
+
+        assertEquals(Arrays.asList("d", "a"), index.findByDob("1970-01-01", null, 10).uuids);
+        assertEquals(Collections.singletonList("c"), index.findByDob("1970-01-0", null, 10).uuids);
+        assertTrue(index.findByDob("1970", null, 10).uuids.isEmpty());
+    }
+
+    @Test
+    public void testFindByTimeRange_FromInclusiveToExclusive() {
+        add("a", "Ann", "1970-01-01", 100);
+        add("b", "Bob", "1970-01-01", 200);
+        add("c", "Cid", "1970-01-01", 300);
+
+        assertEquals(Arrays.asList("b", "a"), index.findByTimeRange(100, 300, null, 10).uuids);
+        assertEquals(Collections.singletonList("b"), index.findByTimeRange(200, 201, null, 10).uuids);
+        assertEquals(Arrays.asList("c", "b", "a"),
+                index.findByTimeRange(Long.MIN_VALUE, Long.MAX_VALUE, null, 10).uuids);
+        assertTrue(index.findByTimeRange(200, 200, null, 10).uuids.isEmpty());
+        assertTrue(index.findByTimeRange(301, 200, null, 10).uuids.isEmpty());
+    }
+
+    @Test
+    public void testFindByNamePrefix_ResumeFromNext_ReturnsEachEntryOnce() {
+        for (int i = 1; i <= 5; i++) {
+            add("e" + i, "Jane Doe", "1970-01-01", i * 100);
+        }
+        add("other", "John Roe", "1970-01-01", 1000);
+
+        MetadataIndex.Page first = index.findByNamePrefix("jane", null, 2);
+        assertEquals(Arrays.asList("e5", "e4"), first.uuids);
+        assertNotNull(first.next);
+
+        // Resuming works even when the entry the page ended on is gone
+        index.remove("e4", new FileMetadata("Jane Doe", "1970-01-01", 400, "Jane Doe - 1970-01-01"));
+        MetadataIndex.Page second = index.findByNamePrefix("jane", first.next, 2);
+        assertEquals(Arrays.asList("e3", "e2"), second.uuids);
+        assertNotNull(second.next);
+
+        MetadataIndex.Page last = index.findByNamePrefix("jane", second.next, 2);
+        assertEquals(Collections.singletonList("e1"), last.uuids);
+        assertNull(last.next);
+    }
+
+    @Test
+    public void testFindByTimeRange_ResumeFromNext_StaysInRange() {
+        for (int i = 1; i <= 5; i++) {
+            add("e" + i, "Jane Doe", "1970-01-01", i * 100);
+        }
+
+        MetadataIndex.Page first = index.findByTimeRange(200, 500, null, 2);
+        assertEquals(Arrays.asList("e4", "e3"), first.uuids);
+
+        MetadataIndex.Page second = index.findByTimeRange(200, 500, first.next, 2);
+        assertEquals(Collections.singletonList("e2"), second.uuids);
+        assertNull(second.next);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindByDob_NonPositiveLimit_Throws() {
+        index.findByDob("1970-01-01", null, 0);
+    }
+
+    private void add(String uuid, String patientName, String dob, long timestamp) {
+        index.add(uuid, new FileMetadata(patientName, dob, timestamp, patientName + " - " + dob));
+    }
+}
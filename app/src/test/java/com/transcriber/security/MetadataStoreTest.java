@@ -0,0 +1,85 @@
+package com.transcriber.security;
+
+import com.transcriber.security.FileMetadataManager.FileMetadata;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetadataStoreTest {
+
+    private static final String UUID = "0b8f5a4e-3c1d-4e2f-9a6b-7c8d9e0f1a2b";
+    private static final int THREADS = 8;
+    private static final int INCREMENTS_PER_THREAD = 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MetadataStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        // Writes behind to disk need the Keystore and fail on the JVM; the in-memory state is what is tested
+        store = new MetadataStore(folder.newFolder("metadata"));
+        store.open();
+    }
+
+    @Test
+    public void testBegin_ConcurrentReadIncrementWrite_NoIncrementLost() throws Exception {
+        store.put(UUID, new FileMetadata("Jane Doe", "1970-01-01", 0, "Jane Doe - 1970-01-01"));
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            workers.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < INCREMENTS_PER_THREAD; i++) {
+                    try (MetadataStore.Transaction transaction = store.begin()) {
+                        FileMetadata current = transaction.get(UUID);
+                        transaction.put(UUID, new FileMetadata(current.patientName, current.dob,
+                                current.timestamp + 1, current.displayName));
+                        transaction.commit();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        long expected = (long) THREADS * INCREMENTS_PER_THREAD;
+        assertEquals(expected, store.get(UUID).timestamp);
+        // Each put replaced the entry's index positions rather than adding to them
+        MetadataIndex.Page all = store.findByTimeRange(Long.MIN_VALUE, Long.MAX_VALUE, null, 10);
+        assertEquals(1, all.uuids.size());
+        assertEquals(UUID, store.findByTimeRange(expected, expected + 1, null, 10).uuids.get(0));
+    }
+
+    @Test
+    public void testTransaction_ClosedWithoutCommit_DiscardsChanges() {
+        try (MetadataStore.Transaction transaction = store.begin()) {
+            transaction.put(UUID, new FileMetadata("Jane Doe", "1970-01-01", 1, "Jane Doe - 1970-01-01"));
+            assertEquals(1, transaction.get(UUID).timestamp);
+        }
+
+        assertNull(store.get(UUID));
+        assertTrue(store.findByNamePrefix("jane", null, 10).uuids.isEmpty());
+    }
+}